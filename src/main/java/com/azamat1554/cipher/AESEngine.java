@@ -0,0 +1,29 @@
+package com.azamat1554.cipher;
+
+/**
+ * Интерфейс поставщика реализации AES (SPI). Режимы блочного шифра работают только
+ * через этот интерфейс, поэтому реализацию можно выбрать для каждого задания.
+ * <p>
+ * Встроенные реализации перечислены в {@link Engine}. Дополнительные реализации
+ * подключаются через {@link java.util.ServiceLoader}: для этого нужно указать имя класса в файле
+ * {@code META-INF/services/com.azamat1554.cipher.AESEngine}.
+ *
+ * @author Azamat Abidokov
+ */
+public interface AESEngine {
+    /** Возвращает имя реализации, по которому ее можно выбрать. */
+    String getName();
+
+    /**
+     * Проверяет, может ли реализация работать на текущей платформе.
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    /** Возвращает объект, который только шифрует блоки указанным ключом. */
+    BlockTransformer encryptor(ExpandedKey key);
+
+    /** Возвращает объект, который только расшифровывает блоки указанным ключом. */
+    BlockTransformer decryptor(ExpandedKey key);
+}
@@ -0,0 +1,514 @@
+package com.azamat1554.cipher;
+
+/**
+ * Реализация AES с побитовым разбиением (bitslicing), которая обрабатывает по 8 блоков за проход.
+ * <p>
+ * Блоки раскладываются в 16 слов типа {@code long}: слово {@code q[b]} (и {@code q[8 + b]}
+ * для второй половины блока) хранит бит номер {@code b} байтов 0..7 (8..15) всех восьми блоков.
+ * В каждом слове байт номер {@code p} соответствует позиции байта в блоке, а бит номер {@code k}
+ * внутри этого байта - номеру блока. S-box вычисляется как логическая схема (Boyar-Peralta),
+ * а ShiftRows и MixColumns сводятся к сдвигам и маскам. В отличие от {@link CipherBlockAES},
+ * здесь нет выборок из таблиц по индексам, зависящим от данных, поэтому время работы
+ * не зависит от ключа и данных (нет утечки через кэш процессора).
+ *
+ * @author Azamat Abidokov
+ */
+public final class BitslicedAES {
+    /** Количество блоков, которые обрабатываются за один проход. */
+    public static final int PARALLEL_BLOCKS = 8;
+
+    /* Количество слов, в которых хранятся 8 блоков (по 8 битовых плоскостей на половину блока). */
+    private static final int WORDS = 16;
+
+    private BitslicedAES() {
+    }
+
+    /**
+     * Возвращает объект, который только шифрует блоки указанным ключом.
+     * Объект использует внутренние буферы, поэтому каждому потоку нужен свой объект.
+     *
+     * @param key Расширенный ключ.
+     */
+    public static BlockTransformer encryptor(ExpandedKey key) {
+        return new Encryptor(sliceKeys(key));
+    }
+
+    /**
+     * Возвращает объект, который только расшифровывает блоки указанным ключом.
+     * Объект использует внутренние буферы, поэтому каждому потоку нужен свой объект.
+     *
+     * @param key Расширенный ключ.
+     */
+    public static BlockTransformer decryptor(ExpandedKey key) {
+        return new Decryptor(sliceKeys(key));
+    }
+
+    /* Общая часть: раундовые ключи и буферы для загрузки и выгрузки блоков. */
+    private static abstract class Transformer extends StagingTransformer {
+        /* Раундовые ключи в виде битовых плоскостей, по 16 слов на раунд. */
+        final long[] rk;
+
+        /* Состояние восьми блоков. */
+        final long[] q = new long[WORDS];
+
+        /* Временные плоскости для MixColumns. */
+        final long[] t = new long[8];
+
+        Transformer(long[] rk) {
+            this.rk = rk;
+        }
+
+        @Override
+        public void transformBlock(byte[] in, int inOff, byte[] out, int outOff) {
+            transformBlocks(in, inOff, out, outOff, 1);
+        }
+
+        @Override
+        public void transformBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            while (blocks > 0) {
+                int count = Math.min(blocks, PARALLEL_BLOCKS);
+
+                load(q, in, inOff, count);
+                rounds();
+                store(q, out, outOff, count);
+
+                inOff += count * AESConst.BLOCK_SIZE;
+                outOff += count * AESConst.BLOCK_SIZE;
+                blocks -= count;
+            }
+        }
+
+        abstract void rounds();
+    }
+
+    private static final class Encryptor extends Transformer {
+        private Encryptor(long[] rk) {
+            super(rk);
+        }
+
+        @Override
+        void rounds() {
+            addRoundKey(q, rk, 0);
+            for (int round = 1; round < AESConst.NR; round++) {
+                subBytes(q);
+                shiftRows(q);
+                mixColumns(q, 0, t);
+                mixColumns(q, 8, t);
+                addRoundKey(q, rk, round);
+            }
+            subBytes(q);
+            shiftRows(q);
+            addRoundKey(q, rk, AESConst.NR);
+        }
+    }
+
+    private static final class Decryptor extends Transformer {
+        private Decryptor(long[] rk) {
+            super(rk);
+        }
+
+        @Override
+        void rounds() {
+            addRoundKey(q, rk, AESConst.NR);
+            for (int round = AESConst.NR - 1; round > 0; round--) {
+                invShiftRows(q);
+                invSubBytes(q);
+                addRoundKey(q, rk, round);
+                invMixColumns(q, 0, t);
+                invMixColumns(q, 8, t);
+            }
+            invShiftRows(q);
+            invSubBytes(q);
+            addRoundKey(q, rk, 0);
+        }
+    }
+
+    //---------------------------------------------------------------------------------------
+    //                        Загрузка блоков и раундовых ключей
+    //---------------------------------------------------------------------------------------
+
+    /**
+     * Раскладывает раундовые ключи на битовые плоскости. Каждый байт плоскости
+     * равен {@code 0xff} или {@code 0x00}, так как ключ одинаков для всех восьми блоков.
+     */
+    private static long[] sliceKeys(ExpandedKey key) {
+        long[] rk = new long[WORDS * (AESConst.NR + 1)];
+        long[] q = new long[WORDS];
+        byte[] roundKey = new byte[AESConst.BLOCK_SIZE];
+
+        for (int round = 0; round <= AESConst.NR; round++) {
+            for (int c = 0; c < AESConst.NB; c++) {
+                int word = key.encryptionKeys[round * AESConst.NB + c];
+                roundKey[4 * c] = (byte) (word >>> 24);
+                roundKey[4 * c + 1] = (byte) (word >>> 16);
+                roundKey[4 * c + 2] = (byte) (word >>> 8);
+                roundKey[4 * c + 3] = (byte) word;
+            }
+
+            long low = getLong(roundKey, 0);
+            long high = getLong(roundKey, 8);
+            for (int k = 0; k < PARALLEL_BLOCKS; k++) {
+                q[k] = low;
+                q[8 + k] = high;
+            }
+            ortho(q, 0);
+            ortho(q, 8);
+            System.arraycopy(q, 0, rk, round * WORDS, WORDS);
+        }
+        return rk;
+    }
+
+    /* Загружает count блоков (недостающие заполняются нулями) и раскладывает их на битовые плоскости. */
+    private static void load(long[] q, byte[] in, int inOff, int count) {
+        for (int k = 0; k < PARALLEL_BLOCKS; k++) {
+            if (k < count) {
+                q[k] = getLong(in, inOff + k * AESConst.BLOCK_SIZE);
+                q[8 + k] = getLong(in, inOff + k * AESConst.BLOCK_SIZE + 8);
+            } else {
+                q[k] = 0;
+                q[8 + k] = 0;
+            }
+        }
+        ortho(q, 0);
+        ortho(q, 8);
+    }
+
+    /* Собирает блоки из битовых плоскостей и записывает первые count из них. */
+    private static void store(long[] q, byte[] out, int outOff, int count) {
+        ortho(q, 0);
+        ortho(q, 8);
+        for (int k = 0; k < count; k++) {
+            putLong(q[k], out, outOff + k * AESConst.BLOCK_SIZE);
+            putLong(q[8 + k], out, outOff + k * AESConst.BLOCK_SIZE + 8);
+        }
+    }
+
+    /**
+     * Транспонирует матрицу 8x8 бит в каждом байте слов {@code q[off..off+7]}:
+     * бит {@code j} байта {@code p} слова {@code q[off + k]} меняется местами с битом {@code k}
+     * байта {@code p} слова {@code q[off + j]}. Преобразование обратно само себе.
+     */
+    private static void ortho(long[] q, int off) {
+        swap(q, off, off + 1, 0x5555555555555555L, 1);
+        swap(q, off + 2, off + 3, 0x5555555555555555L, 1);
+        swap(q, off + 4, off + 5, 0x5555555555555555L, 1);
+        swap(q, off + 6, off + 7, 0x5555555555555555L, 1);
+
+        swap(q, off, off + 2, 0x3333333333333333L, 2);
+        swap(q, off + 1, off + 3, 0x3333333333333333L, 2);
+        swap(q, off + 4, off + 6, 0x3333333333333333L, 2);
+        swap(q, off + 5, off + 7, 0x3333333333333333L, 2);
+
+        swap(q, off, off + 4, 0x0f0f0f0f0f0f0f0fL, 4);
+        swap(q, off + 1, off + 5, 0x0f0f0f0f0f0f0f0fL, 4);
+        swap(q, off + 2, off + 6, 0x0f0f0f0f0f0f0f0fL, 4);
+        swap(q, off + 3, off + 7, 0x0f0f0f0f0f0f0f0fL, 4);
+    }
+
+    private static void swap(long[] q, int a, int b, long mask, int shift) {
+        long x = q[a];
+        long y = q[b];
+        q[a] = (x & mask) | ((y & mask) << shift);
+        q[b] = ((x >>> shift) & mask) | (y & ~mask);
+    }
+
+    //---------------------------------------------------------------------------------------
+    //                                  Преобразования раунда
+    //---------------------------------------------------------------------------------------
+
+    private static void addRoundKey(long[] q, long[] rk, int round) {
+        int offset = round * WORDS;
+        for (int i = 0; i < WORDS; i++)
+            q[i] ^= rk[offset + i];
+    }
+
+    private static void subBytes(long[] q) {
+        sbox(q, 0);
+        sbox(q, 8);
+    }
+
+    /**
+     * Обратная замена байтов: S-box, окруженный обратным аффинным преобразованием,
+     * так как InvS(y) = A'(S(A'(y))), где A'(y) = L^-1(y ^ 0x63).
+     */
+    private static void invSubBytes(long[] q) {
+        for (int off = 0; off < WORDS; off += 8) {
+            invAffine(q, off);
+            sbox(q, off);
+            invAffine(q, off);
+        }
+    }
+
+    private static void invAffine(long[] q, int off) {
+        long q0 = ~q[off];
+        long q1 = ~q[off + 1];
+        long q2 = q[off + 2];
+        long q3 = q[off + 3];
+        long q4 = q[off + 4];
+        long q5 = ~q[off + 5];
+        long q6 = ~q[off + 6];
+        long q7 = q[off + 7];
+        q[off + 7] = q1 ^ q4 ^ q6;
+        q[off + 6] = q0 ^ q3 ^ q5;
+        q[off + 5] = q7 ^ q2 ^ q4;
+        q[off + 4] = q6 ^ q1 ^ q3;
+        q[off + 3] = q5 ^ q0 ^ q2;
+        q[off + 2] = q4 ^ q7 ^ q1;
+        q[off + 1] = q3 ^ q6 ^ q0;
+        q[off] = q2 ^ q5 ^ q7;
+    }
+
+    /* Маски байтов слова: байт p - позиция байта в блоке, p = строка + 4 * (столбец % 2). */
+    private static final long ROW0 = 0x000000ff000000ffL;
+    private static final long ROW2 = 0x00ff000000ff0000L;
+    private static final long LANE1 = 0x000000000000ff00L;
+    private static final long LANE3 = 0x00000000ff000000L;
+    private static final long LANE5 = 0x0000ff0000000000L;
+    private static final long LANE7 = 0xff00000000000000L;
+
+    /**
+     * Сдвигает строки. Слово {@code q[b]} содержит столбцы 0 и 1, слово {@code q[8 + b]} - столбцы 2 и 3.
+     */
+    private static void shiftRows(long[] q) {
+        for (int b = 0; b < 8; b++) {
+            long lo = q[b];
+            long hi = q[8 + b];
+            q[b] = (lo & ROW0) | (hi & ROW2)
+                    | ((lo >>> 32) & LANE1) | ((hi << 32) & LANE5)
+                    | ((hi >>> 32) & LANE3) | ((lo << 32) & LANE7);
+            q[8 + b] = (hi & ROW0) | (lo & ROW2)
+                    | ((hi >>> 32) & LANE1) | ((lo << 32) & LANE5)
+                    | ((lo >>> 32) & LANE3) | ((hi << 32) & LANE7);
+        }
+    }
+
+    private static void invShiftRows(long[] q) {
+        for (int b = 0; b < 8; b++) {
+            long lo = q[b];
+            long hi = q[8 + b];
+            q[b] = (lo & ROW0) | (hi & ROW2)
+                    | ((hi >>> 32) & LANE1) | ((lo << 32) & LANE5)
+                    | ((lo >>> 32) & LANE3) | ((hi << 32) & LANE7);
+            q[8 + b] = (hi & ROW0) | (lo & ROW2)
+                    | ((lo >>> 32) & LANE1) | ((hi << 32) & LANE5)
+                    | ((hi >>> 32) & LANE3) | ((lo << 32) & LANE7);
+        }
+    }
+
+    /* Циклический сдвиг строк внутри каждого столбца: строка r получает строку r + 1. */
+    private static long rotate1(long x) {
+        return ((x >>> 8) & 0x00ffffff00ffffffL) | ((x << 24) & 0xff000000ff000000L);
+    }
+
+    /* Циклический сдвиг строк внутри каждого столбца: строка r получает строку r + 2. */
+    private static long rotate2(long x) {
+        return ((x >>> 16) & 0x0000ffff0000ffffL) | ((x << 16) & 0xffff0000ffff0000L);
+    }
+
+    /**
+     * Умножает на 2 в поле Галуа байты, разложенные на плоскости {@code s[0..7]}.
+     */
+    private static void xtime(long[] s) {
+        long carry = s[7];
+        s[7] = s[6];
+        s[6] = s[5];
+        s[5] = s[4];
+        s[4] = s[3] ^ carry;
+        s[3] = s[2] ^ carry;
+        s[2] = s[1];
+        s[1] = s[0] ^ carry;
+        s[0] = carry;
+    }
+
+    /**
+     * MixColumns для половины блока: b[r] = 2 * (a[r] ^ a[r + 1]) ^ a[r + 1] ^ a[r + 2] ^ a[r + 3].
+     */
+    private static void mixColumns(long[] q, int off, long[] t) {
+        for (int b = 0; b < 8; b++)
+            t[b] = q[off + b] ^ rotate1(q[off + b]);
+        for (int b = 0; b < 8; b++)
+            q[off + b] = rotate1(q[off + b]) ^ rotate2(t[b]);
+        xtime(t);
+        for (int b = 0; b < 8; b++)
+            q[off + b] ^= t[b];
+    }
+
+    /**
+     * InvMixColumns для половины блока: к a[r] прибавляется 4 * (a[r] ^ a[r + 2]),
+     * после чего выполняется обычный MixColumns.
+     */
+    private static void invMixColumns(long[] q, int off, long[] t) {
+        for (int b = 0; b < 8; b++)
+            t[b] = q[off + b] ^ rotate2(q[off + b]);
+        xtime(t);
+        xtime(t);
+        for (int b = 0; b < 8; b++)
+            q[off + b] ^= t[b];
+        mixColumns(q, off, t);
+    }
+
+    /**
+     * Вычисляет S-box для плоскостей {@code q[off..off+7]} логической схемой Boyar-Peralta.
+     */
+    private static void sbox(long[] q, int off) {
+        long x0 = q[off + 7];
+        long x1 = q[off + 6];
+        long x2 = q[off + 5];
+        long x3 = q[off + 4];
+        long x4 = q[off + 3];
+        long x5 = q[off + 2];
+        long x6 = q[off + 1];
+        long x7 = q[off];
+
+        //верхнее линейное преобразование
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        //нелинейная часть (обращение в поле Галуа)
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        //нижнее линейное преобразование (включает аффинное преобразование S-box)
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        q[off + 7] = s0;
+        q[off + 6] = s1;
+        q[off + 5] = s2;
+        q[off + 4] = s3;
+        q[off + 3] = s4;
+        q[off + 2] = s5;
+        q[off + 1] = s6;
+        q[off] = s7;
+    }
+
+    //---------------------------------------------------------------------------------------
+    //                               Вспомогательные методы
+    //---------------------------------------------------------------------------------------
+
+    /* Читает 8 байт в порядке little-endian: байт offset + p попадает в байт p слова. */
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--)
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        return value;
+    }
+
+    private static void putLong(long value, byte[] bytes, int offset) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
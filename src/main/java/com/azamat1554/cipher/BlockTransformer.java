@@ -0,0 +1,71 @@
+package com.azamat1554.cipher;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Преобразование блоков по 16 байт в одном направлении (только шифрование или только расшифровка).
+ * Направление выбирается один раз при создании объекта, поэтому в цикле обработки блоков
+ * нет проверок режима работы.
+ * <p>
+ * Реализации не обязаны быть потокобезопасными: каждый поток должен использовать свой объект.
+ *
+ * @author Azamat Abidokov
+ */
+public interface BlockTransformer {
+    /**
+     * Преобразует блок данных размером 16 байт, начиная с индекса {@code inOff} массива {@code in},
+     * и записывает результат в массив {@code out}, начиная с индекса {@code outOff}.
+     * Массивы могут совпадать, в том числе при {@code inOff == outOff}.
+     *
+     * @param in     Исходный массив байт
+     * @param inOff  Индекс начала блока в исходном массиве
+     * @param out    Массив для записи результата
+     * @param outOff Индекс, с которого записывается результат
+     */
+    void transformBlock(byte[] in, int inOff, byte[] out, int outOff);
+
+    /**
+     * Преобразует {@code blocks} подряд идущих блоков. Реализации, которые обрабатывают
+     * несколько блоков за проход, переопределяют этот метод.
+     *
+     * @param in     Исходный массив байт
+     * @param inOff  Индекс начала первого блока в исходном массиве
+     * @param out    Массив для записи результата
+     * @param outOff Индекс, с которого записывается результат
+     * @param blocks Количество блоков
+     */
+    default void transformBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            transformBlock(in, inOff, out, outOff);
+            inOff += AESConst.BLOCK_SIZE;
+            outOff += AESConst.BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * Преобразует на месте {@code blocks} подряд идущих блоков буфера, начиная с индекса {@code offset}.
+     * Индекс абсолютный, позиция буфера не учитывается и не изменяется. Реализация по умолчанию
+     * преобразует массив буфера, а блоки буфера вне кучи копирует в новый массив; реализации,
+     * которые умеют читать буфер напрямую или хранят свой массив для копирования, переопределяют этот метод.
+     *
+     * @param buffer Буфер с данными, например, основанный на памяти вне кучи
+     * @param offset Индекс начала первого блока
+     * @param blocks Количество блоков
+     */
+    default void transformBlocks(ByteBuffer buffer, int offset, int blocks) {
+        if (buffer.hasArray()) {
+            int arrayOffset = buffer.arrayOffset() + offset;
+            transformBlocks(buffer.array(), arrayOffset, buffer.array(), arrayOffset, blocks);
+            return;
+        }
+
+        byte[] staging = new byte[blocks * AESConst.BLOCK_SIZE];
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(offset);
+        view.get(staging);
+        transformBlocks(staging, 0, staging, 0, blocks);
+        ((Buffer) view).position(offset);
+        view.put(staging);
+    }
+}
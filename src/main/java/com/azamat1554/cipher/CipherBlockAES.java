@@ -3,11 +3,14 @@ package com.azamat1554.cipher;
 
 import java.util.Arrays;
 
-import static com.azamat1554.cipher.modes.BlockCipher.getMode;
-
 /**
  * Класс реализующий шифрование и расшифровку блоков по 16 байт.
  * В качестве алгоритма шифрования использутеся AES (Rijndael).
+ * <p>
+ * Состояние хранится в четырех 32-битных словах (по одному на столбец),
+ * а преобразования SubBytes, ShiftRows и MixColumns объединены в таблицы
+ * {@code TE0..TE3} (шифрование) и {@code TD0..TD3} (расшифровка,
+ * эквивалентный обратный шифр), поэтому один раунд сводится к 16 выборкам из таблиц.
  *
  * @author Azamat Abidokov
  */
@@ -15,7 +18,7 @@ public class CipherBlockAES {
     /**
      * Матрица замен байтов, используется при шифровке в методе {@code subBytes()}.
      */
-    private static final int[] sbox = {
+    static final int[] sbox = {
             0x63, 0x7c, 0x77, 0x7b, 0xf2, 0x6b, 0x6f, 0xc5, 0x30, 0x01, 0x67, 0x2b, 0xfe, 0xd7, 0xab, 0x76,
             0xca, 0x82, 0xc9, 0x7d, 0xfa, 0x59, 0x47, 0xf0, 0xad, 0xd4, 0xa2, 0xaf, 0x9c, 0xa4, 0x72, 0xc0,
             0xb7, 0xfd, 0x93, 0x26, 0x36, 0x3f, 0xf7, 0xcc, 0x34, 0xa5, 0xe5, 0xf1, 0x71, 0xd8, 0x31, 0x15,
@@ -37,7 +40,7 @@ public class CipherBlockAES {
     /**
      * Матрица замен байтов, используется при расшифровке в методе {@code subBytes()}.
      */
-    private static final int[] invSbox = {
+    static final int[] invSbox = {
             0x52, 0x09, 0x6a, 0xd5, 0x30, 0x36, 0xa5, 0x38, 0xbf, 0x40, 0xa3, 0x9e, 0x81, 0xf3, 0xd7, 0xfb,
             0x7c, 0xe3, 0x39, 0x82, 0x9b, 0x2f, 0xff, 0x87, 0x34, 0x8e, 0x43, 0x44, 0xc4, 0xde, 0xe9, 0xcb,
             0x54, 0x7b, 0x94, 0x32, 0xa6, 0xc2, 0x23, 0x3d, 0xee, 0x4c, 0x95, 0x0b, 0x42, 0xfa, 0xc3, 0x4e,
@@ -101,9 +104,61 @@ public class CipherBlockAES {
     };
 
     /**
-     * Матрица, над которой будут производиться преобразования.
+     * Таблицы раунда шифрования: {@code TE0[x]} содержит столбец
+     * {@code (2*S[x], S[x], S[x], 3*S[x])}, остальные таблицы - его циклические сдвиги.
+     */
+    private static final int[] TE0 = new int[256];
+    private static final int[] TE1 = new int[256];
+    private static final int[] TE2 = new int[256];
+    private static final int[] TE3 = new int[256];
+
+    /**
+     * Таблицы раунда расшифровки: {@code TD0[x]} содержит столбец
+     * {@code (e*Si[x], 9*Si[x], d*Si[x], b*Si[x])}, остальные таблицы - его циклические сдвиги.
+     */
+    private static final int[] TD0 = new int[256];
+    private static final int[] TD1 = new int[256];
+    private static final int[] TD2 = new int[256];
+    private static final int[] TD3 = new int[256];
+
+    static {
+        for (int x = 0; x < 256; x++) {
+            int s = sbox[x];
+            int te = (multiply(s, 0x02) << 24) | (s << 16) | (s << 8) | multiply(s, 0x03);
+            TE0[x] = te;
+            TE1[x] = Integer.rotateRight(te, 8);
+            TE2[x] = Integer.rotateRight(te, 16);
+            TE3[x] = Integer.rotateRight(te, 24);
+
+            int si = invSbox[x];
+            int td = (multiply(si, 0x0e) << 24) | (multiply(si, 0x09) << 16) | (multiply(si, 0x0d) << 8) | multiply(si, 0x0b);
+            TD0[x] = td;
+            TD1[x] = Integer.rotateRight(td, 8);
+            TD2[x] = Integer.rotateRight(td, 16);
+            TD3[x] = Integer.rotateRight(td, 24);
+        }
+    }
+
+    /**
+     * Раундовые ключи для шифрования.
      */
-    private final byte[][] state = new byte[4][AESConst.NB];
+    private final int[] encryptionKeys;
+
+    /**
+     * Раундовые ключи для расшифровки.
+     */
+    private final int[] decryptionKeys;
+
+    /**
+     * Создает объект, который шифрует и расшифровывает блоки указанным ключом.
+     * Объект не изменяет свое состояние, поэтому может использоваться из нескольких потоков.
+     *
+     * @param key Расширенный ключ.
+     */
+    public CipherBlockAES(ExpandedKey key) {
+        encryptionKeys = key.encryptionKeys;
+        decryptionKeys = key.decryptionKeys;
+    }
 
     /**
      * Шифрует блок данных размером 16 байт
@@ -113,155 +168,300 @@ public class CipherBlockAES {
      * @return Зашифрованный массив
      */
     public byte[] encryptBlock(byte[] plainText) {
-        fillState(plainText);
+        byte[] cipherText = new byte[AESConst.BLOCK_SIZE];
+        encryptBlock(plainText, 0, cipherText, 0);
+        return cipherText;
+    }
+
+    /**
+     * Шифрует блок данных размером 16 байт, начиная с индекса {@code inOff} массива {@code in},
+     * и записывает результат в массив {@code out}, начиная с индекса {@code outOff}.
+     * Массивы могут совпадать, в том числе при {@code inOff == outOff}.
+     *
+     * @param in     Исходный массив байт
+     * @param inOff  Индекс начала блока в исходном массиве
+     * @param out    Массив для записи результата
+     * @param outOff Индекс, с которого записывается результат
+     */
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        encrypt(encryptionKeys, in, inOff, out, outOff);
+    }
+
+    /**
+     * Расшифровывает входную последовательнойть байт и возвращает рузультат.
+     *
+     * @param cipherText Зашифрованный массив байт
+     * @return Расшифрованный массив
+     */
+    public byte[] decryptBlock(byte[] cipherText) {
+        byte[] plainText = new byte[AESConst.BLOCK_SIZE];
+        decryptBlock(cipherText, 0, plainText, 0);
+        return plainText;
+    }
+
+    /**
+     * Расшифровывает блок данных размером 16 байт, начиная с индекса {@code inOff} массива {@code in},
+     * и записывает результат в массив {@code out}, начиная с индекса {@code outOff}.
+     * Массивы могут совпадать, в том числе при {@code inOff == outOff}.
+     *
+     * @param in     Зашифрованный массив байт
+     * @param inOff  Индекс начала блока в зашифрованном массиве
+     * @param out    Массив для записи результата
+     * @param outOff Индекс, с которого записывается результат
+     */
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        decrypt(decryptionKeys, in, inOff, out, outOff);
+    }
 
+    /**
+     * Возвращает объект, который только шифрует блоки указанным ключом.
+     *
+     * @param key Расширенный ключ.
+     */
+    public static BlockTransformer encryptor(ExpandedKey key) {
+        return new Encryptor(key.encryptionKeys);
+    }
+
+    /**
+     * Возвращает объект, который только расшифровывает блоки указанным ключом.
+     *
+     * @param key Расширенный ключ.
+     */
+    public static BlockTransformer decryptor(ExpandedKey key) {
+        return new Decryptor(key.decryptionKeys);
+    }
+
+    /*
+     * Шифрует блоки, направление преобразования задано типом объекта.
+     * Состояние блока хранится в локальных переменных, поэтому объект не создает массивов.
+     */
+    private static final class Encryptor extends StagingTransformer {
+        private final int[] rk;
+
+        private Encryptor(int[] rk) {
+            this.rk = rk;
+        }
+
+        @Override
+        public void transformBlock(byte[] in, int inOff, byte[] out, int outOff) {
+            encrypt(rk, in, inOff, out, outOff);
+        }
+    }
+
+    /*
+     * Расшифровывает блоки, направление преобразования задано типом объекта.
+     * Состояние блока хранится в локальных переменных, поэтому объект не создает массивов.
+     */
+    private static final class Decryptor extends StagingTransformer {
+        private final int[] rk;
+
+        private Decryptor(int[] rk) {
+            this.rk = rk;
+        }
+
+        @Override
+        public void transformBlock(byte[] in, int inOff, byte[] out, int outOff) {
+            decrypt(rk, in, inOff, out, outOff);
+        }
+    }
+
+    /**
+     * Шифрует раундовыми ключами {@code rk} блок массива {@code in}, начинающийся с индекса {@code inOff},
+     * и записывает результат в массив {@code out}, начиная с индекса {@code outOff}.
+     * Столбцы состояния хранятся в локальных переменных.
+     */
+    private static void encrypt(int[] rk, byte[] in, int inOff, byte[] out, int outOff) {
         //---------------Инициализация--------------------------
-        addRoundKey();
+        int s0 = getWord(in, inOff) ^ rk[0];
+        int s1 = getWord(in, inOff + 4) ^ rk[1];
+        int s2 = getWord(in, inOff + 8) ^ rk[2];
+        int s3 = getWord(in, inOff + 12) ^ rk[3];
 
         //-----------------NR - 1 раундов------------------------
+        int t0, t1, t2, t3;
+        int k = AESConst.NB;
         for (int i = 0; i < AESConst.NR - 1; i++) {
-            subBytes();
-            shiftRows();
-            mixColumns();
-            addRoundKey();
+            t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ rk[k];
+            t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ rk[k + 1];
+            t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ rk[k + 2];
+            t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            k += AESConst.NB;
         }
 
         //------------------Последний раунд---------------------
-        subBytes();
-        shiftRows();
-        addRoundKey();
-
-        return output();
+        t0 = lastRound(sbox, s0, s1, s2, s3) ^ rk[k];
+        t1 = lastRound(sbox, s1, s2, s3, s0) ^ rk[k + 1];
+        t2 = lastRound(sbox, s2, s3, s0, s1) ^ rk[k + 2];
+        t3 = lastRound(sbox, s3, s0, s1, s2) ^ rk[k + 3];
+
+        putWord(t0, out, outOff);
+        putWord(t1, out, outOff + 4);
+        putWord(t2, out, outOff + 8);
+        putWord(t3, out, outOff + 12);
     }
 
     /**
-     * Расшифровывает входную последовательнойть байт и возвращает рузультат.
-     *
-     * @param cipherText Зашифрованный массив байт
-     * @return Расшифрованный массив
+     * Расшифровывает раундовыми ключами {@code rk} (эквивалентный обратный шифр) блок массива {@code in},
+     * начинающийся с индекса {@code inOff}, и записывает результат в массив {@code out}, начиная
+     * с индекса {@code outOff}. Столбцы состояния хранятся в локальных переменных.
      */
-    public byte[] decryptBlock(byte[] cipherText) {
-        fillState(cipherText);
-
+    private static void decrypt(int[] rk, byte[] in, int inOff, byte[] out, int outOff) {
         //---------------Инициализация--------------------------
-        addRoundKey();
+        int s0 = getWord(in, inOff) ^ rk[0];
+        int s1 = getWord(in, inOff + 4) ^ rk[1];
+        int s2 = getWord(in, inOff + 8) ^ rk[2];
+        int s3 = getWord(in, inOff + 12) ^ rk[3];
 
         //----------------NR - 1 раундов------------------------
-        for (int i = AESConst.NR - 1; i > 0; i--) {
-            shiftRows();
-            subBytes();
-            addRoundKey();
-            mixColumns();
+        int t0, t1, t2, t3;
+        int k = AESConst.NB;
+        for (int i = 0; i < AESConst.NR - 1; i++) {
+            t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ rk[k];
+            t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ rk[k + 1];
+            t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ rk[k + 2];
+            t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            k += AESConst.NB;
         }
 
         //-----------------Последний раунд---------------------
-        shiftRows();
-        subBytes();
-        addRoundKey();
+        t0 = lastRound(invSbox, s0, s3, s2, s1) ^ rk[k];
+        t1 = lastRound(invSbox, s1, s0, s3, s2) ^ rk[k + 1];
+        t2 = lastRound(invSbox, s2, s1, s0, s3) ^ rk[k + 2];
+        t3 = lastRound(invSbox, s3, s2, s1, s0) ^ rk[k + 3];
+
+        putWord(t0, out, outOff);
+        putWord(t1, out, outOff + 4);
+        putWord(t2, out, outOff + 8);
+        putWord(t3, out, outOff + 12);
+    }
 
-        return output();
+    /**
+     * Последний раунд (без MixColumns): собирает столбец из байтов четырех слов,
+     * заменяя их значениями из таблицы {@code box}.
+     */
+    private static int lastRound(int[] box, int a, int b, int c, int d) {
+        return (box[a >>> 24] << 24)
+                | (box[(b >>> 16) & 0xff] << 16)
+                | (box[(c >>> 8) & 0xff] << 8)
+                | box[d & 0xff];
     }
 
-    //-----------------------------------------------------------------------------------------------------------
-    //                                      Методы для шифрования/расшифрования
-    //-----------------------------------------------------------------------------------------------------------
+    /**
+     * Кэш расширенных ключей. Размер задается системным свойством {@code aes.keyCache.size}.
+     */
+    private static final KeyCache keyCache = new KeyCache(Integer.getInteger("aes.keyCache.size", 1024));
 
     /**
-     * Заменяет значения в матрице {@code state}, на соответствующие им из таблицы {@code sbox}.
+     * Создает объект, который шифрует и расшифровывает блоки указанным ключом.
+     * Расширенный ключ берется из кэша, если этот ключ уже использовался.
+     *
+     * @param secretKey Массив хранящий секретный ключ.
      */
-    private void subBytes() {
-        for (int r = 0; r < 4; r++) {
-            for (int c = 0; c < AESConst.NB; c++) {
-                if (getMode() == ModeOf.ENCRYPTION)
-                    state[r][c] = (byte) sbox[state[r][c] & 0xff];
-                else
-                    state[r][c] = (byte) invSbox[state[r][c] & 0xff];
-            }
-        }
+    public CipherBlockAES(byte[] secretKey) {
+        this(expandKey(secretKey));
     }
 
     /**
-     * Сдвигает элементы в строках {@code state}.
+     * Возвращает расширенный ключ для {@code secretKey}: из кэша, если этот ключ
+     * уже использовался, иначе выполняет расширение. Массив {@code secretKey} не изменяется.
+     *
+     * @param secretKey Массив хранящий секретный ключ.
+     * @return Неизменяемый объект с раундовыми ключами.
+     * @throws IllegalArgumentException Если длина ключа не равна {@code 4 * NK} байт.
      */
-    private void shiftRows() {
-        for (int r = 1; r < 4; r++) {
-            if (getMode() == ModeOf.ENCRYPTION)
-                shiftArray(state[r], -r); //сдвиг влево
-            else
-                shiftArray(state[r], r); //сдвиг вправо
-        }
+    public static ExpandedKey expandKey(byte[] secretKey) {
+        return keyCache.get(secretKey);
+    }
+
+    /** Возвращает кэш расширенных ключей, например, чтобы узнать количество попаданий. */
+    public static KeyCache getKeyCache() {
+        return keyCache;
+    }
+
+    /** Проверяет длину секретного ключа. */
+    static void checkKey(byte[] secretKey) {
+        if (secretKey.length != 4 * AESConst.NK)
+            throw new IllegalArgumentException("Key must be " + 4 * AESConst.NK + " bytes long");
     }
 
     /**
-     * Умножает каждый столбец из матрицы {@code state}, на соответсующие коэффициенты.
-     * Умножение производится, по правилам умножения в поле Галуа (GF)
+     * Выполняет расширение ключа, минуя кэш: генерирует все раундовые ключи на основе {@code secretKey}.
      */
-    private void mixColumns() {
-        byte s0, s1, s2, s3;
-        for (int c = 0; c < AESConst.NB; c++) {
-            if (getMode() == ModeOf.ENCRYPTION) {
-                s0 = (byte) (multiply(state[0][c], 0x02) ^ multiply(state[1][c], 0x03) ^ state[2][c] ^ state[3][c]);
-                s1 = (byte) (state[0][c] ^ multiply(state[1][c], 0x02) ^ multiply(state[2][c], 0x03) ^ state[3][c]);
-                s2 = (byte) (state[0][c] ^ state[1][c] ^ multiply(state[2][c], 0x02) ^ multiply(state[3][c], 0x03));
-                s3 = (byte) (multiply(state[0][c], 0x03) ^ state[1][c] ^ state[2][c] ^ multiply(state[3][c], 0x02));
-            } else {
-                s0 = (byte) (multiply(state[0][c], 0x0e) ^ multiply(state[1][c], 0x0b) ^ multiply(state[2][c], 0x0d) ^ multiply(state[3][c], 0x09));
-                s1 = (byte) (multiply(state[0][c], 0x09) ^ multiply(state[1][c], 0x0e) ^ multiply(state[2][c], 0x0b) ^ multiply(state[3][c], 0x0d));
-                s2 = (byte) (multiply(state[0][c], 0x0d) ^ multiply(state[1][c], 0x09) ^ multiply(state[2][c], 0x0e) ^ multiply(state[3][c], 0x0b));
-                s3 = (byte) (multiply(state[0][c], 0x0b) ^ multiply(state[1][c], 0x0d) ^ multiply(state[2][c], 0x09) ^ multiply(state[3][c], 0x0e));
+    static ExpandedKey expand(byte[] secretKey) {
+        checkKey(secretKey);
+
+        int[] encryptionKeys = new int[AESConst.NB * (AESConst.NR + 1)];
+        int[] decryptionKeys = new int[AESConst.NB * (AESConst.NR + 1)];
+
+        for (int c = 0; c < AESConst.NK; c++) {
+            encryptionKeys[c] = getWord(secretKey, 4 * c);
+        }
+
+        // index - указатель на текущий столбец
+        for (int index = AESConst.NK; index < encryptionKeys.length; index++) {
+            int temp = encryptionKeys[index - 1];
+            if (index % AESConst.NK == 0) {
+                //сдвиг на один байт и замена байтов значениями из таблицы sbox
+                temp = subWord(Integer.rotateLeft(temp, 8)) ^ (rcon[index / AESConst.NK - 1] << 24);
             }
+            encryptionKeys[index] = encryptionKeys[index - AESConst.NK] ^ temp;
+        }
 
-            state[0][c] = s0;
-            state[1][c] = s1;
-            state[2][c] = s2;
-            state[3][c] = s3;
+        //ключи расшифровки: в обратном порядке и, кроме первого и последнего,
+        //пропущенные через InvMixColumns (эквивалентный обратный шифр)
+        for (int round = 0; round <= AESConst.NR; round++) {
+            for (int c = 0; c < AESConst.NB; c++) {
+                int word = encryptionKeys[(AESConst.NR - round) * AESConst.NB + c];
+                if (round != 0 && round != AESConst.NR) word = invMixColumn(word);
+
+                decryptionKeys[round * AESConst.NB + c] = word;
+            }
         }
+
+        return new ExpandedKey(encryptionKeys, decryptionKeys);
     }
 
+    /**
+     * Используется для столбцов номера которых кратны NK.
+     */
+    private static final int[] rcon = {0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1b, 0x36};
 
     /**
-     * Счетчик раундов.
+     * Заменяет байты слова на соответствующие им из таблицы {@code sbox}.
      */
-    private int countRound = 0;
+    private static int subWord(int word) {
+        return lastRound(sbox, word, word, word, word);
+    }
 
     /**
-     * Производит операцию исключающее или (XOR) между {@code state} и {@code roundKey}.
-     * {@code RoundKey} вычисляется вложенным классом {@code Key}.
+     * Применяет InvMixColumns к столбцу. Таблицы {@code TD} включают замену по {@code invSbox},
+     * поэтому сначала байты заменяются по {@code sbox}, чтобы ее отменить.
      */
-    private void addRoundKey() {
-        byte[][] roundKey;
-        if (getMode() == ModeOf.ENCRYPTION)
-            roundKey = Key.getRoundKey(countRound++);
-        else
-            roundKey = Key.getRoundKey((AESConst.NR - countRound++));
-
-        if (countRound == 11) countRound = 0;
-
-        for (int c = 0; c < AESConst.NB; c++) {
-            for (int r = 0; r < 4; r++) {
-                state[r][c] = (byte) (state[r][c] ^ roundKey[r][c]);
-            }
-        }
+    private static int invMixColumn(int word) {
+        return TD0[sbox[word >>> 24]]
+                ^ TD1[sbox[(word >>> 16) & 0xff]]
+                ^ TD2[sbox[(word >>> 8) & 0xff]]
+                ^ TD3[sbox[word & 0xff]];
     }
 
     /**
-     * Класс {@code Key} предназначен для генерации раундовых ключей.
+     * Класс {@code Key} хранит ключ, установленный пользователем в графическом интерфейсе.
+     * Каждое задание запоминает ключ при создании, поэтому смена ключа
+     * не влияет на уже запущенные задания.
      */
     public static class Key {
         /**
-         * Матрица раудовых ключей.
-         */
-        private static final byte[][] keySchedule = new byte[4][AESConst.NB * (AESConst.NR + 1)];
-
-        /**
-         * Используется для столбцов номера которых кратны NK.
+         * Текущий ключ.
          */
-        private static final int[][] rcon = {
-                {0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1b, 0x36},
-                {0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00},
-                {0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00},
-                {0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00}
-        };
+        private static volatile ExpandedKey current;
 
         /**
          * Используется для установки секретного ключа.
@@ -269,92 +469,21 @@ public class CipherBlockAES {
          * @param secretKey Массив хранящий секретный ключ.
          */
         public static void setKey(byte[] secretKey) {
-            for (int r = 0; r < 4; r++) {
-                for (int c = 0; c < AESConst.NB; c++) {
-                    keySchedule[r][c] = secretKey[r + 4 * c];
-                }
-            }
-            keyExpansion();
+            current = expandKey(secretKey);
 
             //обнулить массив с ключом
             Arrays.fill(secretKey, (byte) 0);
         }
 
         /**
-         * Хранит значение столбца из массива {@code keySchedule} для дальнейших преобразований.
-         */
-        private static byte[] temp = new byte[4];
-
-        /**
-         * Генерирует все раундовые ключи на основе {@code secretKey}.
-         */
-        private static void keyExpansion() {
-            // index - указатель на текущий столбец
-            for (int index = AESConst.NK; index < keySchedule[0].length; index++) {
-                if (index % AESConst.NK == 0) {
-                    temp = getColumn(index - 1); //возвращяет предыдущий столбец таблицы keySchedule
-                    rotWord(); //сдвиг на один элемент
-                    subWord(); //замена байтов значениями из таллицы sbox
-                    for (int r = 0; r < 4; r++) {
-                        keySchedule[r][index] = (byte) (temp[r] ^ keySchedule[r][index - AESConst.NK] ^ rcon[r][index / AESConst.NK - 1]);
-                    }
-                } else {
-                    for (int r = 0; r < 4; r++) {
-                        keySchedule[r][index] = (byte) (keySchedule[r][index - 1] ^ keySchedule[r][index - AESConst.NK]);
-                    }
-                }
-            }
-        }
-
-        /**
-         * Возвращает столбец под указанным индексом.
-         */
-        private static byte[] getColumn(int index) {
-            byte[] column = new byte[4];
-            for (int i = 0; i < 4; i++) {
-                column[i] = keySchedule[i][index];
-            }
-            return column;
-        }
-
-        /**
-         * Возвращает раундовый ключ.
+         * Возвращает текущий ключ.
          *
-         * @param numberOfRound Номер раунда.
-         */
-        private static byte[][] getRoundKey(int numberOfRound) {
-            byte[][] block = new byte[4][AESConst.NB];
-            for (int r = 0; r < 4; r++)
-                for (int c = 0; c < AESConst.NK; c++)
-                    block[r][c] = keySchedule[r][numberOfRound * AESConst.NB + c];
-
-            return block;
-        }
-
-        /**
-         * Осуществляет сдвиг элементов массива {@code temp} влево на один элемент.
-         */
-        private static void rotWord() {
-            int length = temp.length;
-
-            byte item = temp[0];
-            for (int i = 1; i < length; i++) {
-                temp[i - 1] = temp[i];
-            }
-            temp[length - 1] = item;
-        }
-
-        /**
-         * Заменяет элементы массива {@code temp} на соответствующие им из таблицы {@code sbox}.
+         * @throws IllegalStateException Если ключ еще не был установлен.
          */
-        private static void subWord() {
-            int row, column;
-            for (int r = 0; r < 4; r++) {
-                row = (temp[r] & 0xf0) >> 4;
-                column = (temp[r] & 0x0f);
-
-                temp[r] = (byte) sbox[16 * row + column];
-            }
+        public static ExpandedKey getKey() {
+            ExpandedKey key = current;
+            if (key == null) throw new IllegalStateException("Key is not set");
+            return key;
         }
     }
 
@@ -363,57 +492,39 @@ public class CipherBlockAES {
     //---------------------------------------------------------------------------------------
 
     /**
-     * Заполняет матрицу {@code state}.
+     * Собирает столбец из четырех байт, начиная с индекса {@code offset}.
      */
-    private void fillState(byte[] bytes) {
-        for (int r = 0; r < 4; r++) {
-            for (int c = 0; c < AESConst.NB; c++) {
-                state[r][c] = bytes[r + 4 * c];
-            }
-        }
+    private static int getWord(byte[] bytes, int offset) {
+        return (bytes[offset] << 24)
+                | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8)
+                | (bytes[offset + 3] & 0xff);
     }
 
     /**
-     * Сдвигает элементы массива array вправо/влево на n элементов.
+     * Записывает столбец в массив, начиная с индекса {@code offset}.
      */
-    private void shiftArray(byte[] array, int n) {
-        byte[] temp;
-        if (n <= 0) { // сдвиг влево
-            n = -n;
-            temp = Arrays.copyOf(array, n);
-
-            for (int c = n; c < array.length; c++)
-                array[c - n] = array[c];
-
-            int index = 0;
-            for (int c = array.length - n; c < array.length; c++)
-                array[c] = temp[index++];
-
-        } else { //сдвиг вправо
-            temp = Arrays.copyOfRange(array, array.length - n, array.length);
-
-            for (int c = (array.length - 1) - n; c >= 0; c--)
-                array[c + n] = array[c];
-
-            int index = 0;
-            for (int c = 0; c < n; c++)
-                array[c] = temp[index++];
-        }
+    private static void putWord(int word, byte[] bytes, int offset) {
+        bytes[offset] = (byte) (word >>> 24);
+        bytes[offset + 1] = (byte) (word >>> 16);
+        bytes[offset + 2] = (byte) (word >>> 8);
+        bytes[offset + 3] = (byte) word;
     }
 
     /**
      * Выполняет умножение чисел в поле Галуа.
+     * Используется только при построении таблиц.
      */
-    private byte multiply(int a, int b) {
+    private static int multiply(int a, int b) {
         if (a == 0x00) return 0x00;
 
         int result;
         switch (b) {
             case 0x02:
                 if ((a & 0x80) == 0x00)
-                    result = (a << 1); //& 0xff;
+                    result = (a << 1);
                 else
-                    result = ((a << 1) ^ 0x1b);// & 0xff;
+                    result = ((a << 1) ^ 0x1b);
                 break;
             case 0x03:
                 result = multiply(a, 0x02) ^ a;
@@ -422,19 +533,6 @@ public class CipherBlockAES {
                 result = expGF[((logGF[a & 0xff] + logGF[b]) % 255)];
         }
 
-        return (byte) result;
-    }
-
-    /**
-     * Преобразует матрицу {@code state} в одномерному массиву.
-     */
-    private byte[] output() {
-        byte[] outArr = new byte[4 * AESConst.NB];
-        for (int r = 0; r < 4; r++) {
-            for (int c = 0; c < AESConst.NB; c++) {
-                outArr[r + 4 * c] = state[r][c];
-            }
-        }
-        return outArr;
+        return result & 0xff;
     }
-}
\ No newline at end of file
+}
@@ -1,24 +1,36 @@
 package com.azamat1554.cipher;
 
-import java.util.concurrent.atomic.AtomicLong;
-
-import com.azamat1554.cipher.modes.BlockCipher;
-
-import static com.azamat1554.cipher.modes.BlockCipher.getMode;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 /**
  * Этот класс принимает входной поток, делит его на блоки по 16 байт (если последний блок меньше 16 байт выполняется дополнение),
- * и отправляет на шифрование/расшифрование классу CipherBlockAES, который обрабатывает блок и возвращает результат.
- * Затем все блоки снова соединяются, и преобразованный входной поток возвращается в вызывающий код.
+ * и отправляет на шифрование/расшифрование объекту {@link BlockTransformer}, который преобразует блок на месте, прямо в массиве данных.
+ * Поэтому при обработке блоков не создается ни одного промежуточного массива.
+ * Направление преобразования задается при создании объекта и больше не меняется.
+ * Статического состояния нет: массив данных хранится в объекте, а прогресс и отмена - в {@link CipherContext} задания.
+ * <p>
+ * Данные передаются в {@link ByteBuffer}, индексы абсолютные и не зависят от его позиции.
+ * Если буфер не основан на массиве, например это отображенный в память файл, блоки передаются
+ * реализации в самом буфере ({@link BlockTransformer#transformBlocks(ByteBuffer, int, int)}).
  *
  * @author Azamat Abidokov
  */
 public abstract class CipherChunk {
-    /* Ссылка на массив с данными, которые нужно преобразовать. */
-    private static byte[] data;
+    /* Ссылка на буфер с данными, которые нужно преобразовать. */
+    private ByteBuffer data;
+
+    /* Объект, который шифрует или расшифровывает блоки. */
+    protected final BlockTransformer transformer;
 
-    /* Переменная класса для шифрования и расшифровки блоков. */
-    protected final CipherBlockAES cbAES;
+    /* Задание, к которому относится преобразование. */
+    protected final CipherContext context;
+
+    /* Режим работы: шифрование или расшифровка. */
+    protected final ModeOf mode;
+
+    /* Выполняется ли дополнение последнего блока. */
+    private final boolean padding;
 
     /* Индекс на текущее положение в потоке байтов. */
     private int currentPosition;
@@ -32,17 +44,44 @@ public abstract class CipherChunk {
     /* Флаг, который указывает, последний это кусок файла или нет. */
     private boolean lastChunk;
 
-    /* Количество записанных блоков. */
-    public static final AtomicLong completedBlocks = new AtomicLong();
+    /**
+     * @param transformer Объект, который шифрует или расшифровывает блоки.
+     * @param mode        Режим работы, должен соответствовать направлению {@code transformer}.
+     */
+    public CipherChunk(BlockTransformer transformer, ModeOf mode) {
+        this(transformer, new CipherContext(mode));
+    }
 
-    public CipherChunk() {
-        cbAES = new CipherBlockAES();
+    /**
+     * @param transformer Объект, который шифрует или расшифровывает блоки.
+     * @param context     Задание, направление которого должно соответствовать {@code transformer}.
+     */
+    public CipherChunk(BlockTransformer transformer, CipherContext context) {
+        this(transformer, context, true);
     }
 
-    /* Возвращает первый блок данных. */
-    public byte[] getFirstBlock() {
-        if (currentPosition != 0) return null;
-        return nextBlock();
+    /**
+     * @param transformer Объект, который шифрует или расшифровывает блоки.
+     * @param context     Задание, направление которого должно соответствовать {@code transformer}.
+     * @param padding     Выполнять ли дополнение последнего блока. Без дополнения последний блок
+     *                    может быть неполным, и его длину учитывает сам подкласс.
+     */
+    public CipherChunk(BlockTransformer transformer, CipherContext context, boolean padding) {
+        this.transformer = transformer;
+        this.context = context;
+        this.mode = context.getMode();
+        this.padding = padding;
+    }
+
+    /**
+     * Копирует первый блок данных в массив {@code block} и пропускает его.
+     *
+     * @return {@code true} если блок был скопирован, {@code false} если текущая позиция не в начале данных.
+     */
+    public boolean getFirstBlock(byte[] block) {
+        if (currentPosition != 0) return false;
+        get(nextBlock(), block, 0, AESConst.BLOCK_SIZE);
+        return true;
     }
 
     /**
@@ -54,14 +93,34 @@ public abstract class CipherChunk {
      * @param lastChunk Указывает, последний это кусок файла или нет.
      */
     public void init(byte[] data, int from, int to, boolean lastChunk) {
-        CipherChunk.data = data;
+        init(ByteBuffer.wrap(data), from, to, lastChunk);
+    }
+
+    /**
+     * Выполняет инициализацию объекта.
+     *
+     * @param data      Буфер хранящий данные, которые нужно преобразовать
+     * @param from      Индекс с которого начинается чтение байтов
+     * @param to        Индекс до которого будет выполняться чтение байтов
+     * @param lastChunk Указывает, последний это кусок файла или нет.
+     */
+    public void init(ByteBuffer data, int from, int to, boolean lastChunk) {
+        this.data = data;
 
         currentPosition = from;
         endOfBytes = to;
         this.lastChunk = lastChunk;
 
         //если режим шифрование и это последний кусок файла, тогда посчитать размер с дополнением, иначе не менять размер
-        endOfChunk = (getMode() == ModeOf.ENCRYPTION) & lastChunk ? getSizeWithPadding() : to;
+        endOfChunk = padding && (mode == ModeOf.ENCRYPTION) && lastChunk ? getSizeWithPadding() : to;
+
+        //дополнение записывается прямо в массив, чтобы блоки можно было преобразовывать на месте
+        if (endOfChunk > endOfBytes) {
+            data.put(endOfBytes, (byte) 0x80);
+            for (int i = endOfBytes + 1; i < endOfChunk; i++) {
+                data.put(i, (byte) 0x00);
+            }
+        }
     }
 
     /**
@@ -91,57 +150,151 @@ public abstract class CipherChunk {
     }
 
     /**
-     * Возвращает следующий блок байтов.
-     * Если количества оставшихся байт недостаточно для того,
-     * чтобы заполнить блок полностью - выполняется дополнение.
+     * Возвращает массив с данными, блоки которого преобразуются на месте.
+     * Используется только если буфер основан на массиве и начинается с его начала.
      */
-    protected byte[] nextBlock() {
-        byte[] block = new byte[AESConst.BLOCK_SIZE];
+    protected byte[] getData() {
+        return data.array();
+    }
 
-        for (int i = 0; i < AESConst.BLOCK_SIZE; i++) {
-            if (currentPosition < endOfBytes)
-                block[i] = data[currentPosition];
-                //Дополнение блока, если это последний кусок файла
-            else if (lastChunk && currentPosition == endOfBytes)
-                block[i] = (byte) 0x80;
-            else
-                block[i] = 0x00;
+    /**
+     * Возвращает буфер с данными, блоки которого преобразуются на месте.
+     */
+    protected ByteBuffer getBuffer() {
+        return data;
+    }
 
-            currentPosition++;
+    /**
+     * Преобразует на месте {@code count} блоков, начинающихся с индекса {@code position}.
+     */
+    protected void transformBlocks(int position, int count) {
+        if (data.hasArray()) {
+            int offset = data.arrayOffset() + position;
+            transformer.transformBlocks(data.array(), offset, data.array(), offset, count);
+            return;
         }
-        return block;
+
+        transformer.transformBlocks(data, position, count);
     }
 
     /**
-     * Записывает преобразованный блок данных, на место последнего полученного блока.
-     *
-     * @param block Массив который требуется записать.
-     * @return Возвращает индекс последнего обработанного байта.
+     * Копирует {@code length} байт данных, начиная с индекса {@code position}, в массив {@code dst}.
      */
-    protected int writeTransformedBlock(byte[] block) throws InterruptedException {
-        int position = currentPosition - AESConst.BLOCK_SIZE;
+    protected void get(int position, byte[] dst, int offset, int length) {
+        if (data.hasArray()) {
+            System.arraycopy(data.array(), data.arrayOffset() + position, dst, offset, length);
+            return;
+        }
+        ByteBuffer view = data.duplicate();
+        ((Buffer) view).position(position);
+        view.get(dst, offset, length);
+    }
 
-        int to = AESConst.BLOCK_SIZE;
-        if (containPadding()) to = startPadding(block);
+    /**
+     * Записывает {@code length} байт массива {@code src} в данные, начиная с индекса {@code position}.
+     */
+    protected void put(int position, byte[] src, int offset, int length) {
+        if (data.hasArray()) {
+            System.arraycopy(src, offset, data.array(), data.arrayOffset() + position, length);
+            return;
+        }
+        ByteBuffer view = data.duplicate();
+        ((Buffer) view).position(position);
+        view.put(src, offset, length);
+    }
 
-        for (int i = 0; i < to; i++) {
-            data[position++] = block[i];
+    /**
+     * Складывает по модулю 2 {@code length} байт данных, начиная с индекса {@code position}, с массивом {@code b}.
+     */
+    protected void xor(int position, byte[] b, int offset, int length) {
+        if (data.hasArray()) {
+            byte[] array = data.array();
+            int start = data.arrayOffset() + position;
+            for (int i = 0; i < length; i++) {
+                array[start + i] ^= b[offset + i];
+            }
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            data.put(position + i, (byte) (data.get(position + i) ^ b[offset + i]));
         }
+    }
 
-        // Если поток был прерван, тогда сгенерировать исключение.
-        if (BlockCipher.cipherStop) throw new InterruptedException();
+    /**
+     * Возвращает индекс начала следующего блока в массиве {@link #getData()} и переходит к следующему блоку.
+     * Если последний блок неполный, он уже дополнен в методе {@code init()}.
+     */
+    protected int nextBlock() {
+        return nextBlocks(1);
+    }
+
+    /**
+     * Возвращает индекс начала следующих {@code count} блоков и переходит за них.
+     *
+     * @param count Количество блоков, не больше {@link #remainingBlocks()}.
+     */
+    protected int nextBlocks(int count) {
+        int position = currentPosition;
+        currentPosition += count * AESConst.BLOCK_SIZE;
+        return position;
+    }
+
+    /**
+     * Возвращает количество блоков, которые еще нужно обработать, включая неполный последний блок.
+     */
+    protected int remainingBlocks() {
+        return (endOfChunk - currentPosition + AESConst.BLOCK_SIZE - 1) / AESConst.BLOCK_SIZE;
+    }
+
+    /**
+     * Возвращает индекс начала следующего блока, который нужно обработать.
+     */
+    protected int getPosition() {
+        return currentPosition;
+    }
+
+    /**
+     * Возвращает индекс конца данных, которые нужно обработать.
+     */
+    protected int getEnd() {
+        return endOfChunk;
+    }
+
+    /**
+     * Вызывается после того, как последний полученный блок был преобразован на месте.
+     *
+     * @return Возвращает индекс последнего обработанного байта.
+     */
+    protected int blockTransformed() throws InterruptedException {
+        return blocksTransformed(1);
+    }
+
+    /**
+     * Вызывается после того, как {@code count} последних полученных блоков были преобразованы на месте.
+     *
+     * @return Возвращает индекс последнего обработанного байта.
+     */
+    protected int blocksTransformed(int count) throws InterruptedException {
+        // Если задание было отменено, тогда сгенерировать исключение.
+        if (context.isCancelled()) throw new InterruptedException();
 
         // Увеличиваем количество обработанных блоков.
-        completedBlocks.incrementAndGet();
+        context.blocksCompleted(count);
 
-        return position;
+        if (containPadding()) return startPadding(currentPosition - AESConst.BLOCK_SIZE);
+
+        return Math.min(currentPosition, endOfChunk);
     }
 
-    /* Возвращает индекс байта с которого начинается дополнение. */
-    private int startPadding(byte[] block) {
-        int i = AESConst.BLOCK_SIZE - 1;
-        while (block[i] != (byte) 0x80) i--;
+    /*
+     * Возвращает индекс байта с которого начинается дополнение в блоке, начинающемся с индекса position.
+     * Дополнение - байт 0x80 и нули после него, другие данные означают неверный ключ или поврежденный файл.
+     */
+    private int startPadding(int position) {
+        int i = position + AESConst.BLOCK_SIZE - 1;
+        while (i >= position && data.get(i) == 0) i--;
 
+        if (i < position || data.get(i) != (byte) 0x80) throw new IllegalArgumentException("Padding is corrupted");
         return i;
     }
 
@@ -153,6 +306,6 @@ public abstract class CipherChunk {
     private boolean containPadding() {
         //при дешифровке, если это последний кусок файла и последний блок данных этого куска,
         //тогда он содержит дополнение
-        return (getMode() == ModeOf.DECRYPTION) && lastChunk && !hasNextBlock();
+        return padding && (mode == ModeOf.DECRYPTION) && lastChunk && !hasNextBlock();
     }
 }
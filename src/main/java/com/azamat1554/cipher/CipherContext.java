@@ -0,0 +1,62 @@
+package com.azamat1554.cipher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Состояние одного задания шифрования: направление преобразования, счетчик
+ * обработанных блоков и флаг отмены. Каждое задание получает собственный объект,
+ * поэтому несколько заданий могут выполняться одновременно и не мешать друг другу.
+ * Один объект может использоваться несколькими шифрами, например при обработке
+ * нескольких файлов, тогда прогресс считается по всем файлам сразу.
+ *
+ * @author Azamat Abidokov
+ */
+public final class CipherContext {
+    /* Направление преобразования. */
+    private final ModeOf mode;
+
+    /* Количество обработанных блоков. */
+    private final AtomicLong completedBlocks = new AtomicLong();
+
+    /* Флаг, указывающий, что задание отменено. */
+    private volatile boolean cancelled;
+
+    /**
+     * @param mode Направление преобразования: шифрование или расшифровка.
+     */
+    public CipherContext(ModeOf mode) {
+        if (mode == null) throw new IllegalArgumentException("Mode is null");
+        this.mode = mode;
+    }
+
+    /** Возвращает направление преобразования. */
+    public ModeOf getMode() {
+        return mode;
+    }
+
+    /**
+     * Отменяет задание. Задачи, которые выполняют преобразование, прекращаются
+     * при обработке следующей пачки блоков, а метод {@code update()} генерирует {@link InterruptedException}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Проверяет, было ли задание отменено. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Возвращает количество обработанных байтов. */
+    public long getProgress() {
+        return completedBlocks.get() * AESConst.BLOCK_SIZE;
+    }
+
+    /**
+     * Увеличивает количество обработанных блоков. Вызывается объектами {@link CipherChunk}
+     * и режимами, которые обрабатывают блоки без них.
+     */
+    public void blocksCompleted(int count) {
+        completedBlocks.addAndGet(count);
+    }
+}
@@ -0,0 +1,113 @@
+package com.azamat1554.cipher;
+
+import java.util.ServiceLoader;
+
+/**
+ * Перечисление, которое содержит встроенные реализации AES.
+ * <p>
+ * Реализация по умолчанию задается системным свойством {@code aes.engine} (имя реализации)
+ * или методом {@link #setDefault(AESEngine)}. Если ничего не задано, используется {@link #JCE},
+ * а если она недоступна - {@link #TABLE}.
+ *
+ * @author Azamat Abidokov
+ */
+public enum Engine implements AESEngine {
+    /** Табличная реализация {@link CipherBlockAES} на чистой Java, эталон для проверки. */
+    TABLE {
+        @Override
+        public BlockTransformer encryptor(ExpandedKey key) {
+            return CipherBlockAES.encryptor(key);
+        }
+
+        @Override
+        public BlockTransformer decryptor(ExpandedKey key) {
+            return CipherBlockAES.decryptor(key);
+        }
+    },
+
+    /** Реализация {@link BitslicedAES} без выборок из таблиц, 8 блоков за проход. */
+    BITSLICED {
+        @Override
+        public BlockTransformer encryptor(ExpandedKey key) {
+            return BitslicedAES.encryptor(key);
+        }
+
+        @Override
+        public BlockTransformer decryptor(ExpandedKey key) {
+            return BitslicedAES.decryptor(key);
+        }
+    },
+
+    /** Реализация {@link JceAES} через {@code javax.crypto}, использует AES-NI, если он есть. */
+    JCE {
+        @Override
+        public boolean isAvailable() {
+            return JceAES.isAvailable();
+        }
+
+        @Override
+        public BlockTransformer encryptor(ExpandedKey key) {
+            return JceAES.encryptor(key);
+        }
+
+        @Override
+        public BlockTransformer decryptor(ExpandedKey key) {
+            return JceAES.decryptor(key);
+        }
+    };
+
+    /** Реализация, которую получают новые задания. */
+    private static volatile AESEngine defaultEngine;
+
+    @Override
+    public String getName() {
+        return name();
+    }
+
+    /**
+     * Возвращает реализацию по умолчанию.
+     */
+    public static AESEngine getDefault() {
+        AESEngine engine = defaultEngine;
+        if (engine == null) {
+            String name = System.getProperty("aes.engine");
+            engine = name != null ? forName(name) : JCE.isAvailable() ? JCE : TABLE;
+            defaultEngine = engine;
+        }
+        return engine;
+    }
+
+    /**
+     * Устанавливает реализацию по умолчанию.
+     */
+    public static void setDefault(AESEngine engine) {
+        if (!engine.isAvailable())
+            throw new IllegalArgumentException("Engine " + engine.getName() + " is not available");
+        defaultEngine = engine;
+    }
+
+    /**
+     * Возвращает реализацию по имени: сначала среди встроенных, затем среди подключенных
+     * через {@link ServiceLoader}.
+     *
+     * @throws IllegalArgumentException Если реализация не найдена или недоступна.
+     */
+    public static AESEngine forName(String name) {
+        AESEngine found = null;
+        for (Engine engine : values()) {
+            if (engine.getName().equalsIgnoreCase(name)) found = engine;
+        }
+        if (found == null) {
+            for (AESEngine engine : ServiceLoader.load(AESEngine.class)) {
+                if (engine.getName().equalsIgnoreCase(name)) {
+                    found = engine;
+                    break;
+                }
+            }
+        }
+
+        if (found == null) throw new IllegalArgumentException("Unknown engine " + name);
+        if (!found.isAvailable()) throw new IllegalArgumentException("Engine " + name + " is not available");
+        return found;
+    }
+}
@@ -0,0 +1,36 @@
+package com.azamat1554.cipher;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемый расширенный ключ: раундовые ключи для шифрования и расшифровки,
+ * представленные 32-битными словами (по одному на столбец).
+ * <p>
+ * Объект создается методом {@link CipherBlockAES#expandKey(byte[])} и может одновременно
+ * использоваться любым количеством потоков, поэтому ключ расширяется только один раз.
+ *
+ * @author Azamat Abidokov
+ */
+public final class ExpandedKey {
+    /** Раундовые ключи для шифрования. */
+    final int[] encryptionKeys;
+
+    /** Раундовые ключи для расшифровки (эквивалентный обратный шифр). */
+    final int[] decryptionKeys;
+
+    ExpandedKey(int[] encryptionKeys, int[] decryptionKeys) {
+        this.encryptionKeys = encryptionKeys;
+        this.decryptionKeys = decryptionKeys;
+    }
+
+    /** Возвращает независимую копию ключа. */
+    ExpandedKey copy() {
+        return new ExpandedKey(encryptionKeys.clone(), decryptionKeys.clone());
+    }
+
+    /** Обнуляет раундовые ключи. После вызова объект использовать нельзя. */
+    void destroy() {
+        Arrays.fill(encryptionKeys, 0);
+        Arrays.fill(decryptionKeys, 0);
+    }
+}
@@ -0,0 +1,110 @@
+package com.azamat1554.cipher;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Реализация AES через {@code javax.crypto}. На процессорах с поддержкой AES-NI
+ * JVM заменяет ее аппаратными инструкциями, поэтому она значительно быстрее
+ * {@link CipherBlockAES}, особенно если передавать ей сразу много блоков.
+ *
+ * @author Azamat Abidokov
+ */
+public final class JceAES {
+    /* Преобразование, которое обрабатывает каждый блок независимо. */
+    private static final String TRANSFORMATION = "AES/ECB/NoPadding";
+
+    private JceAES() {
+    }
+
+    /**
+     * Проверяет, доступна ли реализация AES в JVM.
+     */
+    public static boolean isAvailable() {
+        try {
+            Cipher.getInstance(TRANSFORMATION);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Возвращает объект, который только шифрует блоки указанным ключом.
+     *
+     * @param key Расширенный ключ.
+     */
+    public static BlockTransformer encryptor(ExpandedKey key) {
+        return new Transformer(Cipher.ENCRYPT_MODE, key);
+    }
+
+    /**
+     * Возвращает объект, который только расшифровывает блоки указанным ключом.
+     *
+     * @param key Расширенный ключ.
+     */
+    public static BlockTransformer decryptor(ExpandedKey key) {
+        return new Transformer(Cipher.DECRYPT_MODE, key);
+    }
+
+    /* Объект Cipher не потокобезопасен, поэтому у каждого объекта свой. */
+    private static final class Transformer implements BlockTransformer {
+        private final Cipher cipher;
+
+        private Transformer(int opmode, ExpandedKey key) {
+            // первые NK слов расширенного ключа - это сам секретный ключ
+            byte[] secretKey = new byte[4 * AESConst.NK];
+            for (int c = 0; c < AESConst.NK; c++) {
+                int word = key.encryptionKeys[c];
+                secretKey[4 * c] = (byte) (word >>> 24);
+                secretKey[4 * c + 1] = (byte) (word >>> 16);
+                secretKey[4 * c + 2] = (byte) (word >>> 8);
+                secretKey[4 * c + 3] = (byte) word;
+            }
+
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+                cipher.init(opmode, new SecretKeySpec(secretKey, "AES"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES is not available in this JVM", e);
+            } finally {
+                //обнулить массив с ключом
+                Arrays.fill(secretKey, (byte) 0);
+            }
+        }
+
+        @Override
+        public void transformBlock(byte[] in, int inOff, byte[] out, int outOff) {
+            transformBlocks(in, inOff, out, outOff, 1);
+        }
+
+        @Override
+        public void transformBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            try {
+                cipher.update(in, inOff, blocks * AESConst.BLOCK_SIZE, out, outOff);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /** Буфер передается реализации напрямую, в том числе буфер вне кучи, без копирования в массив. */
+        @Override
+        public void transformBlocks(ByteBuffer buffer, int offset, int blocks) {
+            //источник и приемник - два представления одного диапазона, Cipher допускает преобразование на месте
+            ByteBuffer in = buffer.duplicate();
+            ((Buffer) in).limit(offset + blocks * AESConst.BLOCK_SIZE).position(offset);
+            ByteBuffer out = buffer.duplicate();
+            ((Buffer) out).limit(offset + blocks * AESConst.BLOCK_SIZE).position(offset);
+
+            try {
+                cipher.update(in, out);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
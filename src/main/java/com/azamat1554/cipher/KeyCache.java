@@ -0,0 +1,191 @@
+package com.azamat1554.cipher;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный по размеру кэш расширенных ключей, вытесняющий давно неиспользованные ключи (LRU).
+ * <p>
+ * Кэш разбит на сегменты, каждый из которых блокируется отдельно, поэтому потоки,
+ * работающие с разными ключами, почти не мешают друг другу. Ключом в сегменте служит отпечаток
+ * секретного ключа: HMAC-SHA256 со случайным ключом, по которому секретный ключ можно найти только
+ * перебором. Раундовые ключи, вытесненные из кэша
+ * или удаленные из него, обнуляются, поэтому вызывающий код всегда получает собственную копию.
+ *
+ * @author Azamat Abidokov
+ */
+public final class KeyCache {
+    /* Наибольшее количество сегментов, должно быть степенью двойки. */
+    private static final int SEGMENTS = 16;
+
+    /* Алгоритм, которым вычисляются отпечатки ключей. */
+    private static final String FINGERPRINT_ALGORITHM = "HmacSHA256";
+
+    /* Вычисляет отпечатки со случайным ключом, для каждого отпечатка используется копия. */
+    private static final Mac fingerprints = newMac();
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity Максимальное количество ключей в кэше.
+     */
+    public KeyCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+
+        // в каждом сегменте хотя бы один ключ, остаток делится между первыми сегментами,
+        // поэтому сумма емкостей сегментов равна capacity
+        segments = new Segment[Math.min(SEGMENTS, Integer.highestOneBit(capacity))];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment(capacity / segments.length + (i < capacity % segments.length ? 1 : 0));
+    }
+
+    /**
+     * Возвращает расширенный ключ для {@code secretKey}. Если ключа нет в кэше,
+     * выполняет расширение и сохраняет результат. Массив {@code secretKey} не изменяется.
+     *
+     * @param secretKey Массив хранящий секретный ключ.
+     * @return Копия расширенного ключа, которой владеет вызывающий код.
+     * @throws IllegalArgumentException Если длина ключа не равна {@code 4 * NK} байт.
+     */
+    public ExpandedKey get(byte[] secretKey) {
+        CipherBlockAES.checkKey(secretKey);
+
+        Fingerprint fingerprint = new Fingerprint(secretKey);
+        Segment segment = segments[fingerprint.hashCode() & (segments.length - 1)];
+
+        synchronized (segment) {
+            ExpandedKey key = segment.get(fingerprint);
+            if (key != null) {
+                hits.increment();
+                return key.copy();
+            }
+        }
+
+        // расширение выполняется вне блокировки
+        misses.increment();
+        ExpandedKey expanded = CipherBlockAES.expand(secretKey);
+
+        synchronized (segment) {
+            ExpandedKey key = segment.putIfAbsent(fingerprint, expanded);
+            if (key != null) {
+                // другой поток успел добавить этот же ключ
+                expanded.destroy();
+                return key.copy();
+            }
+            return expanded.copy();
+        }
+    }
+
+    /** Возвращает количество обращений, для которых ключ был найден в кэше. */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /** Возвращает количество обращений, для которых ключ пришлось расширять. */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /** Возвращает количество ключей, вытесненных из кэша. */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /** Возвращает количество ключей в кэше. */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /** Удаляет и обнуляет все ключи в кэше. Копии, выданные раньше, остаются рабочими. */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (ExpandedKey key : segment.values())
+                    key.destroy();
+                segment.clear();
+            }
+        }
+    }
+
+    /* Сегмент кэша: LinkedHashMap в порядке доступа, вытесняющая самый старый ключ. */
+    private final class Segment extends LinkedHashMap<Fingerprint, ExpandedKey> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, ExpandedKey> eldest) {
+            if (size() <= capacity) return false;
+
+            eldest.getValue().destroy();
+            evictions.increment();
+            return true;
+        }
+    }
+
+    /* Создает объект HMAC со случайным ключом, который живет, пока загружен класс. */
+    private static Mac newMac() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        try {
+            Mac mac = Mac.getInstance(FINGERPRINT_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, FINGERPRINT_ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(FINGERPRINT_ALGORITHM + " is not available", e);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Отпечаток ключа: HMAC-SHA256 секретного ключа. Функция односторонняя, а совпадение отпечатков
+     * разных ключей практически невозможно, поэтому отпечаток заменяет ключ при поиске в кэше.
+     */
+    private static final class Fingerprint {
+        private final byte[] digest;
+
+        private Fingerprint(byte[] secretKey) {
+            Mac mac;
+            try {
+                mac = (Mac) fingerprints.clone();
+            } catch (CloneNotSupportedException e) {
+                // реализация без копирования используется по очереди
+                synchronized (fingerprints) {
+                    digest = fingerprints.doFinal(secretKey);
+                }
+                return;
+            }
+            digest = mac.doFinal(secretKey);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Fingerprint && Arrays.equals(digest, ((Fingerprint) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | digest[3] & 0xff;
+        }
+    }
+}
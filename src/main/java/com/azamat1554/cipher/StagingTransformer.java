@@ -0,0 +1,44 @@
+package com.azamat1554.cipher;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Основа для реализаций, которые преобразуют блоки только в массивах. Блоки буфера, основанного
+ * на массиве, преобразуются прямо в нем, а блоки буфера вне кучи копируются частями в массив,
+ * который создается вместе с объектом и используется повторно, поэтому преобразование буфера
+ * не создает новых массивов.
+ *
+ * @author Azamat Abidokov
+ */
+abstract class StagingTransformer implements BlockTransformer {
+    /* Количество блоков, которые копируются из буфера за раз. */
+    private static final int STAGING_BLOCKS = 64;
+
+    /* Копия блоков буфера вне кучи, объект используется одним потоком. */
+    private final byte[] staging = new byte[STAGING_BLOCKS * AESConst.BLOCK_SIZE];
+
+    @Override
+    public void transformBlocks(ByteBuffer buffer, int offset, int blocks) {
+        if (buffer.hasArray()) {
+            int arrayOffset = buffer.arrayOffset() + offset;
+            transformBlocks(buffer.array(), arrayOffset, buffer.array(), arrayOffset, blocks);
+            return;
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        while (blocks > 0) {
+            int count = Math.min(blocks, STAGING_BLOCKS);
+            int length = count * AESConst.BLOCK_SIZE;
+
+            ((Buffer) view).position(offset);
+            view.get(staging, 0, length);
+            transformBlocks(staging, 0, staging, 0, count);
+            ((Buffer) view).position(offset);
+            view.put(staging, 0, length);
+
+            offset += length;
+            blocks -= count;
+        }
+    }
+}
@@ -1,25 +1,57 @@
 package com.azamat1554.cipher.modes;
 
 import com.azamat1554.cipher.AESConst;
-import com.azamat1554.cipher.CipherChunk;
+import com.azamat1554.cipher.AESEngine;
+import com.azamat1554.cipher.BlockTransformer;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
 import com.azamat1554.cipher.ModeOf;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Этот класс расширяется всеми классами,
  * реализующими различные режими шифрования.
+ * <p>
+ * Состояние задания (направление, прогресс, отмена) хранится в {@link CipherContext},
+ * поэтому несколько заданий могут одновременно выполняться на общем пуле потоков.
  *
  * @author Azamat Abidokov
  */
 public abstract class BlockCipher {
-    /** Хранит текущий режим работы. */
-    private static ModeOf mode;
-
     /**
-     * Флаг указывающий, поток выполняющий шифрование/расшифрование остановлен или нет.
+     * Пул потоков, на котором выполняется параллельная обработка всеми режимами.
+     * Создается при первом обращении, размер задается свойством {@code aes.parallelism}.
      */
-    public static volatile boolean cipherStop = false;
+    private static ForkJoinPool pool;
+
+    /** Ключ, которым выполняется преобразование. */
+    protected final ExpandedKey key;
+
+    /** Задание, к которому относится преобразование. */
+    protected final CipherContext context;
+
+    /** Направление преобразования, выбирается один раз при создании объекта. */
+    protected final ModeOf mode;
+
+    /** Реализация AES, которой выполняется преобразование. */
+    protected final AESEngine engine;
+
+    /* IV, который записывается при шифровании вместо случайного, или null. */
+    private byte[] presetIV;
+
+    protected BlockCipher(ExpandedKey key, CipherContext context, AESEngine engine) {
+        this.key = key;
+        this.context = context;
+        this.mode = context.getMode();
+        this.engine = engine;
+    }
 
     /**
      * Запускает процесс преобразования данных.
@@ -30,58 +62,237 @@ public abstract class BlockCipher {
      * @return Индекс на конец полезных данных после преобразований.
      * @throws InterruptedException Генерируется если поток шифра был прерван.
      */
-    public abstract int update(byte[] streamOfBytes, int endOfData, boolean last)
+    public int update(byte[] streamOfBytes, int endOfData, boolean last) throws InterruptedException {
+        return update(ByteBuffer.wrap(streamOfBytes), endOfData, last);
+    }
+
+    /**
+     * Запускает процесс преобразования данных, которые находятся в буфере,
+     * например, в отображенном в память файле. Индексы отсчитываются от начала буфера,
+     * его позиция и предел не учитываются и не изменяются.
+     *
+     * @param buffer    Буфер хранящий данные, которые нужно преобразовать
+     * @param endOfData Индекс конца данных
+     * @param last      Указывает, последний это кусок файла или нет
+     * @return Индекс на конец полезных данных после преобразований.
+     * @throws InterruptedException Генерируется если поток шифра был прерван.
+     */
+    public abstract int update(ByteBuffer buffer, int endOfData, boolean last)
             throws InterruptedException;
 
     /**
      * Инициализирует класс в зависимости от установленного режима.
      *
      * @param cipherMode Режим работы блочного шифра.
+     * @param key        Ключ, которым будет выполняться преобразование.
+     * @param mode       Направление преобразования: шифрование или расшифровка.
+     * @see Engine#getDefault()
+     */
+    public static BlockCipher getCipher(CipherMode cipherMode, ExpandedKey key, ModeOf mode) {
+        return getCipher(cipherMode, key, mode, Engine.getDefault());
+    }
+
+    /**
+     * Инициализирует класс в зависимости от установленного режима.
+     *
+     * @param cipherMode Режим работы блочного шифра.
+     * @param key        Ключ, которым будет выполняться преобразование.
+     * @param mode       Направление преобразования: шифрование или расшифровка.
+     * @param engine     Реализация AES, которой будет выполняться преобразование.
      */
-    public static BlockCipher getCipher(CipherMode cipherMode) {
+    public static BlockCipher getCipher(CipherMode cipherMode, ExpandedKey key, ModeOf mode, AESEngine engine) {
+        return getCipher(cipherMode, key, new CipherContext(mode), engine);
+    }
+
+    /**
+     * Инициализирует класс в зависимости от установленного режима.
+     *
+     * @param cipherMode Режим работы блочного шифра.
+     * @param key        Ключ, которым будет выполняться преобразование.
+     * @param context    Задание, которое задает направление и получает прогресс и отмену.
+     * @param engine     Реализация AES, которой будет выполняться преобразование.
+     */
+    public static BlockCipher getCipher(CipherMode cipherMode, ExpandedKey key, CipherContext context, AESEngine engine) {
         BlockCipher cipher = null;
         switch (cipherMode) {
             case ECB:
-                cipher = new ECB();
+                cipher = new ECB(key, context, engine);
                 break;
             case CBC:
-                cipher = new CBC();
+                cipher = new CBC(key, context, engine);
+                break;
+            case CTR:
+                cipher = new CTR(key, context, engine);
+                break;
+            case GCM:
+                cipher = new GCM(key, context, engine);
+                break;
+            case XTS:
+                cipher = new XTS(key, context, engine);
         }
         return cipher;
     }
 
-    /** Устанавливает режим работы программы. */
-    public static void setMode(ModeOf mode) {
-        BlockCipher.mode = mode;
+    /**
+     * Возвращает размер вектора инициализации, который записывается в начало зашифрованных данных.
+     */
+    public int getIVSize() {
+        return AESConst.BLOCK_SIZE;
+    }
+
+    /**
+     * Задает IV, который при шифровании записывается в первый блок данных вместо случайного,
+     * например, IV, вычисленный по номеру сегмента файла. Для одного ключа IV не должен повторяться.
+     * В режимах без IV значение не используется, при расшифровке IV по-прежнему считывается из данных.
+     *
+     * @param iv IV размером в один блок.
+     */
+    public void setIV(byte[] iv) {
+        if (iv.length != AESConst.BLOCK_SIZE) throw new IllegalArgumentException("IV must be one block long");
+        presetIV = iv.clone();
+    }
+
+    /**
+     * Возвращает размер тега аутентификации, который записывается в конец зашифрованных данных.
+     */
+    public int getTagSize() {
+        return 0;
+    }
+
+    /**
+     * Возвращает количество байтов в конце данных, которые должны попасть в последний вызов
+     * {@code update()} вместе с предыдущими данными: если после куска остается не больше,
+     * остаток передается вместе с куском. При расшифровке это тег аутентификации.
+     */
+    public int getTailSize() {
+        return mode == ModeOf.DECRYPTION ? getTagSize() : 0;
     }
 
-    /** Возвращает режим работы программы. */
-    public static ModeOf getMode() {
-        return mode;
+    /**
+     * Возвращает размер зашифрованных данных для {@code length} байт открытых данных,
+     * вместе с IV, дополнением и тегом.
+     */
+    public int getEncryptedSize(int length) {
+        return getIVSize() + length + AESConst.BLOCK_SIZE - length % AESConst.BLOCK_SIZE + getTagSize();
+    }
+
+    /** Возвращает задание, к которому относится преобразование. */
+    public CipherContext getContext() {
+        return context;
+    }
+
+    /**
+     * Возвращает новый объект, который преобразует блоки в направлении {@code mode}.
+     * Объект создается для каждой части данных и не переживает ее, поэтому раундовые ключи
+     * не остаются в потоках пула после окончания задания.
+     */
+    protected BlockTransformer newTransformer() {
+        return mode == ModeOf.ENCRYPTION ? engine.encryptor(key) : engine.decryptor(key);
     }
 
     /**
-     * Генерирует случайную последовательность байт (вектор инициализации - IV).
-     * А затем записывает IV в первый блок массива {@code data}.
+     * Генерирует случайную последовательность байт (вектор инициализации - IV), если IV не задан
+     * методом {@link #setIV(byte[])}. А затем записывает IV в первый блок буфера {@code data}.
      *
-     * @param data Массив с данными.
+     * @param data Буфер с данными.
      */
-    protected void writeIV(byte[] data) {
+    protected void writeIV(ByteBuffer data) {
         //генерация IV
-        byte[] iv = new SecureRandom().generateSeed(AESConst.BLOCK_SIZE);
+        byte[] iv = presetIV != null ? presetIV : new SecureRandom().generateSeed(AESConst.BLOCK_SIZE);
 
         for (int i = 0; i < AESConst.BLOCK_SIZE; i++)
-            data[i] = iv[i];
+            data.put(i, iv[i]);
+    }
+
+    /**
+     * Копирует из буфера {@code data} {@code length} байт, начиная с индекса {@code position}.
+     */
+    protected static byte[] copyOfRange(ByteBuffer data, int position, int length) {
+        byte[] copy = new byte[length];
+        ByteBuffer view = data.duplicate();
+        ((Buffer) view).position(position);
+        view.get(copy);
+        return copy;
+    }
+
+    /**
+     * Возвращает пул потоков, на котором выполняется параллельная обработка.
+     * Если пул еще не создан или был остановлен, создается новый.
+     */
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null || pool.isShutdown()) {
+            int parallelism = Integer.getInteger("aes.parallelism", Runtime.getRuntime().availableProcessors());
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Выполняет задачу на текущем пуле и возвращает ее результат. Если пул был заменен
+     * или остановлен до того, как задача в него попала, задача выполняется на новом пуле,
+     * поэтому пул можно менять, пока выполняются задания.
+     *
+     * @param task Задача, которую нужно выполнить.
+     * @return Результат задачи.
+     */
+    public static <T> T invoke(ForkJoinTask<T> task) {
+        while (true) {
+            ForkJoinPool current = getPool();
+            try {
+                return current.invoke(task);
+            } catch (RejectedExecutionException e) {
+                //остановленный пул не принимает задачи, а задача в нем не выполнялась
+                if (!current.isShutdown()) throw e;
+            }
+        }
+    }
+
+    /**
+     * Заменяет пул потоков, например, пулом с другим количеством потоков.
+     * Предыдущий пул не останавливается, за это отвечает тот, кто его установил.
+     *
+     * @param pool Пул, на котором будет выполняться параллельная обработка.
+     */
+    public static synchronized void setPool(ForkJoinPool pool) {
+        if (pool == null) throw new IllegalArgumentException("Pool is null");
+        BlockCipher.pool = pool;
+    }
+
+    /**
+     * Создает новый пул с указанным количеством потоков, текущий пул останавливается
+     * после завершения выполняемых задач.
+     *
+     * @param parallelism Количество потоков.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        ForkJoinPool old = pool;
+        pool = new ForkJoinPool(parallelism);
+        if (old != null) old.shutdown();
+    }
+
+    /**
+     * Останавливает пул потоков после завершения выполняемых задач.
+     * При следующем преобразовании будет создан новый пул.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) pool.shutdown();
+        pool = null;
+    }
+
+    /** Возвращает количество задач, ожидающих выполнения в очередях пула. */
+    public static long getQueuedTaskCount() {
+        ForkJoinPool current = currentPool();
+        return current == null ? 0 : current.getQueuedTaskCount() + current.getQueuedSubmissionCount();
     }
 
-    /** Возвращет количество обработанных байтов. */
-    public static long getProgress() {
-        return CipherChunk.completedBlocks.get() * AESConst.BLOCK_SIZE;
+    /** Возвращает количество задач, которые потоки пула забрали из очередей друг друга. */
+    public static long getStealCount() {
+        ForkJoinPool current = currentPool();
+        return current == null ? 0 : current.getStealCount();
     }
 
-    /** Сбрасывает статические переменные. */
-    public static void reset() {
-        cipherStop = false;
-        CipherChunk.completedBlocks.set(0);
+    /* Возвращает текущий пул, не создавая его. */
+    private static synchronized ForkJoinPool currentPool() {
+        return pool;
     }
 }
\ No newline at end of file
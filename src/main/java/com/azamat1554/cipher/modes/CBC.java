@@ -1,75 +1,203 @@
 package com.azamat1554.cipher.modes;
 
 import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.AESEngine;
 import com.azamat1554.cipher.CipherChunk;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
 import com.azamat1554.cipher.ModeOf;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * Реализует режим блочного шифра (Cipher block chaining).
  *
  * В этом режиме каждый блок данных зависит от предыдущего,
- * поэтому параллельная обработка невозможна. Для шифрования
- * первого блока используется случайная последовательность байт (IV).
+ * поэтому шифрование выполняется последовательно. При расшифровке
+ * открытый блок зависит только от двух зашифрованных блоков, поэтому
+ * данные делятся на части, которые расшифровываются параллельно:
+ * каждая часть получает в качестве IV последний зашифрованный блок
+ * предыдущей части. Части выполняются на общем пуле {@link BlockCipher#getPool()}.
+ * Для шифрования первого блока используется случайная последовательность байт (IV).
  * При шифровании IV записывается в первый блок данных, что позволяет
  * при расшифровании считать его из первого блока.
  *
  * @author Azamat Abidokov
  */
 public class CBC extends BlockCipher {
+    /* Количество блоков, которые расшифровываются за один вызов реализации. */
+    private static final int BATCH = 16;
+
+    /* Минимальное количество блоков в одной части при параллельной расшифровке. */
+    private static final int PARTITION_BLOCKS = 4096;
+
+    /* Количество частей на одно ядро, чтобы нагрузка распределялась равномерно. */
+    private static final int PARTITIONS_PER_CORE = 4;
+
     /* Регистр обратной связи, хранит предыдущий блок данных. */
     private byte[] feedback = null;
 
+    CBC(ExpandedKey key, CipherContext context, AESEngine engine) {
+        super(key, context, engine);
+    }
+
+    /* Шифрование: блок складывается с предыдущим зашифрованным блоком и шифруется. */
+    private class Encryption extends CipherChunk {
+        private Encryption() {
+            super(newTransformer(), CBC.this.context);
+        }
+
+        @Override
+        public int makeTransform() throws InterruptedException {
+            int end = 0;
+            while (hasNextBlock()) {
+                int position = nextBlock();
+                xor(position, feedback, 0, AESConst.BLOCK_SIZE);
+                transformBlocks(position, 1);
+                get(position, feedback, 0, AESConst.BLOCK_SIZE);
+                end = blockTransformed();
+            }
+            return end;
+        }
+    }
+
+    /*
+     * Расшифровка: блок расшифровывается и складывается с предыдущим зашифрованным блоком.
+     * Блоки расшифровываются независимо друг от друга, поэтому передаются реализации пачками.
+     */
+    private class Decryption extends CipherChunk {
+        /* Предыдущий зашифрованный блок. */
+        private final byte[] feedback = new byte[AESConst.BLOCK_SIZE];
+
+        /* Хранит зашифрованные блоки, пока они расшифровываются на месте. */
+        private final byte[] buffer = new byte[BATCH * AESConst.BLOCK_SIZE];
+
+        /**
+         * @param iv Зашифрованный блок, который предшествует первому блоку части.
+         */
+        private Decryption(byte[] iv) {
+            super(newTransformer(), CBC.this.context);
+            System.arraycopy(iv, 0, feedback, 0, AESConst.BLOCK_SIZE);
+        }
 
-    private final CipherChunk cipher = new CipherChunk() {
         @Override
         public int makeTransform() throws InterruptedException {
             int end = 0;
-            if (getMode() == ModeOf.ENCRYPTION)
-                while (hasNextBlock()) {
-                    feedback = cbAES.encryptBlock(doXOR(nextBlock(), feedback));
-                    end = writeTransformedBlock(feedback);
-
-                }
-            else
-                while (hasNextBlock()) {
-                    byte[] tempArray = nextBlock();
-                    end = writeTransformedBlock(doXOR(cbAES.decryptBlock(tempArray), feedback));
-                    feedback = tempArray;
-                }
+            while (hasNextBlock()) {
+                int count = Math.min(remainingBlocks(), BATCH);
+                int position = nextBlocks(count);
+                int length = count * AESConst.BLOCK_SIZE;
 
+                get(position, buffer, 0, length);
+                transformBlocks(position, count);
+
+                xor(position, feedback, 0, AESConst.BLOCK_SIZE);
+                xor(position + AESConst.BLOCK_SIZE, buffer, 0, length - AESConst.BLOCK_SIZE);
+                System.arraycopy(buffer, length - AESConst.BLOCK_SIZE, feedback, 0, AESConst.BLOCK_SIZE);
+                end = blocksTransformed(count);
+            }
             return end;
         }
-    };
+    }
 
     /**
      * Запускает процесс преобразования данных.
      *
-     * @param streamOfBytes Массив хранящий данные, которые нужно преобразовать
-     * @param endOfData     Индекс конца данных
-     * @param last          Указывает, последний это кусок файла или нет
+     * @param buffer    Буфер хранящий данные, которые нужно преобразовать
+     * @param endOfData Индекс конца данных
+     * @param last      Указывает, последний это кусок файла или нет
      * @return Индекс на конец полезных данных после преобразований.
      * @throws InterruptedException Генерируется если поток шифра был прерван.
      */
     @Override
-    public int update(byte[] streamOfBytes, int endOfData, boolean last) throws InterruptedException {
-        cipher.init(streamOfBytes, 0, endOfData, last);
-
+    public int update(ByteBuffer buffer, int endOfData, boolean last) throws InterruptedException {
+        int from = 0;
         if (feedback == null) {
             //генерировать вектор только один раз и только при шифровании
-            if (getMode() == ModeOf.ENCRYPTION) {
-                writeIV(streamOfBytes);
+            if (mode == ModeOf.ENCRYPTION) {
+                writeIV(buffer);
             }
             //получить вектор инициализации из первого блока данных
-            feedback = cipher.getFirstBlock();
+            feedback = copyOfRange(buffer, 0, AESConst.BLOCK_SIZE);
+            from = AESConst.BLOCK_SIZE;
         }
 
+        if (mode == ModeOf.DECRYPTION) return decrypt(buffer, from, endOfData, last);
+
+        CipherChunk cipher = new Encryption();
+        cipher.init(buffer, from, endOfData, last);
         return cipher.makeTransform();
     }
 
-    private byte[] doXOR(byte[] a, byte[] b) {
-        for (int i = 0; i < AESConst.BLOCK_SIZE; i++) {
-            a[i] = (byte) (a[i] ^ b[i]);
+    /*
+     * Делит данные на части и расшифровывает их параллельно. IV каждой части копируется
+     * до начала преобразования, пока зашифрованные блоки еще не перезаписаны.
+     */
+    private int decrypt(ByteBuffer data, int from, int endOfData, boolean last) throws InterruptedException {
+        int blocks = (endOfData - from) / AESConst.BLOCK_SIZE;
+        int cores = getPool().getParallelism();
+        int parts = Math.max(1, Math.min(cores * PARTITIONS_PER_CORE, blocks / PARTITION_BLOCKS));
+
+        List<Partition> partitions = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            int start = from + (int) ((long) blocks * i / parts) * AESConst.BLOCK_SIZE;
+            int end = from + (int) ((long) blocks * (i + 1) / parts) * AESConst.BLOCK_SIZE;
+            byte[] iv = i == 0 ? feedback : copyOfRange(data, start - AESConst.BLOCK_SIZE, AESConst.BLOCK_SIZE);
+
+            partitions.add(new Partition(iv, data, start, end, last && i == parts - 1));
+        }
+
+        //последний зашифрованный блок станет IV для следующего куска
+        if (blocks > 0) feedback = copyOfRange(data, endOfData - AESConst.BLOCK_SIZE, AESConst.BLOCK_SIZE);
+
+        if (parts == 1) return partitions.get(0).transform();
+
+        invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(partitions);
+            }
+        });
+
+        if (context.isCancelled()) throw new InterruptedException();
+        return partitions.get(parts - 1).getRawResult();
+    }
+
+    /* Задача, которая расшифровывает одну часть данных. */
+    private class Partition extends RecursiveTask<Integer> {
+        private final byte[] iv;
+        private final ByteBuffer data;
+        private final int from;
+        private final int to;
+        private final boolean lastChunk;
+
+        private Partition(byte[] iv, ByteBuffer data, int from, int to, boolean lastChunk) {
+            this.iv = iv;
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.lastChunk = lastChunk;
+        }
+
+        private int transform() throws InterruptedException {
+            //объект и его реализация AES создаются задачей и не переживают ее
+            CipherChunk cipher = new Decryption(iv);
+            cipher.init(data, from, to, lastChunk);
+            return cipher.makeTransform();
+        }
+
+        @Override
+        protected Integer compute() {
+            try {
+                return transform();
+            } catch (InterruptedException e) {
+                //остальные части прерываются сами, проверяя флаг отмены задания
+                return 0;
+            }
         }
-        return a;
     }
 }
@@ -0,0 +1,199 @@
+package com.azamat1554.cipher.modes;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.AESEngine;
+import com.azamat1554.cipher.BlockTransformer;
+import com.azamat1554.cipher.CipherChunk;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Реализует режим блочного шифра (Counter).
+ *
+ * В этом режиме шифруется не сами данные, а последовательные значения счетчика,
+ * и полученная гамма складывается с данными по модулю 2. Значение счетчика для блока
+ * вычисляется по его смещению от начала данных, поэтому блоки обрабатываются параллельно
+ * так же, как в режиме {@link ECB}. Шифрование и расшифровка совпадают, дополнение не нужно,
+ * размер данных не меняется. Начальное значение счетчика (IV) записывается в первый блок данных.
+ *
+ * @author Azamat Abidokov
+ */
+public class CTR extends ECB {
+    /* Начальное значение счетчика. */
+    private byte[] iv = null;
+
+    /* Указывает, что начальное значение счетчика хранится отдельно от данных. */
+    private final boolean detached;
+
+    /* Количество блоков, обработанных предыдущими вызовами update(). */
+    private long processedBlocks;
+
+    /* Индекс начала данных в текущем буфере. */
+    private int start;
+
+    CTR(ExpandedKey key, CipherContext context, AESEngine engine) {
+        super(key, context, engine);
+        detached = false;
+    }
+
+    /* Создает шифр с начальным значением счетчика, которое хранится отдельно от данных. */
+    private CTR(ExpandedKey key, byte[] iv, CipherContext context, AESEngine engine) {
+        super(key, context, engine);
+        if (iv.length != AESConst.BLOCK_SIZE) throw new IllegalArgumentException("IV must be one block long");
+        this.iv = iv.clone();
+        detached = true;
+    }
+
+    /**
+     * Создает шифр в режиме CTR, начальное значение счетчика которого хранится отдельно от данных,
+     * например, в конце файла, зашифрованного на месте. Первый блок данных не считается IV,
+     * а размер IV в данных равен 0.
+     *
+     * @param key     Ключ, которым выполняется преобразование.
+     * @param iv      Начальное значение счетчика.
+     * @param context Задание, которое задает направление и получает прогресс и отмену.
+     * @param engine  Реализация AES, которой выполняется преобразование.
+     */
+    public static CTR withIV(ExpandedKey key, byte[] iv, CipherContext context, AESEngine engine) {
+        return new CTR(key, iv, context, engine);
+    }
+
+    /**
+     * Запускает процесс преобразования данных.
+     *
+     * @param buffer    Буфер хранящий данные, которые нужно преобразовать
+     * @param endOfData Индекс конца данных
+     * @param last      Указывает, последний это кусок файла или нет
+     * @return Индекс на конец полезных данных после преобразований.
+     * @throws InterruptedException Генерируется если поток шифра был прерван.
+     */
+    @Override
+    public int update(ByteBuffer buffer, int endOfData, boolean last) throws InterruptedException {
+        start = 0;
+        if (iv == null) {
+            //генерировать вектор только один раз и только при шифровании
+            if (mode == ModeOf.ENCRYPTION) {
+                writeIV(buffer);
+            }
+            //получить начальное значение счетчика из первого блока данных
+            iv = copyOfRange(buffer, 0, AESConst.BLOCK_SIZE);
+            start = AESConst.BLOCK_SIZE;
+        }
+        if (endOfData <= start) return endOfData;
+
+        long blocks = (endOfData - start + AESConst.BLOCK_SIZE - 1) / AESConst.BLOCK_SIZE;
+        if (blocks > getMaxBlocks() - processedBlocks)
+            throw new IllegalArgumentException("Data is too long for one IV");
+
+        int end = transform(buffer, start, endOfData, last);
+
+        processedBlocks += (endOfData - start) / AESConst.BLOCK_SIZE;
+        return end;
+    }
+
+    /** Начальное значение счетчика занимает первый блок данных, если оно не хранится отдельно. */
+    @Override
+    public int getIVSize() {
+        return detached ? 0 : AESConst.BLOCK_SIZE;
+    }
+
+    /** Дополнение не нужно, поэтому размер данных не меняется. */
+    @Override
+    public int getEncryptedSize(int length) {
+        return getIVSize() + length + getTagSize();
+    }
+
+    /**
+     * Задает номер блока от начала данных, значение счетчика для которого используется
+     * в следующем вызове {@code update()}. Начальное значение счетчика должно быть уже считано.
+     */
+    @Override
+    public void seek(long block) {
+        if (iv == null) throw new IllegalStateException("IV is not initialized");
+        processedBlocks = block;
+    }
+
+    /**
+     * Возвращает наибольшее количество блоков, которое можно преобразовать с одним IV.
+     * Счетчик 128-битный, поэтому количество ограничено только номером блока.
+     */
+    protected long getMaxBlocks() {
+        return Long.MAX_VALUE;
+    }
+
+    /** Счетчик всегда шифруется, независимо от направления преобразования. */
+    @Override
+    protected BlockTransformer newTransformer() {
+        return engine.encryptor(key);
+    }
+
+    @Override
+    protected CipherChunk getCipherChunk() {
+        return new CounterChunk();
+    }
+
+    /**
+     * Возвращает номер блока, который начинается с индекса {@code position} текущего буфера,
+     * от начала всех данных.
+     */
+    protected long blockIndex(int position) {
+        return processedBlocks + (position - start) / AESConst.BLOCK_SIZE;
+    }
+
+    /**
+     * Преобразует одну часть данных: шифрует значения счетчика и складывает гамму с данными.
+     */
+    protected class CounterChunk extends CipherChunk {
+        /* Гамма для BATCH блоков. */
+        private final byte[] keystream = new byte[BATCH * AESConst.BLOCK_SIZE];
+
+        protected CounterChunk() {
+            super(newTransformer(), CTR.this.context, false);
+        }
+
+        @Override
+        public int makeTransform() throws InterruptedException {
+            int end = 0;
+            while (hasNextBlock()) {
+                int count = Math.min(remainingBlocks(), BATCH);
+                int position = nextBlocks(count);
+
+                long index = blockIndex(position);
+                for (int i = 0; i < count; i++) {
+                    setCounter(iv, keystream, i * AESConst.BLOCK_SIZE, index + i);
+                }
+                transformer.transformBlocks(keystream, 0, keystream, 0, count);
+
+                //последний блок может быть неполным
+                int length = Math.min(count * AESConst.BLOCK_SIZE, getEnd() - position);
+                if (mode == ModeOf.DECRYPTION) ciphertext(position, length);
+                xor(position, keystream, 0, length);
+                if (mode == ModeOf.ENCRYPTION) ciphertext(position, length);
+
+                end = blocksTransformed(count);
+            }
+            return end;
+        }
+
+        /**
+         * Вызывается для каждой пачки зашифрованных блоков: при шифровании после преобразования,
+         * при расшифровке до него. Блоки находятся в буфере {@link #getBuffer()}.
+         */
+        protected void ciphertext(int position, int length) {
+        }
+    }
+
+    /** Записывает в block по индексу offset значение счетчика для блока index: IV + index по модулю 2^128. */
+    protected void setCounter(byte[] iv, byte[] block, int offset, long index) {
+        int carry = 0;
+        for (int i = AESConst.BLOCK_SIZE - 1; i >= 0; i--) {
+            int sum = (iv[i] & 0xff) + (int) (index & 0xff) + carry;
+            block[offset + i] = (byte) sum;
+            carry = sum >>> 8;
+            index >>>= 8;
+        }
+    }
+}
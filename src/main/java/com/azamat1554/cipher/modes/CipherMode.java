@@ -5,5 +5,8 @@ package com.azamat1554.cipher.modes;
  */
 public enum CipherMode {
     ECB, //Electronic code book
-    CBC //Cipher block chaining
+    CBC, //Cipher block chaining
+    CTR, //Counter
+    GCM, //Galois/Counter Mode
+    XTS //XEX-based tweaked-codebook mode with ciphertext stealing
 }
@@ -1,10 +1,13 @@
 package com.azamat1554.cipher.modes;
 
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.AESEngine;
 import com.azamat1554.cipher.CipherChunk;
-import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
 
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveAction;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Реализует режим блочного шифра (Electronic code book).
@@ -16,34 +19,134 @@ import java.util.concurrent.RecursiveAction;
  * @author Azamat Abidokov
  */
 public class ECB extends BlockCipher {
-    /* Массив с данными. */
-    private static byte[] data;
+    /** Количество блоков, которые передаются на преобразование за раз. */
+    protected static final int BATCH = 16;
 
-    /* Индекс на последний байт данных. */
-    private static int lastByte;
+    /* Минимальный размер части, которая обрабатывается одной задачей. */
+    private static final int MIN_THRESHOLD = 2048;
+
+    /* Минимальное время работы одной задачи. */
+    private static final long MIN_TASK_NANOS = 100_000;
+
+    /* Количество задач на один поток пула. */
+    private static final int TASKS_PER_WORKER = 4;
+
+    /* Меньшие объемы данных не используются для оценки времени обработки блока. */
+    private static final long MIN_MEASURED_BLOCKS = 65_536;
+
+    /* Оценка времени обработки одного блока одним потоком, уточняется после каждого преобразования. */
+    private static volatile long nanosPerBlock = 100;
+
+    ECB(ExpandedKey key, CipherContext context, AESEngine engine) {
+        super(key, context, engine);
+    }
 
     /**
      * Запускает процесс преобразования данных.
      *
-     * @param streamOfBytes Массив хранящий данные, которые нужно преобразовать
-     * @param endOfData     Индекс конца данных
-     * @param last          Указывает, последний это кусок файла или нет
+     * @param buffer    Буфер хранящий данные, которые нужно преобразовать
+     * @param endOfData Индекс конца данных
+     * @param last      Указывает, последний это кусок файла или нет
      * @return Индекс на конец полезных данных после преобразований.
      * @throws InterruptedException Генерируется если поток шифра был прерван.
      */
     @Override
-    public int update(byte[] streamOfBytes, int endOfData, boolean last) throws InterruptedException {
-        data = streamOfBytes;
-        lastByte = endOfData;
+    public int update(ByteBuffer buffer, int endOfData, boolean last) throws InterruptedException {
+        return transform(buffer, 0, endOfData, last);
+    }
 
-        new ForkJoinPool().invoke(new ForkJoinExecution(0, endOfData, last));
+    /** В этом режиме вектор инициализации не используется. */
+    @Override
+    public int getIVSize() {
+        return 0;
+    }
 
+    /**
+     * Задает номер блока от начала данных, с которого продолжится преобразование,
+     * что позволяет преобразовывать данные с произвольного места.
+     * В этом режиме блоки не зависят друг от друга, поэтому номер не используется.
+     *
+     * @param block Номер блока, которым начинаются данные следующего вызова {@code update()}.
+     */
+    public void seek(long block) {
+    }
+
+    /**
+     * Возвращает размер части данных, которая не делится между задачами, например, сектора.
+     * Данные делятся на задачи по границам таких частей, отсчитанным от начала данных вызова.
+     */
+    protected int getUnitSize() {
+        return AESConst.BLOCK_SIZE;
+    }
+
+    /**
+     * Параллельно преобразует данные в диапазоне от {@code from} до {@code endOfData},
+     * каждая часть обрабатывается объектом, который возвращает {@link #getCipherChunk()}.
+     * Задачи выполняются на общем пуле {@link BlockCipher#getPool()}.
+     *
+     * @return Индекс на конец полезных данных после преобразований.
+     * @throws InterruptedException Генерируется если поток шифра был прерван.
+     */
+    protected int transform(ByteBuffer buffer, int from, int endOfData, boolean last) throws InterruptedException {
+        long start = System.nanoTime();
+        int lastByte = invoke(
+                new ForkJoinExecution(buffer, from, endOfData, last, getThreshold(endOfData - from)));
+        if (context.isCancelled()) throw new InterruptedException();
+
+        measure(endOfData - from, System.nanoTime() - start);
         return lastByte;
     }
 
-    // Класс задачи, выполняет параллельную обработку.
-    private class ForkJoinExecution extends RecursiveAction {
-        private static final int THRESHOLD = 2048;
+    /*
+     * Возвращает размер части, которая обрабатывается одной задачей. На каждый поток пула
+     * приходится несколько задач, чтобы освободившиеся потоки могли забирать работу у занятых,
+     * но каждая задача выполняется не меньше MIN_TASK_NANOS, чтобы затраты на нее были незаметны.
+     */
+    private int getThreshold(int length) {
+        long byCost = MIN_TASK_NANOS / Math.max(1, nanosPerBlock) * AESConst.BLOCK_SIZE;
+        long bySize = length / ((long) getPool().getParallelism() * TASKS_PER_WORKER);
+
+        int unit = getUnitSize();
+        long threshold = Math.max(Math.max(MIN_THRESHOLD, unit), Math.max(byCost, bySize));
+        return (int) Math.min(Integer.MAX_VALUE, threshold) / unit * unit;
+    }
+
+    /* Уточняет оценку времени обработки одного блока одним потоком. */
+    private void measure(int length, long nanos) {
+        long blocks = length / AESConst.BLOCK_SIZE;
+        if (blocks < MIN_MEASURED_BLOCKS) return;
+
+        long cost = nanos * getPool().getParallelism() / blocks;
+        nanosPerBlock = (nanosPerBlock + cost) / 2;
+    }
+
+    /**
+     * Возвращает объект, который преобразует одну часть данных.
+     * Каждая задача получает собственный объект и собственную реализацию AES из
+     * {@link #newTransformer()}, поэтому части обрабатываются независимо.
+     */
+    protected CipherChunk getCipherChunk() {
+        return new CipherChunk(newTransformer(), context) {
+            @Override
+            public int makeTransform() throws InterruptedException {
+                int end = 0;
+                while (hasNextBlock()) {
+                    int count = Math.min(remainingBlocks(), BATCH);
+                    transformBlocks(nextBlocks(count), count);
+                    end = blocksTransformed(count);
+                }
+                return end;
+            }
+        };
+    }
+
+    // Класс задачи, выполняет параллельную обработку. Возвращает индекс конца полезных данных своего диапазона.
+    private class ForkJoinExecution extends RecursiveTask<Integer> {
+        //буфер с данными
+        private final ByteBuffer data;
+
+        //размер части, которая больше не делится
+        private final int threshold;
 
         //указывает, последний это кусок файла или нет
         private final boolean lastChunk;
@@ -52,10 +155,12 @@ public class ECB extends BlockCipher {
         private final int from;
         private final int to;
 
-        private ForkJoinExecution(int s, int e, boolean last) {
+        private ForkJoinExecution(ByteBuffer data, int s, int e, boolean last, int threshold) {
+            this.data = data;
             from = s;
             to = e;
             lastChunk = last;
+            this.threshold = threshold;
         }
 
         /**
@@ -64,70 +169,31 @@ public class ECB extends BlockCipher {
          * получившихся частей.
          */
         @Override
-        protected void compute() {
-            if ((to - from) <= THRESHOLD) {
+        protected Integer compute() {
+            if ((to - from) <= threshold) {
                 /*класс осуществляющий разбиение на блоки для шифрования/расшифрования,
           а затем объединение блоков обратно*/
                 CipherChunk cipher = getCipherChunk();
                 cipher.init(data, from, to, lastChunk);
 
-                int index = 0;
                 try {
-                    index = cipher.makeTransform();
+                    return cipher.makeTransform();
                 } catch (InterruptedException e) {
-                    //прекращает выполнение всех задач немедленно
-                    getPool().shutdownNow();
+                    //пул общий, поэтому он не останавливается:
+                    //остальные задачи прекращаются сами, проверяя флаг отмены задания
+                    return to;
                 }
-                //проверка нужна, потому что последний кусок,
-                //может быть обработан не в последнюю очередь
-                if (lastChunk) lastByte = index;
             } else {
-                int bound;
-                if (!lastChunk) {  //если это не последний кусок файла, тогда делим на два
-                    bound = (from + to) / 2;
-
-                    invokeAll(new ForkJoinExecution(from, bound, false),
-                            new ForkJoinExecution(bound, to, false));
-                } else { //иначе, находим максимальную степень двойки, которая будет разделителем
-                    bound = getUpperBound(from, to);
-
-                    invokeAll(new ForkJoinExecution(from, bound, false),
-                            new ForkJoinExecution(bound, to, true));
-                }
-            }
-        }
-
-        /* Возвращает верхнюю границу, так чтобы размер получившегося интервала был кратен 16. */
-        private int getUpperBound(int s, int e) {
-            int amount = e - s;
-
-            int[] powerOfTwo = {1024, 2048, 4096, 8192, 16384, 32768, 65536, 131072, 262144,
-                    524288, 1048576, 2097152, 4194304, 8388608, 16777216, 33554432, 67108864};
-
-            for (int i = powerOfTwo.length - 1; i >= 0; i--) {
-                if (powerOfTwo[i] < amount) {
-                    amount = from + powerOfTwo[i];
-                    break;
-                }
+                //делим на две части по границе блока или сектора, последней остается правая часть,
+                //поэтому ее результат и есть конец полезных данных
+                int unit = getUnitSize();
+                int bound = from + (to - from) / 2 / unit * unit;
+
+                ForkJoinExecution left = new ForkJoinExecution(data, from, bound, false, threshold);
+                ForkJoinExecution right = new ForkJoinExecution(data, bound, to, lastChunk, threshold);
+                invokeAll(left, right);
+                return right.join();
             }
-            return amount;
-        }
-
-        private CipherChunk getCipherChunk() {
-            return new CipherChunk() {
-                @Override
-                public int makeTransform() throws InterruptedException {
-                    int end = 0;
-                    if (getMode() == ModeOf.ENCRYPTION)
-                        while (hasNextBlock())
-                            end = writeTransformedBlock(cbAES.encryptBlock(nextBlock()));
-                    else
-                        while (hasNextBlock())
-                            end = writeTransformedBlock(cbAES.decryptBlock(nextBlock()));
-
-                    return end;
-                }
-            };
         }
     }
 }
@@ -0,0 +1,240 @@
+package com.azamat1554.cipher.modes;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.AESEngine;
+import com.azamat1554.cipher.CipherChunk;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Реализует режим блочного шифра с аутентификацией (Galois/Counter Mode).
+ *
+ * Данные шифруются в режиме {@link CTR}, а по зашифрованным блокам вычисляется
+ * значение GHASH, из которого получается тег аутентификации. Каждая задача вычисляет
+ * GHASH своей части, после чего части объединяются по схеме Горнера умножением на степени H,
+ * поэтому вычисление тега выполняется параллельно вместе с шифрованием за один проход по данным.
+ * <p>
+ * Формат: первый блок - IV (12 байт nonce и начальное значение счетчика 2), затем зашифрованные
+ * данные того же размера, что и открытые, в конце тег размером {@link #TAG_SIZE} байт.
+ * Как в стандарте, увеличиваются только младшие 32 бита счетчика (inc32), поэтому с одним IV
+ * можно зашифровать не больше {@link #MAX_BLOCKS} блоков, более длинные данные отвергаются.
+ * Тег защищает только nonce, поэтому при расшифровке IV с другим начальным значением счетчика
+ * отвергается.
+ * При расшифровке тег должен целиком находиться в последнем куске данных, если он не совпадает,
+ * генерируется {@link IllegalArgumentException}.
+ *
+ * @author Azamat Abidokov
+ */
+public class GCM extends CTR {
+    /** Размер тега аутентификации. */
+    public static final int TAG_SIZE = AESConst.BLOCK_SIZE;
+
+    /** Наибольшее количество блоков данных для одного IV: 32-битный счетчик начинается с 2. */
+    public static final long MAX_BLOCKS = (1L << 32) - 2;
+
+    /* Размер nonce, счетчик занимает остальные 4 байта блока. */
+    private static final int NONCE_SIZE = 12;
+
+    /* Умножение на H = E(K, 0^128). */
+    private final GHash h;
+
+    /* Умножения на степени H, используются при объединении частей. */
+    private final Map<Integer, GHash> powers = new HashMap<>();
+
+    /* Значения GHASH частей, вычисленных задачами в текущем вызове update(). */
+    private final Queue<Part> parts = new ConcurrentLinkedQueue<>();
+
+    /* Текущее значение GHASH. */
+    private final long[] hash = new long[2];
+
+    /* Количество обработанных байтов зашифрованных данных. */
+    private long length;
+
+    /* E(K, J0), складывается со значением GHASH для получения тега. */
+    private byte[] tagMask = null;
+
+    GCM(ExpandedKey key, CipherContext context, AESEngine engine) {
+        super(key, context, engine);
+
+        byte[] zero = new byte[AESConst.BLOCK_SIZE];
+        newTransformer().transformBlock(zero, 0, zero, 0);
+        h = GHash.of(zero);
+    }
+
+    /**
+     * Запускает процесс преобразования данных.
+     * При шифровании последнего куска после данных записывается тег, при расшифровке - проверяется.
+     *
+     * @param buffer    Буфер хранящий данные, которые нужно преобразовать
+     * @param endOfData Индекс конца данных
+     * @param last      Указывает, последний это кусок файла или нет
+     * @return Индекс на конец полезных данных после преобразований.
+     * @throws InterruptedException Генерируется если поток шифра был прерван.
+     */
+    @Override
+    public int update(ByteBuffer buffer, int endOfData, boolean last) throws InterruptedException {
+        boolean first = tagMask == null;
+
+        int end = endOfData;
+        byte[] tag = null;
+        if (last && mode == ModeOf.DECRYPTION) {
+            end -= TAG_SIZE;
+            if (end < (first ? AESConst.BLOCK_SIZE : 0)) throw new IllegalArgumentException("Data is too short");
+            tag = copyOfRange(buffer, end, TAG_SIZE);
+        }
+
+        //счетчик не входит в тег, поэтому любое значение, кроме начального, - подмена
+        if (first && mode == ModeOf.DECRYPTION
+                && (buffer.get(12) != 0 || buffer.get(13) != 0 || buffer.get(14) != 0 || buffer.get(15) != 2))
+            throw new IllegalArgumentException("Counter of the IV is corrupted");
+
+        parts.clear();
+        int result = super.update(buffer, end, last);
+
+        if (first) {
+            //J0 = nonce || 1
+            tagMask = copyOfRange(buffer, 0, AESConst.BLOCK_SIZE);
+            tagMask[12] = tagMask[13] = tagMask[14] = 0;
+            tagMask[15] = 1;
+            newTransformer().transformBlock(tagMask, 0, tagMask, 0);
+        }
+        combine();
+
+        if (!last) return result;
+
+        byte[] computed = getTag();
+        if (mode == ModeOf.ENCRYPTION) {
+            for (int i = 0; i < TAG_SIZE; i++) {
+                buffer.put(result + i, computed[i]);
+            }
+            return result + TAG_SIZE;
+        }
+
+        if (!MessageDigest.isEqual(computed, tag)) throw new IllegalArgumentException("Authentication tag mismatch");
+        return result;
+    }
+
+    @Override
+    public int getTagSize() {
+        return TAG_SIZE;
+    }
+
+    /**
+     * Записывает IV: 12 случайных байт и начальное значение 32-битного счетчика, равное 2.
+     */
+    @Override
+    protected void writeIV(ByteBuffer data) {
+        super.writeIV(data);
+        data.put(12, (byte) 0).put(13, (byte) 0).put(14, (byte) 0).put(15, (byte) 2);
+    }
+
+    @Override
+    protected long getMaxBlocks() {
+        return MAX_BLOCKS;
+    }
+
+    /**
+     * Записывает значение счетчика inc32: nonce не меняется, а младшие 32 бита IV
+     * увеличиваются на index по модулю 2^32.
+     */
+    @Override
+    protected void setCounter(byte[] iv, byte[] block, int offset, long index) {
+        System.arraycopy(iv, 0, block, offset, NONCE_SIZE);
+
+        int counter = ((iv[12] & 0xff) << 24 | (iv[13] & 0xff) << 16 | (iv[14] & 0xff) << 8 | (iv[15] & 0xff))
+                + (int) index;
+        block[offset + 12] = (byte) (counter >>> 24);
+        block[offset + 13] = (byte) (counter >>> 16);
+        block[offset + 14] = (byte) (counter >>> 8);
+        block[offset + 15] = (byte) counter;
+    }
+
+    @Override
+    protected CipherChunk getCipherChunk() {
+        return new HashingChunk();
+    }
+
+    /* Добавляет к значению GHASH части, вычисленные задачами, в порядке их следования. */
+    private void combine() {
+        List<Part> sorted = new ArrayList<>(parts);
+        sorted.sort(Comparator.comparingLong(part -> part.index));
+
+        for (Part part : sorted) {
+            int blocks = (part.length + AESConst.BLOCK_SIZE - 1) / AESConst.BLOCK_SIZE;
+            powers.computeIfAbsent(blocks, h::pow).multiply(hash);
+            hash[0] ^= part.hash[0];
+            hash[1] ^= part.hash[1];
+            length += part.length;
+        }
+    }
+
+    /* Вычисляет тег: GHASH дополняется блоком длин, после чего складывается с E(K, J0). */
+    private byte[] getTag() {
+        hash[1] ^= length * 8;
+        h.multiply(hash);
+
+        byte[] tag = new byte[TAG_SIZE];
+        GHash.putLong(hash[0], tag, 0);
+        GHash.putLong(hash[1], tag, 8);
+        for (int i = 0; i < TAG_SIZE; i++) {
+            tag[i] ^= tagMask[i];
+        }
+        return tag;
+    }
+
+    /* Часть данных, которая одновременно преобразуется и добавляется к своему значению GHASH. */
+    private class HashingChunk extends CounterChunk {
+        private final long[] y = new long[2];
+        private long index = -1;
+        private int length;
+
+        /* Копия зашифрованных блоков, если буфер не основан на массиве. */
+        private byte[] scratch;
+
+        @Override
+        public int makeTransform() throws InterruptedException {
+            int end = super.makeTransform();
+            if (length > 0) parts.add(new Part(index, length, y));
+            return end;
+        }
+
+        @Override
+        protected void ciphertext(int position, int length) {
+            if (index < 0) index = blockIndex(position);
+
+            ByteBuffer data = getBuffer();
+            if (data.hasArray()) {
+                h.update(y, data.array(), data.arrayOffset() + position, length);
+            } else {
+                if (scratch == null) scratch = new byte[BATCH * AESConst.BLOCK_SIZE];
+                get(position, scratch, 0, length);
+                h.update(y, scratch, 0, length);
+            }
+            this.length += length;
+        }
+    }
+
+    /* Значение GHASH части данных. */
+    private static class Part {
+        private final long index;
+        private final int length;
+        private final long[] hash;
+
+        private Part(long index, int length, long[] hash) {
+            this.index = index;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
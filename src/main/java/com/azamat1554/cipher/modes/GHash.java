@@ -0,0 +1,147 @@
+package com.azamat1554.cipher.modes;
+
+import com.azamat1554.cipher.AESConst;
+
+/**
+ * Умножение на фиксированный элемент поля GF(2^128) по таблицам, используется в режиме {@link GCM}.
+ * <p>
+ * Элемент поля хранится в двух числах {@code long}: старшие и младшие 8 байт блока.
+ * Для каждой из 16 позиций байта заранее вычисляются произведения всех 256 значений байта
+ * на множитель, поэтому умножение сводится к 16 обращениям к таблице.
+ * Объект не изменяется после создания и может использоваться несколькими потоками.
+ *
+ * @author Azamat Abidokov
+ */
+final class GHash {
+    /* Многочлен приведения x^128 + x^7 + x^2 + x + 1 в отраженном представлении GCM. */
+    private static final long R = 0xe100000000000000L;
+
+    /* Множитель. */
+    private final long hi;
+    private final long lo;
+
+    /* table[2 * (256 * p + b)] и table[2 * (256 * p + b) + 1] - произведение байта b на позиции p на множитель. */
+    private final long[] table = new long[2 * 16 * 256];
+
+    GHash(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+
+        long vh = hi;
+        long vl = lo;
+        for (int p = 0; p < 16; p++) {
+            for (int bit = 0x80; bit > 0; bit >>>= 1) {
+                int i = 2 * (256 * p + bit);
+                table[i] = vh;
+                table[i + 1] = vl;
+
+                //умножение на x
+                long carry = (vl & 1) == 0 ? 0 : R;
+                vl = (vl >>> 1) | (vh << 63);
+                vh = (vh >>> 1) ^ carry;
+            }
+            for (int b = 3; b < 256; b++) {
+                int high = Integer.highestOneBit(b);
+                if (high == b) continue;
+
+                int i = 2 * (256 * p + b);
+                int a = 2 * (256 * p + high);
+                int c = 2 * (256 * p + (b ^ high));
+                table[i] = table[a] ^ table[c];
+                table[i + 1] = table[a + 1] ^ table[c + 1];
+            }
+        }
+    }
+
+    /**
+     * Создает объект для множителя, записанного в блоке {@code h}.
+     */
+    static GHash of(byte[] h) {
+        return new GHash(getLong(h, 0), getLong(h, 8));
+    }
+
+    /**
+     * Умножает элемент {@code y} на множитель, результат записывается в {@code y}.
+     *
+     * @param y Массив из двух элементов: старшие и младшие 8 байт.
+     */
+    void multiply(long[] y) {
+        long zh = 0;
+        long zl = 0;
+        for (int p = 0; p < 8; p++) {
+            int i = 2 * (256 * p + (int) ((y[0] >>> (56 - 8 * p)) & 0xff));
+            int j = 2 * (256 * (p + 8) + (int) ((y[1] >>> (56 - 8 * p)) & 0xff));
+            zh ^= table[i] ^ table[j];
+            zl ^= table[i + 1] ^ table[j + 1];
+        }
+        y[0] = zh;
+        y[1] = zl;
+    }
+
+    /**
+     * Добавляет к значению {@code y} блоки данных: y = (y ^ X) * H для каждого блока X.
+     * Неполный последний блок дополняется нулями.
+     */
+    void update(long[] y, byte[] data, int offset, int length) {
+        int end = offset + length;
+        for (; offset + AESConst.BLOCK_SIZE <= end; offset += AESConst.BLOCK_SIZE) {
+            y[0] ^= getLong(data, offset);
+            y[1] ^= getLong(data, offset + 8);
+            multiply(y);
+        }
+        if (offset < end) {
+            byte[] block = new byte[AESConst.BLOCK_SIZE];
+            System.arraycopy(data, offset, block, 0, end - offset);
+            y[0] ^= getLong(block, 0);
+            y[1] ^= getLong(block, 8);
+            multiply(y);
+        }
+    }
+
+    /**
+     * Возвращает объект для множителя H^n, где H - множитель этого объекта.
+     */
+    GHash pow(long n) {
+        long[] result = {Long.MIN_VALUE, 0}; //единица поля: старший бит первого байта
+        long[] base = {hi, lo};
+        for (; n > 0; n >>>= 1) {
+            if ((n & 1) != 0) result = multiply(result, base);
+            base = multiply(base, base);
+        }
+        return new GHash(result[0], result[1]);
+    }
+
+    /* Умножение двух произвольных элементов поля, используется только при построении таблиц. */
+    private static long[] multiply(long[] x, long[] y) {
+        long zh = 0;
+        long zl = 0;
+        long vh = y[0];
+        long vl = y[1];
+        for (int i = 0; i < 128; i++) {
+            long word = i < 64 ? x[0] : x[1];
+            if ((word << (i & 63)) < 0) {
+                zh ^= vh;
+                zl ^= vl;
+            }
+            long carry = (vl & 1) == 0 ? 0 : R;
+            vl = (vl >>> 1) | (vh << 63);
+            vh = (vh >>> 1) ^ carry;
+        }
+        return new long[]{zh, zl};
+    }
+
+    static long getLong(byte[] b, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (b[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    static void putLong(long value, byte[] b, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            b[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
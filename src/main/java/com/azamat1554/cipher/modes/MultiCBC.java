@@ -0,0 +1,176 @@
+package com.azamat1554.cipher.modes;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.AESEngine;
+import com.azamat1554.cipher.BlockTransformer;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Шифрует в режиме {@link CBC} несколько независимых сообщений одновременно.
+ *
+ * Шифрование одного сообщения в режиме CBC последовательно: каждый блок зависит от предыдущего.
+ * Но блоки разных сообщений не зависят друг от друга, поэтому цепочки сообщений продвигаются
+ * вместе: на каждом шаге берется по одному блоку от каждого сообщения, и все они передаются
+ * реализации AES за один вызов. Реализации, которые обрабатывают несколько блоков за проход
+ * (например, {@link Engine#BITSLICED}), шифруют так несколько сообщений по цене одного.
+ * Сообщения делятся на группы, которые выполняются параллельно на общем пуле {@link BlockCipher#getPool()}.
+ * <p>
+ * Каждое сообщение имеет тот же формат, что и в режиме {@link CBC}: первый блок - IV,
+ * затем данные с дополнением, поэтому расшифровывается обычным объектом {@link CBC}.
+ *
+ * @author Azamat Abidokov
+ */
+public final class MultiCBC {
+    /* Количество сообщений, которые шифруются одной задачей. */
+    private static final int LANES_PER_TASK = 64;
+
+    /* Ключ, которым выполняется преобразование. */
+    private final ExpandedKey key;
+
+    /* Задание, к которому относится преобразование. */
+    private final CipherContext context;
+
+    /* Реализация AES, которой выполняется преобразование. */
+    private final AESEngine engine;
+
+    /* Источник векторов инициализации. */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param key Ключ, которым будет выполняться шифрование.
+     * @see Engine#getDefault()
+     */
+    public MultiCBC(ExpandedKey key) {
+        this(key, new CipherContext(ModeOf.ENCRYPTION), Engine.getDefault());
+    }
+
+    /**
+     * @param key     Ключ, которым будет выполняться шифрование.
+     * @param context Задание, которое получает прогресс и отмену, направление - только шифрование.
+     * @param engine  Реализация AES, которой будет выполняться шифрование.
+     */
+    public MultiCBC(ExpandedKey key, CipherContext context, AESEngine engine) {
+        if (context.getMode() != ModeOf.ENCRYPTION)
+            throw new IllegalArgumentException("Only encryption can be interleaved");
+
+        this.key = key;
+        this.context = context;
+        this.engine = engine;
+    }
+
+    /**
+     * Шифрует сообщения. Каждый массив {@code messages[i]} хранит IV в первом блоке (записывается
+     * этим методом) и данные до индекса {@code ends[i]}, после которых должно оставаться место для дополнения.
+     *
+     * @param messages Массивы с сообщениями, шифруются на месте.
+     * @param ends     Индексы конца данных в каждом массиве.
+     * @return Индексы конца зашифрованных данных с дополнением.
+     * @throws InterruptedException Генерируется если задание было отменено.
+     */
+    public int[] encrypt(byte[][] messages, int[] ends) throws InterruptedException {
+        if (messages.length != ends.length) throw new IllegalArgumentException("Arrays have different lengths");
+
+        int[] results = new int[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            int end = ends[i];
+            results[i] = end + AESConst.BLOCK_SIZE - end % AESConst.BLOCK_SIZE;
+            if (end < AESConst.BLOCK_SIZE || results[i] > messages[i].length)
+                throw new IllegalArgumentException("No room for IV or padding in message " + i);
+
+            byte[] iv = new byte[AESConst.BLOCK_SIZE];
+            random.nextBytes(iv);
+            System.arraycopy(iv, 0, messages[i], 0, AESConst.BLOCK_SIZE);
+
+            messages[i][end] = (byte) 0x80;
+            Arrays.fill(messages[i], end + 1, results[i], (byte) 0x00);
+        }
+
+        //сообщения упорядочиваются по убыванию длины, тогда на каждом шаге продолжаются первые из них
+        Integer[] order = new Integer[messages.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> results[i]).reversed());
+
+        List<Lanes> groups = new ArrayList<>();
+        for (int from = 0; from < order.length; from += LANES_PER_TASK) {
+            int to = Math.min(order.length, from + LANES_PER_TASK);
+            groups.add(new Lanes(messages, results, Arrays.copyOfRange(order, from, to)));
+        }
+
+        if (groups.size() == 1) {
+            groups.get(0).compute();
+        } else if (groups.size() > 1) {
+            BlockCipher.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(groups);
+                }
+            });
+        }
+
+        if (context.isCancelled()) throw new InterruptedException();
+        return results;
+    }
+
+    /** Возвращает задание, к которому относится преобразование. */
+    public CipherContext getContext() {
+        return context;
+    }
+
+    /* Задача, которая шифрует группу сообщений, продвигая их цепочки вместе. */
+    private class Lanes extends RecursiveAction {
+        private final byte[][] messages;
+        private final int[] ends;
+        private final Integer[] lanes;
+
+        private Lanes(byte[][] messages, int[] ends, Integer[] lanes) {
+            this.messages = messages;
+            this.ends = ends;
+            this.lanes = lanes;
+        }
+
+        @Override
+        protected void compute() {
+            BlockTransformer transformer = engine.encryptor(key);
+
+            //регистры обратной связи всех сообщений подряд, сначала это IV
+            byte[] state = new byte[lanes.length * AESConst.BLOCK_SIZE];
+            for (int i = 0; i < lanes.length; i++) {
+                System.arraycopy(messages[lanes[i]], 0, state, i * AESConst.BLOCK_SIZE, AESConst.BLOCK_SIZE);
+            }
+
+            int active = lanes.length;
+            for (int position = AESConst.BLOCK_SIZE; active > 0; position += AESConst.BLOCK_SIZE) {
+                //закончившиеся сообщения находятся в конце группы
+                while (active > 0 && ends[lanes[active - 1]] <= position) active--;
+                if (active == 0) break;
+
+                for (int i = 0; i < active; i++) {
+                    byte[] message = messages[lanes[i]];
+                    int offset = i * AESConst.BLOCK_SIZE;
+                    for (int j = 0; j < AESConst.BLOCK_SIZE; j++) {
+                        state[offset + j] ^= message[position + j];
+                    }
+                }
+
+                transformer.transformBlocks(state, 0, state, 0, active);
+
+                for (int i = 0; i < active; i++) {
+                    System.arraycopy(state, i * AESConst.BLOCK_SIZE, messages[lanes[i]], position, AESConst.BLOCK_SIZE);
+                }
+
+                context.blocksCompleted(active);
+                if (context.isCancelled()) return;
+            }
+        }
+    }
+}
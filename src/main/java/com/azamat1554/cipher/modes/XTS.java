@@ -0,0 +1,292 @@
+package com.azamat1554.cipher.modes;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.AESEngine;
+import com.azamat1554.cipher.BlockTransformer;
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherChunk;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Реализует режим блочного шифра XTS (IEEE 1619), предназначенный для образов дисков.
+ *
+ * Данные делятся на секторы по {@link #SECTOR_SIZE} байт. Для сектора с номером {@code s} вторым
+ * ключом вычисляется значение T = E_K2(s), и блок с номером {@code j} в секторе шифруется как
+ * E_K1(P xor T*α^j) xor T*α^j, где умножение выполняется в поле GF(2^128). Номер сектора вычисляется
+ * по смещению от начала данных, поэтому любой сектор можно перешифровать отдельно, не затрагивая
+ * остальные, а секторы обрабатываются параллельно на общем пуле так же, как в режиме {@link ECB}.
+ * <p>
+ * Размер данных не меняется. Неполный последний блок шифруется с заимствованием шифротекста
+ * у предыдущего блока того же сектора (ciphertext stealing), поэтому последний вызов {@code update()}
+ * должен получить предыдущий блок вместе с неполным ({@link #getTailSize()}). Сектор короче блока
+ * стандарт не определяет, такой сектор (возможен только в конце данных) складывается по модулю 2
+ * с гаммой E_K2(T).
+ * <p>
+ * IV не используется: одинаковые данные в одном и том же секторе шифруются одинаково.
+ * Если второй ключ не задан, он получается из первого шифрованием блока {@link #TWEAK_KEY_BLOCK}.
+ *
+ * @author Azamat Abidokov
+ */
+public class XTS extends ECB {
+    /** Размер сектора по умолчанию. */
+    public static final int SECTOR_SIZE = 512;
+
+    /* Блок, из которого получается второй ключ, если он не задан. */
+    private static final byte[] TWEAK_KEY_BLOCK = "AES XTS tweak   ".getBytes(StandardCharsets.US_ASCII);
+
+    /* Ключ, которым шифруются номера секторов. */
+    private final ExpandedKey tweakKey;
+
+    /* Количество блоков в секторе. */
+    private final int blocksPerSector;
+
+    /* Количество блоков, обработанных предыдущими вызовами update(). */
+    private long processedBlocks;
+
+    XTS(ExpandedKey key, CipherContext context, AESEngine engine) {
+        this(key, tweakKey(key, engine), SECTOR_SIZE, context, engine);
+    }
+
+    /**
+     * Создает шифр с двумя независимыми ключами, как в стандарте.
+     *
+     * @param key        Ключ, которым шифруются данные.
+     * @param tweakKey   Ключ, которым шифруются номера секторов.
+     * @param sectorSize Размер сектора, кратный размеру блока.
+     * @param context    Задание, которое задает направление и получает прогресс и отмену.
+     * @param engine     Реализация AES, которой выполняется преобразование.
+     */
+    public XTS(ExpandedKey key, ExpandedKey tweakKey, int sectorSize, CipherContext context, AESEngine engine) {
+        super(key, context, engine);
+        if (sectorSize <= 0 || sectorSize % AESConst.BLOCK_SIZE != 0)
+            throw new IllegalArgumentException("Sector size must be a positive multiple of the block size");
+
+        this.tweakKey = tweakKey;
+        blocksPerSector = sectorSize / AESConst.BLOCK_SIZE;
+    }
+
+    /**
+     * Запускает процесс преобразования данных.
+     *
+     * @param buffer    Буфер хранящий данные, которые нужно преобразовать
+     * @param endOfData Индекс конца данных, если он не кратен размеру блока, то это конец всех данных
+     * @param last      Указывает, последний это кусок файла или нет
+     * @return Индекс на конец полезных данных после преобразований.
+     * @throws InterruptedException Генерируется если поток шифра был прерван.
+     */
+    @Override
+    public int update(ByteBuffer buffer, int endOfData, boolean last) throws InterruptedException {
+        if (endOfData == 0) return 0;
+
+        int end = transform(buffer, 0, endOfData, last);
+
+        processedBlocks += endOfData / AESConst.BLOCK_SIZE;
+        return end;
+    }
+
+    /**
+     * Задает номер блока от начала данных, которым начинаются данные следующего вызова {@code update()}.
+     * Номер сектора равен номеру блока, деленному на количество блоков в секторе.
+     */
+    @Override
+    public void seek(long block) {
+        processedBlocks = block;
+    }
+
+    /** Дополнение не нужно, поэтому размер данных не меняется. */
+    @Override
+    public int getEncryptedSize(int length) {
+        return length;
+    }
+
+    /** Неполный последний блок преобразуется вместе с предыдущим. */
+    @Override
+    public int getTailSize() {
+        return AESConst.BLOCK_SIZE;
+    }
+
+    /** Возвращает размер сектора. */
+    public int getSectorSize() {
+        return blocksPerSector * AESConst.BLOCK_SIZE;
+    }
+
+    /** Задачи получают целые секторы. */
+    @Override
+    protected int getUnitSize() {
+        return getSectorSize();
+    }
+
+    @Override
+    protected CipherChunk getCipherChunk() {
+        return new TweakChunk();
+    }
+
+    /* Получает второй ключ из первого. */
+    private static ExpandedKey tweakKey(ExpandedKey key, AESEngine engine) {
+        byte[] secretKey = new byte[AESConst.BLOCK_SIZE];
+        engine.encryptor(key).transformBlock(TWEAK_KEY_BLOCK, 0, secretKey, 0);
+
+        ExpandedKey tweakKey = CipherBlockAES.expandKey(secretKey);
+        Arrays.fill(secretKey, (byte) 0);
+        return tweakKey;
+    }
+
+    /**
+     * Преобразует одну часть данных: складывает блоки с их значениями T*α^j до и после преобразования.
+     */
+    private class TweakChunk extends CipherChunk {
+        /* Шифрует номера секторов. */
+        private final BlockTransformer tweakTransformer = engine.encryptor(tweakKey);
+
+        /* Значения T*α^j для BATCH блоков. */
+        private final byte[] tweaks = new byte[BATCH * AESConst.BLOCK_SIZE];
+
+        /* Блок для заимствования шифротекста. */
+        private final byte[] block = new byte[AESConst.BLOCK_SIZE];
+
+        /* Байты неполного блока, которые заменяются началом преобразованного полного блока. */
+        private final byte[] stolen = new byte[AESConst.BLOCK_SIZE];
+
+        /* Значение T для отдельно преобразуемого блока. */
+        private final byte[] t = new byte[AESConst.BLOCK_SIZE];
+
+        /* Номер сектора, который шифруется для получения начального значения T. */
+        private final byte[] sectorBlock = new byte[AESConst.BLOCK_SIZE];
+
+        /* Номер блока, для которого вычислено текущее значение, и само значение: младшие и старшие 64 бита. */
+        private long index = -1;
+        private long low;
+        private long high;
+
+        private TweakChunk() {
+            super(newTransformer(), XTS.this.context, false);
+        }
+
+        @Override
+        public int makeTransform() throws InterruptedException {
+            int end = getEnd();
+            int partial = end % AESConst.BLOCK_SIZE;
+            int fullEnd = end - partial;
+
+            //неполный блок заимствует у предыдущего блока, если тот находится в том же секторе
+            boolean stealing = partial > 0 && blockIndex(fullEnd) % blocksPerSector != 0;
+            int bulkEnd = stealing ? fullEnd - AESConst.BLOCK_SIZE : fullEnd;
+            if (bulkEnd < getPosition())
+                throw new IllegalArgumentException("The block before the incomplete last block is missing");
+
+            int result = getPosition();
+            while (getPosition() < bulkEnd) {
+                int count = Math.min((bulkEnd - getPosition()) / AESConst.BLOCK_SIZE, BATCH);
+                int position = nextBlocks(count);
+
+                long first = blockIndex(position);
+                for (int i = 0; i < count; i++) {
+                    tweak(first + i, tweaks, i * AESConst.BLOCK_SIZE);
+                }
+                xor(position, tweaks, 0, count * AESConst.BLOCK_SIZE);
+                transformBlocks(position, count);
+                xor(position, tweaks, 0, count * AESConst.BLOCK_SIZE);
+
+                result = blocksTransformed(count);
+            }
+
+            if (stealing) {
+                steal(nextBlocks(2), partial);
+                result = blocksTransformed(2);
+            } else if (partial > 0) {
+                int position = nextBlocks(1);
+                tweak(blockIndex(position), block, 0);
+                tweakTransformer.transformBlock(block, 0, block, 0);
+                xor(position, block, 0, partial);
+                result = blocksTransformed(1);
+            }
+            return result;
+        }
+
+        /*
+         * Преобразует последний полный блок, который начинается с индекса position, и неполный блок
+         * из partial байт за ним. При шифровании сначала шифруется полный блок, его начало становится
+         * неполным блоком, а остаток вместе с исходным неполным блоком шифруется на месте полного.
+         * При расшифровке то же самое выполняется со значениями T в обратном порядке.
+         */
+        private void steal(int position, int partial) {
+            long full = blockIndex(position);
+            long first = mode == ModeOf.ENCRYPTION ? full : full + 1;
+            long second = mode == ModeOf.ENCRYPTION ? full + 1 : full;
+
+            get(position, block, 0, AESConst.BLOCK_SIZE);
+            transformBlock(block, first);
+
+            get(position + AESConst.BLOCK_SIZE, stolen, 0, partial);
+            put(position + AESConst.BLOCK_SIZE, block, 0, partial);
+            System.arraycopy(stolen, 0, block, 0, partial);
+
+            transformBlock(block, second);
+            put(position, block, 0, AESConst.BLOCK_SIZE);
+        }
+
+        /* Преобразует блок массива block на месте со значением T для блока с номером blockIndex. */
+        private void transformBlock(byte[] block, long blockIndex) {
+            tweak(blockIndex, t, 0);
+            for (int i = 0; i < AESConst.BLOCK_SIZE; i++) block[i] ^= t[i];
+            transformer.transformBlock(block, 0, block, 0);
+            for (int i = 0; i < AESConst.BLOCK_SIZE; i++) block[i] ^= t[i];
+        }
+
+        /*
+         * Записывает в массив dst по индексу offset значение T*α^j для блока с номером blockIndex.
+         * Для следующего блока того же сектора значение умножается на α, иначе вычисляется заново.
+         */
+        private void tweak(long blockIndex, byte[] dst, int offset) {
+            long sector = blockIndex / blocksPerSector;
+            int j = (int) (blockIndex % blocksPerSector);
+
+            if (blockIndex == index + 1 && j != 0) {
+                multiply();
+            } else {
+                //номер сектора записывается начиная с младшего байта
+                for (int i = 0; i < 8; i++) sectorBlock[i] = (byte) (sector >>> 8 * i);
+                Arrays.fill(sectorBlock, 8, AESConst.BLOCK_SIZE, (byte) 0);
+                tweakTransformer.transformBlock(sectorBlock, 0, sectorBlock, 0);
+
+                low = getLong(sectorBlock, 0);
+                high = getLong(sectorBlock, 8);
+                for (int i = 0; i < j; i++) multiply();
+            }
+            index = blockIndex;
+
+            putLong(dst, offset, low);
+            putLong(dst, offset + 8, high);
+        }
+
+        /* Умножает текущее значение на α: сдвиг на один бит и приведение по модулю x^128 + x^7 + x^2 + x + 1. */
+        private void multiply() {
+            long carry = high >> 63;
+            high = high << 1 | low >>> 63;
+            low = low << 1 ^ carry & 0x87;
+        }
+    }
+
+    /* Возвращает номер блока, который начинается с индекса position текущего буфера, от начала всех данных. */
+    private long blockIndex(int position) {
+        return processedBlocks + position / AESConst.BLOCK_SIZE;
+    }
+
+    /* Считывает 64 бита, начиная с младшего байта. */
+    private static long getLong(byte[] b, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) value = value << 8 | b[offset + i] & 0xff;
+        return value;
+    }
+
+    /* Записывает 64 бита, начиная с младшего байта. */
+    private static void putLong(byte[] b, int offset, long value) {
+        for (int i = 0; i < 8; i++) b[offset + i] = (byte) (value >>> 8 * i);
+    }
+}
@@ -2,7 +2,6 @@ package com.azamat1554.gui;
 
 import com.azamat1554.handlers.FileHandler;
 import com.azamat1554.cipher.ModeOf;
-import com.azamat1554.cipher.modes.BlockCipher;
 import com.azamat1554.cipher.modes.CipherMode;
 
 import javax.swing.*;
@@ -222,12 +221,9 @@ public class FilePanel extends JPanel implements ActionListener {
             return;
         }
 
-        if (e.getSource() == encryptBtn)
-            BlockCipher.setMode(ModeOf.ENCRYPTION);
-        else if (e.getSource() == decryptBtn)
-            BlockCipher.setMode(ModeOf.DECRYPTION);
+        ModeOf mode = e.getSource() == encryptBtn ? ModeOf.ENCRYPTION : ModeOf.DECRYPTION;
 
-        if (fileHandler.init(files, getIndexesOfRows(), cipherMode)) {
+        if (fileHandler.init(files, getIndexesOfRows(), cipherMode, mode)) {
             //запустить поток обработки файлов.
             cipherThread = new Thread(fileHandler, "CipherThread");
             cipherThread.start();
@@ -1,5 +1,7 @@
 package com.azamat1554.gui;
 
+import com.azamat1554.cipher.modes.BlockCipher;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
@@ -27,6 +29,7 @@ public class MainWindow extends JFrame {
             public void windowClosing(WindowEvent e) {
                 if (filePanel.running()) return;
 
+                BlockCipher.shutdown();
                 System.exit(0);
             }
         });
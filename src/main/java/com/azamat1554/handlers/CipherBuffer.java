@@ -0,0 +1,213 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Буфер фиксированного размера, через который потоки {@link CipherInputStream}, {@link CipherOutputStream}
+ * и каналы {@link CipherReadableChannel}, {@link CipherWritableChannel} передают данные шифру.
+ * Данные накапливаются в буфере и преобразуются кусками размером {@code size}.
+ * <p>
+ * При расшифровке после куска в буфере остается еще один блок (или тег, если он больше), который
+ * переносится в начало буфера для следующего куска. Поэтому последний кусок никогда не бывает пустым:
+ * в него всегда попадает блок с дополнением и тег целиком. Шифр может потребовать такой же запас
+ * и при шифровании ({@link BlockCipher#getTailSize()}), например, в режиме XTS неполный последний
+ * блок преобразуется вместе с предыдущим.
+ */
+final class CipherBuffer {
+    /* Шифр, которым преобразуются данные. */
+    private final BlockCipher cipher;
+
+    /* Хранит данные. Два блока в запасе, для дополнения и тега. */
+    private final ByteBuffer buffer;
+
+    /* Размер куска, который преобразуется не последним. */
+    private final int size;
+
+    /* Количество байтов, которые остаются в буфере после куска. */
+    private final int lookahead;
+
+    /* Количество данных в буфере. */
+    private int count;
+
+    /* Диапазон преобразованных данных, которые еще не переданы. */
+    private int from;
+    private int to;
+
+    /* Указывает, что кусок преобразован, а остаток еще не перенесен в начало буфера. */
+    private boolean updated;
+
+    /* Указывает, что последний кусок уже преобразован. */
+    private boolean finished;
+
+    /**
+     * @param cipher Шифр, которым преобразуются данные.
+     * @param size   Размер куска, кратный размеру блока.
+     * @param direct Указывает, что данные хранятся в памяти вне кучи.
+     */
+    CipherBuffer(BlockCipher cipher, int size, boolean direct) {
+        if (size <= 0 || size % AESConst.BLOCK_SIZE != 0)
+            throw new IllegalArgumentException("Size must be a positive multiple of the block size");
+
+        this.cipher = cipher;
+        this.size = size;
+
+        boolean encryption = cipher.getContext().getMode() == ModeOf.ENCRYPTION;
+        lookahead = Math.max(encryption ? 0 : AESConst.BLOCK_SIZE, cipher.getTailSize());
+        int capacity = size + lookahead + 2 * AESConst.BLOCK_SIZE;
+        buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+
+        //при шифровании в начале данных оставляется место для IV, а при расшифровке IV не передается дальше
+        if (encryption) {
+            count = cipher.getIVSize();
+        } else {
+            from = to = cipher.getIVSize();
+        }
+    }
+
+    /** Возвращает количество байтов, которые еще можно добавить в буфер. */
+    int remaining() {
+        return size + lookahead - count;
+    }
+
+    /** Добавляет в буфер данные, их размер не должен превышать {@link #remaining()}. */
+    void put(byte[] b, int off, int len) {
+        view(count, count + len).put(b, off, len);
+        count += len;
+    }
+
+    /** Добавляет в буфер не более {@link #remaining()} байтов из {@code src}, возвращает их количество. */
+    int put(ByteBuffer src) {
+        int n = Math.min(remaining(), src.remaining());
+        ByteBuffer part = src.duplicate();
+        ((Buffer) part).limit(part.position() + n);
+
+        view(count, count + n).put(part);
+        ((Buffer) src).position(src.position() + n);
+        count += n;
+        return n;
+    }
+
+    /**
+     * Считывает в буфер не более {@link #remaining()} байтов из потока {@code in}.
+     *
+     * @return Количество считанных байтов или -1, если поток закончился.
+     */
+    int readFrom(InputStream in) throws IOException {
+        int n = in.read(buffer.array(), buffer.arrayOffset() + count, remaining());
+        if (n > 0) count += n;
+        return n;
+    }
+
+    /**
+     * Считывает в буфер не более {@link #remaining()} байтов из канала {@code in}.
+     *
+     * @return Количество считанных байтов или -1, если канал закончился.
+     */
+    int readFrom(ReadableByteChannel in) throws IOException {
+        int n = in.read(view(count, size + lookahead));
+        if (n > 0) count += n;
+        return n;
+    }
+
+    /** Записывает все преобразованные байты, которые еще не переданы, в поток {@code out}. */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer.array(), buffer.arrayOffset() + from, available());
+        from = to;
+    }
+
+    /** Записывает все преобразованные байты, которые еще не переданы, в канал {@code out}. */
+    void writeTo(WritableByteChannel out) throws IOException {
+        ByteBuffer data = view(from, to);
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+        from = to;
+    }
+
+    /** Возвращает количество преобразованных байтов, которые еще не переданы. */
+    int available() {
+        return to - from;
+    }
+
+    /** Передает не более {@code len} преобразованных байтов, возвращает их количество. */
+    int get(byte[] b, int off, int len) {
+        int n = Math.min(len, available());
+        view(from, from + n).get(b, off, n);
+        from += n;
+        return n;
+    }
+
+    /** Передает в {@code dst} не более {@code dst.remaining()} преобразованных байтов, возвращает их количество. */
+    int get(ByteBuffer dst) {
+        int n = Math.min(dst.remaining(), available());
+        dst.put(view(from, from + n));
+        from += n;
+        return n;
+    }
+
+    /** Передает первый преобразованный байт, если он есть. */
+    int get() {
+        return buffer.get(from++) & 0xff;
+    }
+
+    /** Проверяет, был ли преобразован последний кусок. */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Преобразует накопленный кусок. Вызывается, когда буфер заполнен, или с флагом {@code last}
+     * в конце данных. Преобразованные данные нужно забрать до следующего добавления.
+     *
+     * @param last Указывает, последний это кусок или нет.
+     * @throws IOException Генерируется если данные повреждены или преобразование было прервано.
+     */
+    void update(boolean last) throws IOException {
+        //при расшифровке IV и тег должны быть целыми
+        if (last && lookahead > 0 && count < from + cipher.getTagSize()) throw new IOException("Data is too short");
+
+        int end;
+        try {
+            end = cipher.update(buffer, last ? count : size, last);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Cipher was interrupted");
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        to = end;
+        updated = !last;
+        finished = last;
+    }
+
+    /**
+     * Переносит непреобразованный остаток в начало буфера, если все преобразованные данные переданы.
+     */
+    void compact() {
+        if (!updated || available() > 0) return;
+
+        view(0, count - size).put(view(size, count));
+        count -= size;
+        from = to = 0;
+        updated = false;
+    }
+
+    /* Возвращает буфер, который использует данные в диапазоне от from до to. */
+    private ByteBuffer view(int from, int to) {
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).limit(to);
+        ((Buffer) view).position(from);
+        return view;
+    }
+}
@@ -0,0 +1,105 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.modes.BlockCipher;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Поток, который считывает данные из потока {@code in} и преобразует их шифром {@link BlockCipher}.
+ * Данные считываются в буфер небольшого размера и преобразуются кусками, поэтому объем памяти
+ * не зависит от размера данных, а конец данных определяется по концу потока, а не по {@code available()}.
+ * <p>
+ * При расшифровке кусок преобразуется только после того, как считан следующий за ним блок,
+ * поэтому блок с дополнением и тег всегда попадают в последний кусок.
+ */
+public class CipherInputStream extends FilterInputStream {
+    /** Размер куска по умолчанию. */
+    public static final int DEFAULT_SIZE = 65_536;
+
+    /* Буфер, через который данные передаются шифру. */
+    private final CipherBuffer buffer;
+
+    /**
+     * @param in     Поток, из которого считываются данные.
+     * @param cipher Шифр, которым преобразуются данные.
+     */
+    public CipherInputStream(InputStream in, BlockCipher cipher) {
+        this(in, cipher, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param in     Поток, из которого считываются данные.
+     * @param cipher Шифр, которым преобразуются данные.
+     * @param size   Размер куска, кратный размеру блока.
+     */
+    public CipherInputStream(InputStream in, BlockCipher cipher, int size) {
+        super(in);
+        buffer = new CipherBuffer(cipher, size, false);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (buffer.available() == 0) {
+            if (buffer.isFinished()) return -1;
+            fill();
+        }
+        return buffer.get();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+
+        while (buffer.available() == 0) {
+            if (buffer.isFinished()) return -1;
+            fill();
+        }
+        return buffer.get(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) return 0;
+
+        long skipped = 0;
+        byte[] skipBuffer = new byte[(int) Math.min(n, 4096)];
+        while (skipped < n) {
+            int count = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+            if (count < 0) break;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark/reset not supported");
+    }
+
+    /* Считывает следующий кусок, пока буфер не заполнится или поток не закончится, и преобразует его. */
+    private void fill() throws IOException {
+        buffer.compact();
+
+        boolean eof = false;
+        while (buffer.remaining() > 0 && !eof) {
+            eof = buffer.readFrom(in) < 0;
+        }
+        buffer.update(eof);
+    }
+}
@@ -0,0 +1,92 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.modes.BlockCipher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Поток, который преобразует записываемые данные шифром {@link BlockCipher} и передает результат
+ * в поток {@code out}. Данные накапливаются в буфере небольшого размера и преобразуются кусками,
+ * поэтому объем памяти не зависит от размера данных.
+ * <p>
+ * Последний кусок, с дополнением и тегом, преобразуется только в {@link #close()}, поэтому поток
+ * обязательно нужно закрыть. {@link #flush()} передает только уже преобразованные куски.
+ */
+public class CipherOutputStream extends FilterOutputStream {
+    /** Размер куска по умолчанию. */
+    public static final int DEFAULT_SIZE = 65_536;
+
+    /* Буфер, через который данные передаются шифру. */
+    private final CipherBuffer buffer;
+
+    /* Указывает, что поток закрыт. */
+    private boolean closed;
+
+    /**
+     * @param out    Поток, в который записывается результат.
+     * @param cipher Шифр, которым преобразуются данные.
+     */
+    public CipherOutputStream(OutputStream out, BlockCipher cipher) {
+        this(out, cipher, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param out    Поток, в который записывается результат.
+     * @param cipher Шифр, которым преобразуются данные.
+     * @param size   Размер куска, кратный размеру блока.
+     */
+    public CipherOutputStream(OutputStream out, BlockCipher cipher, int size) {
+        super(out);
+        buffer = new CipherBuffer(cipher, size, false);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+
+        while (len > 0) {
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+
+            //заполненный буфер преобразуется сразу, следующий кусок начинается с остатка
+            if (buffer.remaining() == 0) {
+                buffer.update(false);
+                buffer.writeTo(out);
+                buffer.compact();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Преобразует последний кусок, записывает его и закрывает поток {@code out}.
+     *
+     * @throws IOException Генерируется если данные повреждены, например, не совпал тег.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try {
+            buffer.update(true);
+            buffer.writeTo(out);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.modes.BlockCipher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * Канал, который считывает данные из канала {@code channel} и преобразует их шифром {@link BlockCipher}.
+ * Данные считываются в буфер вне кучи и преобразуются в нем кусками, поэтому объем памяти не зависит
+ * от размера данных. При расшифровке кусок преобразуется только после того, как считан следующий
+ * за ним блок, поэтому блок с дополнением и тег всегда попадают в последний кусок.
+ * <p>
+ * Канал {@code channel} должен работать в блокирующем режиме.
+ */
+public class CipherReadableChannel implements ScatteringByteChannel {
+    /** Размер куска по умолчанию. */
+    public static final int DEFAULT_SIZE = 65_536;
+
+    /* Канал, из которого считываются данные. */
+    private final ReadableByteChannel channel;
+
+    /* Буфер, через который данные передаются шифру. */
+    private final CipherBuffer buffer;
+
+    /* Указывает, что канал открыт. */
+    private boolean open = true;
+
+    /**
+     * @param channel Канал, из которого считываются данные.
+     * @param cipher  Шифр, которым преобразуются данные.
+     */
+    public CipherReadableChannel(ReadableByteChannel channel, BlockCipher cipher) {
+        this(channel, cipher, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param channel Канал, из которого считываются данные.
+     * @param cipher  Шифр, которым преобразуются данные.
+     * @param size    Размер куска, кратный размеру блока.
+     */
+    public CipherReadableChannel(ReadableByteChannel channel, BlockCipher cipher, int size) {
+        this.channel = channel;
+        buffer = new CipherBuffer(cipher, size, true);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return (int) read(new ByteBuffer[]{dst}, 0, 1);
+    }
+
+    /**
+     * Заполняет буферы по порядку. Следующий кусок считывается, только если еще ничего не передано,
+     * поэтому метод может вернуть меньше байтов, чем помещается в буферы.
+     */
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        if (!open) throw new ClosedChannelException();
+
+        long read = 0;
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer dst = dsts[i];
+            while (dst.hasRemaining()) {
+                if (buffer.available() == 0) {
+                    if (read > 0) return read;
+                    if (buffer.isFinished()) return -1;
+                    fill();
+                } else {
+                    read += buffer.get(dst);
+                }
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        channel.close();
+    }
+
+    /* Считывает следующий кусок, пока буфер не заполнится или канал не закончится, и преобразует его. */
+    private void fill() throws IOException {
+        buffer.compact();
+
+        boolean eof = false;
+        while (buffer.remaining() > 0 && !eof) {
+            eof = buffer.readFrom(channel) < 0;
+        }
+        buffer.update(eof);
+    }
+}
@@ -0,0 +1,254 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CTR;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.cipher.modes.ECB;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Канал только для чтения, который представляет данные, зашифрованные в режиме {@link CipherMode#ECB},
+ * {@link CipherMode#CTR} или {@link CipherMode#XTS}, как открытые. Позиция канала отсчитывается в открытых
+ * данных, а при чтении расшифровываются только блоки, в которые попадает считываемый диапазон.
+ * В режиме XTS последний полный блок и неполный блок за ним всегда расшифровываются вместе.
+ * <p>
+ * Если диапазон начинается с границы блока, данные расшифровываются прямо в буфере получателя,
+ * в том числе в буфере вне кучи, иначе - через внутренний буфер размером {@link #CHUNK} байт.
+ */
+public class CipherSeekableChannel implements SeekableByteChannel {
+    /** Максимальное количество байтов, которое расшифровывается за один вызов {@link #read(ByteBuffer)}. */
+    public static final int CHUNK = 65_536;
+
+    /* Канал с зашифрованными данными. */
+    private final SeekableByteChannel channel;
+
+    /* Шифр, которым расшифровываются блоки с произвольного места. */
+    private final ECB cipher;
+
+    /* Размер IV в начале зашифрованных данных. */
+    private final int ivSize;
+
+    /* Указывает, что последний блок дополнен (режим ECB). */
+    private final boolean padded;
+
+    /* Указывает, что неполный последний блок заимствует у предыдущего (режим XTS). */
+    private final boolean stealing;
+
+    /* Позиция в канале, с которой начинаются зашифрованные блоки, после заголовка и IV. */
+    private final long start;
+
+    /* Внутренний буфер для чтения не с границы блока. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK + 2 * AESConst.BLOCK_SIZE);
+
+    /* Размер открытых данных, вычисляется при первом обращении. */
+    private long size = -1;
+
+    /* Позиция в открытых данных. */
+    private long position;
+
+    /* Указывает, что канал открыт. */
+    private boolean open = true;
+
+    /**
+     * @param channel    Канал с зашифрованными данными.
+     * @param cipherMode Режим, в котором зашифрованы данные: {@link CipherMode#ECB}, {@link CipherMode#CTR}
+     *                   или {@link CipherMode#XTS}.
+     * @param key        Ключ, которым зашифрованы данные.
+     * @throws IOException Генерируется если не удалось считать IV.
+     */
+    public CipherSeekableChannel(SeekableByteChannel channel, CipherMode cipherMode, ExpandedKey key) throws IOException {
+        this(channel, 0, cipherMode, key);
+    }
+
+    /**
+     * @param channel    Канал, в котором зашифрованные данные начинаются с позиции {@code offset},
+     *                   например, после заголовка {@link FileHeader}.
+     * @param offset     Позиция начала зашифрованных данных, вместе с IV.
+     * @param cipherMode Режим, в котором зашифрованы данные: {@link CipherMode#ECB}, {@link CipherMode#CTR}
+     *                   или {@link CipherMode#XTS}.
+     * @param key        Ключ, которым зашифрованы данные.
+     * @throws IOException Генерируется если не удалось считать IV.
+     */
+    public CipherSeekableChannel(SeekableByteChannel channel, long offset, CipherMode cipherMode, ExpandedKey key)
+            throws IOException {
+        if (cipherMode != CipherMode.ECB && cipherMode != CipherMode.CTR && cipherMode != CipherMode.XTS)
+            throw new IllegalArgumentException("Random access is supported only in ECB, CTR and XTS modes");
+
+        this.channel = channel;
+        cipher = (ECB) BlockCipher.getCipher(cipherMode, key, ModeOf.DECRYPTION);
+        ivSize = cipher.getIVSize();
+        padded = cipherMode == CipherMode.ECB;
+        stealing = cipherMode == CipherMode.XTS;
+        start = offset + ivSize;
+
+        //начальное значение счетчика считывается один раз
+        if (ivSize > 0) {
+            ByteBuffer iv = ByteBuffer.allocate(ivSize);
+            readFully(iv, offset);
+            update(iv, ivSize);
+        }
+    }
+
+    /**
+     * Создает канал для файла, зашифрованного на месте ({@link InPlaceFile}): зашифрованные данные
+     * начинаются с начала канала, а начальное значение счетчика режима CTR хранится отдельно.
+     *
+     * @param channel    Канал с зашифрованными данными.
+     * @param cipherMode Режим, в котором зашифрованы данные: {@link CipherMode#CTR} или {@link CipherMode#XTS}.
+     * @param iv         Начальное значение счетчика, в режиме XTS не используется.
+     * @param length     Размер зашифрованных данных.
+     * @param key        Ключ, которым зашифрованы данные.
+     */
+    CipherSeekableChannel(SeekableByteChannel channel, CipherMode cipherMode, byte[] iv, long length, ExpandedKey key) {
+        this.channel = channel;
+        cipher = cipherMode == CipherMode.CTR
+                ? CTR.withIV(key, iv, new CipherContext(ModeOf.DECRYPTION), Engine.getDefault())
+                : (ECB) BlockCipher.getCipher(cipherMode, key, ModeOf.DECRYPTION);
+        ivSize = cipher.getIVSize();
+        padded = false;
+        stealing = cipherMode == CipherMode.XTS;
+        start = 0;
+        size = length;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        if (position >= size()) return -1;
+        if (!dst.hasRemaining()) return 0;
+
+        int n = (int) Math.min(Math.min(dst.remaining(), CHUNK), size() - position);
+        long block = position / AESConst.BLOCK_SIZE;
+
+        //в режиме XTS последний полный блок и неполный блок за ним расшифровываются только вместе
+        long pair = stealing && size() > AESConst.BLOCK_SIZE && size() % AESConst.BLOCK_SIZE != 0
+                ? size() / AESConst.BLOCK_SIZE * AESConst.BLOCK_SIZE - AESConst.BLOCK_SIZE : -1;
+        if (pair >= 0 && position < pair) n = (int) Math.min(n, pair - position);
+        if (pair >= 0 && position >= pair) block = pair / AESConst.BLOCK_SIZE;
+        int skip = (int) (position - block * AESConst.BLOCK_SIZE);
+
+        //в режиме CTR последний блок может быть неполным, в режиме ECB он всегда полный,
+        //а в режиме XTS неполным может быть только последний блок всех данных
+        int length = skip + n;
+        if (padded || stealing) length = (length + AESConst.BLOCK_SIZE - 1) / AESConst.BLOCK_SIZE * AESConst.BLOCK_SIZE;
+        if (stealing) length = (int) Math.min(length, size() - block * AESConst.BLOCK_SIZE);
+        if (pair >= 0 && position >= pair) length = (int) (size() - pair);
+
+        if (skip == 0 && length == n) {
+            //блоки расшифровываются прямо в буфере получателя
+            ByteBuffer target = dst.slice();
+            ((Buffer) target).limit(n);
+            readFully(target, start + position);
+            transform(target, block, n);
+            ((Buffer) dst).position(dst.position() + n);
+        } else {
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit(length);
+            readFully(buffer, start + block * AESConst.BLOCK_SIZE);
+            transform(buffer, block, length);
+
+            ((Buffer) buffer).limit(skip + n);
+            ((Buffer) buffer).position(skip);
+            dst.put(buffer);
+        }
+
+        position += n;
+        return n;
+    }
+
+    /**
+     * Возвращает размер открытых данных. В режиме ECB для этого расшифровывается последний блок,
+     * чтобы найти начало дополнения.
+     */
+    @Override
+    public synchronized long size() throws IOException {
+        if (!open) throw new ClosedChannelException();
+        if (size >= 0) return size;
+
+        long length = channel.size() - start;
+        if (!padded) return size = Math.max(0, length);
+
+        if (length == 0 || length % AESConst.BLOCK_SIZE != 0) throw new IOException("Data is corrupted");
+
+        ByteBuffer last = ByteBuffer.allocate(AESConst.BLOCK_SIZE);
+        readFully(last, start + length - AESConst.BLOCK_SIZE);
+        transform(last, length / AESConst.BLOCK_SIZE - 1, AESConst.BLOCK_SIZE);
+
+        int i = AESConst.BLOCK_SIZE - 1;
+        while (i >= 0 && last.get(i) == 0) i--;
+        if (i < 0 || last.get(i) != (byte) 0x80) throw new IOException("Data is corrupted");
+
+        return size = length - AESConst.BLOCK_SIZE + i;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        if (!open) throw new ClosedChannelException();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        channel.close();
+    }
+
+    /* Расшифровывает на месте length байт буфера, которые начинаются с блока с номером block. */
+    private void transform(ByteBuffer data, long block, int length) throws IOException {
+        cipher.seek(block);
+        update(data, length);
+    }
+
+    /* Передает шифру length байт буфера. */
+    private void update(ByteBuffer data, int length) throws IOException {
+        try {
+            cipher.update(data, length, false);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Cipher was interrupted");
+        }
+    }
+
+    /* Заполняет буфер данными канала, начиная с позиции at. */
+    private void readFully(ByteBuffer target, long at) throws IOException {
+        channel.position(at);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) throw new EOFException("Data is truncated");
+        }
+    }
+}
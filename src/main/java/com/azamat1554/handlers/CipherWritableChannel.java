@@ -0,0 +1,104 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.modes.BlockCipher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Канал, который преобразует записываемые данные шифром {@link BlockCipher} и передает результат
+ * в канал {@code channel}. Данные накапливаются в буфере вне кучи и преобразуются в нем кусками,
+ * поэтому объем памяти не зависит от размера данных, а канал получает данные без лишнего копирования.
+ * <p>
+ * Последний кусок, с дополнением и тегом, преобразуется только в {@link #close()}, поэтому канал
+ * обязательно нужно закрыть. Канал {@code channel} должен работать в блокирующем режиме.
+ */
+public class CipherWritableChannel implements GatheringByteChannel {
+    /** Размер куска по умолчанию. */
+    public static final int DEFAULT_SIZE = 65_536;
+
+    /* Канал, в который записывается результат. */
+    private final WritableByteChannel channel;
+
+    /* Буфер, через который данные передаются шифру. */
+    private final CipherBuffer buffer;
+
+    /* Указывает, что канал открыт. */
+    private boolean open = true;
+
+    /**
+     * @param channel Канал, в который записывается результат.
+     * @param cipher  Шифр, которым преобразуются данные.
+     */
+    public CipherWritableChannel(WritableByteChannel channel, BlockCipher cipher) {
+        this(channel, cipher, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param channel Канал, в который записывается результат.
+     * @param cipher  Шифр, которым преобразуются данные.
+     * @param size    Размер куска, кратный размеру блока.
+     */
+    public CipherWritableChannel(WritableByteChannel channel, BlockCipher cipher, int size) {
+        this.channel = channel;
+        buffer = new CipherBuffer(cipher, size, true);
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        if (!open) throw new ClosedChannelException();
+
+        int written = 0;
+        while (src.hasRemaining()) {
+            written += buffer.put(src);
+
+            //заполненный буфер преобразуется сразу, следующий кусок начинается с остатка
+            if (buffer.remaining() == 0) {
+                buffer.update(false);
+                buffer.writeTo(channel);
+                buffer.compact();
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += write(srcs[i]);
+        }
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Преобразует последний кусок, записывает его и закрывает канал {@code channel}.
+     *
+     * @throws IOException Генерируется если данные повреждены, например, не совпал тег.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) return;
+        open = false;
+
+        try {
+            buffer.update(true);
+            buffer.writeTo(channel);
+        } finally {
+            channel.close();
+        }
+    }
+}
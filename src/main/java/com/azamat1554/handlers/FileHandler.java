@@ -1,40 +1,81 @@
 package com.azamat1554.handlers;
 
 import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
 import com.azamat1554.cipher.ModeOf;
-import com.azamat1554.cipher.modes.*;
+import com.azamat1554.cipher.modes.CipherMode;
 import com.azamat1554.gui.FilePanel;
 
 import javax.swing.*;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
-import static com.azamat1554.cipher.modes.BlockCipher.getMode;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Обработчик файлов, если файл больше 128 МБ, тогда считывает его частями и запускает преобразование данных,
- * в соответствии с указанными параметрами. Результат преобразования записывается в новый файл.
+ * Обработчик файлов, запускает преобразование данных в соответствии с указанными параметрами.
+ * Результат преобразования записывается в новый файл.
  * При шифровании к имени файла добавляется расширение <i>encrypted</i> в конце.
  * При расшифровке расширение отбрасывается.
+ * <p>
+ * Несколько файлов обрабатываются одновременно ({@link #setParallelFiles(int)} или свойство
+ * {@code aes.fileWorkers}, по умолчанию по числу ядер), каждый файл - отдельным объектом {@link FileTask}.
+ * Общий объем буферов ограничен бюджетом памяти ({@link #setMemoryBudget(long)} или свойство
+ * {@code aes.memoryBudget}): файл начинает обрабатываться, только когда для его буферов хватает памяти.
+ * Маленькие файлы занимают мало памяти и обрабатываются одновременно, а большие файлы дополнительно
+ * делятся на части на общем пуле потоков.
+ * Прогресс считается по всем файлам сразу.
+ * <p>
+ * Если включено отображение файлов в память ({@link #setMapped(boolean)} или свойство {@code aes.mappedFiles}),
+ * файлы обрабатываются окнами через {@link java.nio.channels.FileChannel#map}, без буферов в куче.
+ * <p>
+ * Если задан размер сегмента ({@link #setSegmentSize(int)} или свойство {@code aes.segmentSize}),
+ * файлы шифруются в формате {@link SegmentedFile}: сегменты одного файла шифруются параллельно,
+ * а из зашифрованного файла можно читать произвольные части через {@link SegmentedChannel}.
+ * Диапазоны открытых данных файлов из сегментов и файлов в режимах ECB и CTR читаются
+ * без расшифровки всего файла через {@link FileRangeReader}.
+ * <p>
+ * Если включено шифрование на месте ({@link #setInPlace(boolean)} или свойство {@code aes.inPlace}),
+ * файлы в режимах CTR и XTS переписываются на месте и переименовываются, без второй копии на диске.
+ * Прерванное шифрование на месте продолжается при следующем запуске по журналу рядом с файлом.
  */
 public class FileHandler implements Runnable {
-    /* Максимально количество данных, которые могут быть считаны за раз. */
-    private final int SIZE = 134_217_728;
+    /* Бюджет памяти для буферов всех файлов, которые обрабатываются одновременно. */
+    private volatile long memoryBudget = Long.getLong("aes.memoryBudget",
+            Math.min(Runtime.getRuntime().maxMemory() / 2, 512L << 20));
 
-    /**
-     * Хранит байты файла. Два блока в запасе, один для вектора инициализации, второй для дополнения.
-     */
-    private final byte[] bytesOfFile = new byte[SIZE + 2 * AESConst.BLOCK_SIZE];
+    /* Указывает, что файлы отображаются в память, а не считываются в массив. */
+    private volatile boolean mapped = Boolean.getBoolean("aes.mappedFiles");
+
+    /* Количество файлов, которые обрабатываются одновременно. */
+    private volatile int parallelFiles = Integer.getInteger("aes.fileWorkers", Runtime.getRuntime().availableProcessors());
+
+    /* Размер сегмента при шифровании сегментами, 0 - файл шифруется одной цепочкой. */
+    private volatile int segmentSize = Integer.getInteger("aes.segmentSize", 0);
+
+    /* Указывает, что файлы в режимах, которые не меняют размер данных, шифруются на месте. */
+    private volatile boolean inPlace = Boolean.getBoolean("aes.inPlace");
+
+    /* Режим блочного шифра и ключ, запоминаются при инициализации. */
+    private CipherMode cipherMode;
+    private ExpandedKey key;
 
-    /* Ссылка на класс, который осуществляет обработку считанных данных. */
-    private BlockCipher cipher;
+    /* Направление преобразования, запоминается при инициализации. */
+    private ModeOf mode;
 
-    /* Задает смещение для вектора инициализации. */
-    private int offset;
+    /* Задание, общее для всех файлов: хранит прогресс и флаг отмены. */
+    private volatile CipherContext context;
 
     /* Общее количество байт, которые нужно обработать. */
     private long total;
@@ -45,8 +86,13 @@ public class FileHandler implements Runnable {
     /* Индексы файлов в списке, которые выделил пользователь. */
     private int[] indexes;
 
+    /* Панель, которая отображает ход выполнения, или null. */
     private final FilePanel panel;
 
+    /**
+     * @param panel Панель, которая отображает ход выполнения и получает результат,
+     *              или {@code null}, если файлы обрабатываются без ГПИ.
+     */
     public FileHandler(FilePanel panel) {
         this.panel = panel;
     }
@@ -57,22 +103,21 @@ public class FileHandler implements Runnable {
      * @param files      Список всех файлов.
      * @param indexes    Индексы файлов, которые нужно обработать.
      * @param cipherMode Режим блочного шифра.
+     * @param mode       Направление преобразования: шифрование или расшифровка.
      * @return {@code true} если инициализация прошла успешно, {@code false} иначе.
      */
-    public synchronized boolean init(List<File> files, int[] indexes, CipherMode cipherMode) {
+    public synchronized boolean init(List<File> files, int[] indexes, CipherMode cipherMode, ModeOf mode) {
+        this.mode = mode;
         this.files = files;
+        this.cipherMode = cipherMode;
+        key = CipherBlockAES.Key.getKey();
         this.indexes = getApproveIndexes(indexes);
         total = getTotalSize();
 
         // Если нет подходящих файлов или их размер равен нулю, тогда прервать
         if (this.indexes.length == 0 || total == 0) return false;
 
-        //инициализирует класс в зависимости от режима
-        cipher = BlockCipher.getCipher(cipherMode);
-
-        //Смещение нужно для вектора инициализации (IV)
-        if (cipherMode != CipherMode.ECB)
-            offset = AESConst.BLOCK_SIZE;
+        context = new CipherContext(mode);
 
         return true;
     }
@@ -80,30 +125,80 @@ public class FileHandler implements Runnable {
     @Override
     public synchronized void run() {
         int length = indexes.length;
-        for (int i = 0; i < length; i++) {
-            File srcFile = files.get(indexes[i]);
-            File destFile = getDestFile(srcFile, getMode());
-
-            try (FileInputStream fin = new FileInputStream(srcFile);
-                 FileOutputStream fout = new FileOutputStream(destFile)) {
-
-                if (getMode() == ModeOf.ENCRYPTION) {
-                    panel.setFileNameLbl("[" + (i + 1) + "/" + length + "] File: " + srcFile.getAbsolutePath() + " is encrypting.");
-                    encrypt(fin, fout);
-                } else {
-                    panel.setFileNameLbl("[" + (i + 1) + "/" + length + "] File: " + srcFile.getAbsolutePath() + " is decrypting.");
-                    decrypt(fin, fout);
+        int budget = (int) Math.max(1, memoryBudget >> 10);
+
+        //память выделяется по килобайтам, в порядке очереди, чтобы большие файлы не ждали бесконечно
+        Semaphore memory = new Semaphore(budget, true);
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicInteger started = new AtomicInteger();
+
+        AtomicInteger threads = new AtomicInteger();
+        String name = Thread.currentThread().getName();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelFiles, length)),
+                task -> new Thread(task, name + "-" + threads.incrementAndGet()));
+
+        List<Future<?>> futures = new ArrayList<>(length);
+        for (int index : indexes) {
+            futures.add(workers.submit(() -> {
+                //после ошибки или отмены следующие файлы не обрабатываются
+                if (failed.get() || context.isCancelled()) return;
+
+                File srcFile;
+                synchronized (files) {
+                    srcFile = files.get(index);
+                }
+                File destFile = getDestFile(srcFile, mode);
+
+                FileTask task;
+                try {
+                    task = new FileTask(srcFile, destFile, cipherMode, key, context, mapped, segmentSize, inPlace);
+                } catch (Exception e) {
+                    System.out.println("FileHandler::run");
+                    e.printStackTrace();
+
+                    failed.set(true);
+                    return;
                 }
-            } catch (Exception e) {
-                System.out.println("FileHandler::run");
-                e.printStackTrace();
+                int permits = (int) Math.min(budget, (task.getMemory() + 1023) >> 10);
 
-                destFile.delete();
-                done();
-                return;
+                try {
+                    memory.acquire(permits);
+                } catch (InterruptedException e) {
+                    failed.set(true);
+                    return;
+                }
+                try {
+                    String action = mode == ModeOf.ENCRYPTION ? " is encrypting." : " is decrypting.";
+                    if (panel != null)
+                        panel.setFileNameLbl("[" + started.incrementAndGet() + "/" + length + "] File: " + srcFile.getAbsolutePath() + action);
+
+                    task.run();
+
+                    synchronized (files) {
+                        files.set(index, destFile);
+                    }
+                    srcFile.delete();
+                } catch (Exception e) {
+                    System.out.println("FileHandler::run");
+                    e.printStackTrace();
+
+                    //файл, который преобразуется на месте, остается с журналом для продолжения
+                    if (!task.isInPlace()) destFile.delete();
+                    failed.set(true);
+                } finally {
+                    memory.release(permits);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
             }
-            files.set(indexes[i], destFile);
-            srcFile.delete();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            workers.shutdown();
         }
         done();
     }
@@ -121,39 +216,9 @@ public class FileHandler implements Runnable {
         return destFile;
     }
 
-    private void encrypt(FileInputStream fin, FileOutputStream fout) throws Exception {
-        //цикл чтения из файла
-        int restBytes;
-        while ((restBytes = fin.available()) > 0) {
-            //считывает из файла указанное кол-во байт или сколько осталось, и вернуть прочитанное количество байт.
-            int numberOfBytes = fin.read(bytesOfFile, offset, SIZE);
-
-            int lastByte = cipher.update(bytesOfFile, numberOfBytes + offset, restBytes <= SIZE);
-            offset = 0;
-
-            //записывает зашифрованные данные в новый файл
-            fout.write(bytesOfFile, 0, lastByte);
-        }
-    }
-
-    private void decrypt(FileInputStream fin, FileOutputStream fout) throws Exception {
-        //цикл чтения из файла
-        int restBytes;
-        while ((restBytes = fin.available()) > 0) {
-            //считывает из файла указанное кол-во байт или сколько осталось, и возвращает прочитанное количество байт.
-            int numberOfBytes = fin.read(bytesOfFile, 0, SIZE);
-
-            int lastByte = cipher.update(bytesOfFile, numberOfBytes, restBytes <= SIZE);
-
-            //записывает зашифрованные данные в новый файл
-            fout.write(bytesOfFile, offset, lastByte - offset);
-            offset = 0;
-        }
-    }
-
     /* Возвращает индексы файлов, которые удовлетворяют условию. */
     private int[] getApproveIndexes(int[] indexes) {
-        if (getMode() == ModeOf.DECRYPTION) {
+        if (mode == ModeOf.DECRYPTION) {
             // Исключить файлы, которые не были зашифрованы
             return Arrays.stream(indexes).filter(i -> isEncrypted(files.get(i))).toArray();
         }
@@ -166,6 +231,18 @@ public class FileHandler implements Runnable {
             JOptionPane.showMessageDialog(panel, "File " + file.getAbsolutePath() + "\nwasn't encryption. It will be skipped.");
             return false;
         }
+
+        //режим и ключ проверяются по заголовку, до расшифровки
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FileHeader header = FileHeader.read(channel);
+            if (header != null) {
+                header.checkMode(cipherMode);
+                header.checkKey(key);
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(panel, "File " + file.getAbsolutePath() + "\n" + e.getMessage() + ". It will be skipped.");
+            return false;
+        }
         return true;
     }
 
@@ -178,21 +255,63 @@ public class FileHandler implements Runnable {
     }
 
     private void done() {
-        panel.apply(indexes);
-        BlockCipher.reset();
+        if (panel != null) panel.apply(indexes);
+    }
+
+    /**
+     * Включает или выключает отображение файлов в память, действует со следующего файла.
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    /**
+     * Задает размер сегмента, кратный размеру блока: файлы шифруются в формате {@link SegmentedFile}.
+     * Значение 0 выключает сегменты. Действует со следующего файла, файлы в любом формате расшифровываются.
+     */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < 0 || segmentSize % AESConst.BLOCK_SIZE != 0)
+            throw new IllegalArgumentException("Segment size must be a multiple of the block size");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Включает или выключает шифрование на месте, действует со следующего файла. Файл переписывается
+     * без второго файла, если режим не меняет размер данных (см. {@link InPlaceFile#isSupported}),
+     * иначе записывается новый файл. Файлы, зашифрованные на месте, расшифровываются на месте всегда.
+     */
+    public void setInPlace(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
+    /**
+     * Задает количество файлов, которые обрабатываются одновременно, действует со следующего запуска.
+     */
+    public void setParallelFiles(int parallelFiles) {
+        if (parallelFiles < 1) throw new IllegalArgumentException("Number of files must be positive");
+        this.parallelFiles = parallelFiles;
+    }
+
+    /**
+     * Задает бюджет памяти в байтах для буферов файлов, которые обрабатываются одновременно,
+     * действует со следующего запуска. Файл, которому нужно больше, получает весь бюджет.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget <= 0) throw new IllegalArgumentException("Memory budget must be positive");
+        this.memoryBudget = memoryBudget;
     }
 
     /**
      * Возвращает состояние выполнения в процентах.
      */
     public int getProgressInPercentage() {
-        return (int) (BlockCipher.getProgress() * 100 / total);
+        return (int) (context.getProgress() * 100 / total);
     }
 
     /**
      * Прерывает поток выполняющий обработку данных.
      */
     public void cancel() {
-        BlockCipher.cipherStop = true;
+        context.cancel();
     }
 }
@@ -0,0 +1,205 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.modes.CipherMode;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Заголовок файла, зашифрованного {@link FileHandler}. По заголовку до расшифровки проверяется,
+ * что файл зашифрован этой программой, в том же режиме и тем же ключом, поэтому неверный ключ
+ * обнаруживается сразу, а не после расшифровки всего файла.
+ * <p>
+ * Формат заголовка, числа записываются начиная со старшего байта:
+ * <pre>
+ * int {@link #MAGIC}, short {@link #VERSION}, byte режим, byte флаги, int размер сегмента, 8 байт проверки ключа
+ * </pre>
+ * Размер сегмента равен 0, если файл зашифрован одной цепочкой, иначе за заголовком следуют
+ * сегменты в формате {@link SegmentedFile}. Файл, зашифрованный на месте ({@link InPlaceFile}),
+ * имеет флаг {@link #IN_PLACE}, а заголовок находится не в начале, а в самом конце файла.
+ * Проверка ключа - первые 8 байт SHA-256 от блока {@link #KEY_CHECK_BLOCK}, зашифрованного ключом:
+ * по ней нельзя восстановить ни ключ, ни гамму.
+ */
+public final class FileHeader {
+    /** Метка в начале файла, "AESF". */
+    public static final int MAGIC = 0x41455346;
+
+    /** Версия формата. */
+    public static final short VERSION = 1;
+
+    /** Размер заголовка. */
+    public static final int SIZE = 20;
+
+    /** Флаг файла, зашифрованного на месте: заголовок записан в конце файла. */
+    public static final int IN_PLACE = 1;
+
+    /* Размер значения проверки ключа. */
+    private static final int KEY_CHECK_SIZE = 8;
+
+    /* Блок, из которого получается значение проверки ключа. */
+    private static final byte[] KEY_CHECK_BLOCK = "AES key check   ".getBytes(StandardCharsets.US_ASCII);
+
+    /* Режим, в котором зашифрован файл. */
+    private final CipherMode cipherMode;
+
+    /* Размер открытых данных в сегменте или 0. */
+    private final int segmentSize;
+
+    /* Флаги. */
+    private final int flags;
+
+    /* Значение проверки ключа. */
+    private final byte[] keyCheck;
+
+    /**
+     * Создает заголовок для шифрования.
+     *
+     * @param cipherMode  Режим, в котором шифруется файл.
+     * @param segmentSize Размер сегмента или 0, если файл шифруется одной цепочкой.
+     * @param key         Ключ, которым шифруется файл.
+     */
+    public FileHeader(CipherMode cipherMode, int segmentSize, ExpandedKey key) {
+        this(cipherMode, segmentSize, 0, keyCheck(key));
+    }
+
+    /**
+     * Создает заголовок, который записывается в конце файла, зашифрованного на месте.
+     *
+     * @param cipherMode Режим, в котором шифруется файл.
+     * @param key        Ключ, которым шифруется файл.
+     */
+    public static FileHeader inPlace(CipherMode cipherMode, ExpandedKey key) {
+        return new FileHeader(cipherMode, 0, IN_PLACE, keyCheck(key));
+    }
+
+    private FileHeader(CipherMode cipherMode, int segmentSize, int flags, byte[] keyCheck) {
+        this.cipherMode = cipherMode;
+        this.segmentSize = segmentSize;
+        this.flags = flags;
+        this.keyCheck = keyCheck;
+    }
+
+    /**
+     * Считывает заголовок из начала файла, а если его там нет - из конца файла,
+     * где находится заголовок файла, зашифрованного на месте.
+     *
+     * @return Заголовок или {@code null}, если его нет, например, файл был зашифрован
+     * предыдущей версией программы.
+     * @throws IOException Генерируется если файл не удалось прочитать или заголовок поврежден.
+     */
+    public static FileHeader read(FileChannel channel) throws IOException {
+        if (channel.size() < SIZE) return null;
+
+        FileHeader header = read(channel, 0);
+        if (header == null) {
+            header = read(channel, channel.size() - SIZE);
+            if (header != null && !header.isInPlace()) return null;
+        } else if (header.isInPlace()) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Считывает заголовок с позиции {@code position}.
+     *
+     * @return Заголовок или {@code null}, если на этой позиции нет метки.
+     * @throws IOException Генерируется если файл не удалось прочитать или заголовок поврежден.
+     */
+    static FileHeader read(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) throw new EOFException("File is truncated");
+        }
+        if (header.getInt(0) != MAGIC) return null;
+        if (header.getShort(4) != VERSION) throw new IOException("Unsupported format version " + header.getShort(4));
+
+        int ordinal = header.get(6);
+        if (ordinal < 0 || ordinal >= CipherMode.values().length) throw new IOException("Unknown cipher mode");
+
+        int segmentSize = header.getInt(8);
+        if (segmentSize < 0 || segmentSize % AESConst.BLOCK_SIZE != 0) throw new IOException("Invalid segment size");
+
+        byte[] keyCheck = new byte[KEY_CHECK_SIZE];
+        ((Buffer) header).position(12);
+        header.get(keyCheck);
+        return new FileHeader(CipherMode.values()[ordinal], segmentSize, header.get(7), keyCheck);
+    }
+
+    /** Записывает заголовок в начало файла. */
+    public void write(FileChannel channel) throws IOException {
+        write(channel, 0);
+    }
+
+    /** Записывает заголовок с позиции {@code position}. */
+    public void write(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(toBytes());
+        while (header.hasRemaining()) {
+            channel.write(header, position + header.position());
+        }
+    }
+
+    /** Возвращает байты заголовка. */
+    public byte[] toBytes() {
+        ByteBuffer header = ByteBuffer.allocate(SIZE);
+        header.putInt(MAGIC).putShort(VERSION).put((byte) cipherMode.ordinal()).put((byte) flags)
+                .putInt(segmentSize).put(keyCheck);
+        return header.array();
+    }
+
+    /**
+     * Проверяет, что файл зашифрован ключом {@code key}.
+     *
+     * @throws IOException Генерируется если ключ не совпадает.
+     */
+    public void checkKey(ExpandedKey key) throws IOException {
+        if (!MessageDigest.isEqual(keyCheck, keyCheck(key))) throw new IOException("Wrong key");
+    }
+
+    /**
+     * Проверяет, что файл зашифрован в режиме {@code cipherMode}.
+     *
+     * @throws IOException Генерируется если режим не совпадает.
+     */
+    public void checkMode(CipherMode cipherMode) throws IOException {
+        if (this.cipherMode != cipherMode) throw new IOException("File was encrypted in " + this.cipherMode + " mode");
+    }
+
+    /** Возвращает режим, в котором зашифрован файл. */
+    public CipherMode getCipherMode() {
+        return cipherMode;
+    }
+
+    /** Проверяет, был ли файл зашифрован на месте. */
+    public boolean isInPlace() {
+        return (flags & IN_PLACE) != 0;
+    }
+
+    /** Возвращает размер открытых данных в сегменте или 0, если файл зашифрован одной цепочкой. */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /* Вычисляет значение проверки ключа. */
+    private static byte[] keyCheck(ExpandedKey key) {
+        byte[] block = new byte[AESConst.BLOCK_SIZE];
+        Engine.getDefault().encryptor(key).transformBlock(KEY_CHECK_BLOCK, 0, block, 0);
+
+        try {
+            return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(block), KEY_CHECK_SIZE);
+        } catch (NoSuchAlgorithmException e) {
+            //SHA-256 есть в любой реализации Java
+            throw new IllegalStateException(e);
+        }
+    }
+}
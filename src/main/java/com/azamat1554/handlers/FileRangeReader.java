@@ -0,0 +1,117 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.modes.CipherMode;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Чтение произвольных диапазонов открытых данных из файла, зашифрованного {@link FileHandler},
+ * без расшифровки всего файла. Расшифровываются только блоки, в которые попадает диапазон.
+ * <p>
+ * Файл, зашифрованный одной цепочкой, должен быть зашифрован в режиме {@link CipherMode#ECB},
+ * {@link CipherMode#CTR} или {@link CipherMode#XTS}: в режиме ECB блоки независимы, а в режимах
+ * CTR и XTS значение счетчика или номер сектора вычисляется по смещению блока
+ * ({@link CipherSeekableChannel}). Файл из сегментов ({@link SegmentedFile}) читается в любом
+ * режиме, так как расшифровываются только сегменты, в которые попадает диапазон.
+ * Файл, зашифрованный на месте ({@link InPlaceFile}), читается так же.
+ * <p>
+ * Объект можно использовать из нескольких потоков, запросы выполняются по очереди.
+ */
+public class FileRangeReader implements Closeable {
+    /* Канал, который представляет файл как открытые данные. */
+    private final SeekableByteChannel channel;
+
+    /**
+     * Открывает файл и проверяет его заголовок.
+     *
+     * @param file       Зашифрованный файл.
+     * @param cipherMode Режим, в котором зашифрован файл.
+     * @param key        Ключ, которым зашифрован файл.
+     * @throws IOException Генерируется если файл не удалось прочитать, он зашифрован в другом режиме
+     *                     или другим ключом, или режим не позволяет читать с произвольного места.
+     */
+    public FileRangeReader(File file, CipherMode cipherMode, ExpandedKey key) throws IOException {
+        FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            FileHeader header = FileHeader.read(in);
+            if (header != null) {
+                header.checkMode(cipherMode);
+                header.checkKey(key);
+            }
+
+            if (header != null && header.getSegmentSize() > 0) {
+                channel = new SegmentedChannel(in, key);
+            } else if (header != null && header.isInPlace()) {
+                //IV и заголовок находятся в конце файла
+                long length = in.size() - AESConst.BLOCK_SIZE - FileHeader.SIZE;
+                ByteBuffer iv = ByteBuffer.allocate(AESConst.BLOCK_SIZE);
+                while (iv.hasRemaining()) {
+                    if (in.read(iv, length + iv.position()) < 0) throw new EOFException("File is truncated");
+                }
+                channel = new CipherSeekableChannel(in, cipherMode, iv.array(), length, key);
+            } else if (cipherMode == CipherMode.ECB || cipherMode == CipherMode.CTR || cipherMode == CipherMode.XTS) {
+                channel = new CipherSeekableChannel(in, header == null ? 0 : FileHeader.SIZE, cipherMode, key);
+            } else {
+                throw new IOException("Random access requires ECB, CTR or XTS mode or a segmented file");
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Возвращает размер открытых данных.
+     */
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Считывает в буфер {@code dst} открытые данные, начиная с позиции {@code position},
+     * пока буфер не заполнится или не закончатся данные.
+     *
+     * @return Количество считанных байтов или -1, если позиция находится за концом данных.
+     * @throws IOException Генерируется если файл не удалось прочитать или он поврежден.
+     */
+    public synchronized int read(long position, ByteBuffer dst) throws IOException {
+        channel.position(position);
+
+        int count = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst);
+            if (n < 0) return count == 0 ? -1 : count;
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Возвращает {@code length} байт открытых данных, начиная с позиции {@code position}.
+     *
+     * @throws IOException Генерируется если диапазон выходит за конец данных, файл не удалось
+     *                     прочитать или он поврежден.
+     */
+    public byte[] read(long position, int length) throws IOException {
+        if (position < 0 || length < 0) throw new IllegalArgumentException("Negative position or length");
+
+        ByteBuffer dst = ByteBuffer.allocate(length);
+        read(position, dst);
+        if (dst.hasRemaining()) throw new EOFException("Range is out of the data");
+        return dst.array();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
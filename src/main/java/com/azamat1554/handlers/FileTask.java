@@ -0,0 +1,370 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Преобразование одного файла. Каждый файл получает собственный объект со своим шифром и буферами,
+ * поэтому {@link FileHandler} может обрабатывать несколько файлов одновременно.
+ * <p>
+ * Файл считывается частями размером до 32 МБ, чтение, преобразование и запись выполняются конвейером
+ * ({@link Pipeline}) из четырех буферов. Размер буферов выбирается по размеру файла, поэтому маленькие
+ * файлы занимают мало памяти. Если включено отображение файлов в память, файл обрабатывается окнами
+ * по 128 МБ через {@link FileChannel#map}: данные копируются в отображенный файл назначения
+ * и преобразуются прямо в нем, поэтому размер файла не ограничен 2 ГБ.
+ * <p>
+ * Если задан размер сегмента, файл шифруется в формате {@link SegmentedFile}, сегменты которого
+ * обрабатываются параллельно.
+ * <p>
+ * Зашифрованный файл начинается с заголовка {@link FileHeader}. При расшифровке режим, ключ
+ * и формат проверяются по заголовку еще при создании объекта, до чтения данных.
+ * Файлы без заголовка, зашифрованные предыдущими версиями, расшифровываются без проверки.
+ * <p>
+ * Если включено преобразование на месте и режим не меняет размер данных, файл переписывается
+ * на месте объектом {@link InPlaceFile} и затем переименовывается. Файл, зашифрованный на месте,
+ * так же и расшифровывается, а прерванное преобразование продолжается по журналу.
+ */
+final class FileTask {
+    /* Размер окна при отображении файла в память. */
+    private static final int SIZE = 134_217_728;
+
+    /* Количество буферов конвейера. */
+    private static final int BUFFERS = 4;
+
+    /* Исходный файл и файл, в который записывается результат. */
+    private final File srcFile;
+    private final File destFile;
+
+    /* Режим, ключ и задание, из которых создается шифр. */
+    private final CipherMode cipherMode;
+    private final ExpandedKey key;
+    private final CipherContext context;
+
+    /* Шифр, которым преобразуется файл, у каждого файла свой, так как у каждого файла свой IV. */
+    private final BlockCipher cipher;
+
+    /* Направление преобразования. */
+    private final ModeOf mode;
+
+    /* Указывает, что файл отображается в память, а не считывается в буферы. */
+    private final boolean mapped;
+
+    /* Указывает, что файл обрабатывается сегментами. */
+    private final boolean segmented;
+
+    /* Размер открытых данных в сегменте или 0, если файл обрабатывается целиком. */
+    private final int segmentSize;
+
+    /* Размер заголовка в начале зашифрованного файла. */
+    private final int headerSize;
+
+    /* Указывает, что файл преобразуется на месте. */
+    private final boolean inPlace;
+
+    /*
+     * Размер конца данных, который не должен отделяться от последнего куска:
+     * тег аутентификации или неполный блок режима XTS вместе с предыдущим.
+     */
+    private final int tailSize;
+
+    /* Размер окна при отображении файла в память. */
+    private final int window;
+
+    /* Размер куска и количество буферов конвейера. */
+    private final int chunkSize;
+    private final int buffers;
+
+    /**
+     * Конвейер, буферы которого хранят байты файла. В каждом буфере два блока в запасе,
+     * один для вектора инициализации, второй для дополнения.
+     */
+    private Pipeline pipeline;
+
+    /* Задает смещение для вектора инициализации. */
+    private int offset;
+
+    /* Позиция чтения в исходном файле. */
+    private long position;
+
+    /**
+     * @param srcFile     Исходный файл.
+     * @param destFile    Файл, в который записывается результат.
+     * @param cipherMode  Режим блочного шифра.
+     * @param key         Ключ, которым выполняется преобразование.
+     * @param context     Задание, общее для всех файлов.
+     * @param mapped      Указывает, что файл отображается в память.
+     * @param segmentSize Размер сегмента при шифровании сегментами или 0, если файл шифруется целиком.
+     * @param inPlace     Указывает, что файл нужно зашифровать на месте, если режим это позволяет.
+     * @throws IOException Генерируется если не удалось прочитать заголовок исходного файла,
+     *                     или файл зашифрован в другом режиме или другим ключом.
+     */
+    FileTask(File srcFile, File destFile, CipherMode cipherMode, ExpandedKey key, CipherContext context,
+             boolean mapped, int segmentSize, boolean inPlace) throws IOException {
+        this(srcFile, destFile, cipherMode, key, context, mapped, segmentSize, inPlace, SIZE);
+    }
+
+    /**
+     * Создает задачу с другим размером окна, буферы конвейера получают по четверти окна.
+     *
+     * @param window Размер окна, кратный размеру блока и количеству буферов.
+     */
+    FileTask(File srcFile, File destFile, CipherMode cipherMode, ExpandedKey key, CipherContext context,
+             boolean mapped, int segmentSize, boolean inPlace, int window) throws IOException {
+        if (window <= 0 || window % (BUFFERS * AESConst.BLOCK_SIZE) != 0)
+            throw new IllegalArgumentException("Window must be a positive multiple of " + BUFFERS + " blocks");
+
+        this.srcFile = srcFile;
+        this.destFile = destFile;
+        this.cipherMode = cipherMode;
+        this.key = key;
+        this.context = context;
+        this.mapped = mapped;
+        this.window = window;
+
+        cipher = BlockCipher.getCipher(cipherMode, key, context, Engine.getDefault());
+
+        //прерванное преобразование на месте продолжается, в каком бы формате ни были остальные файлы
+        boolean resumed = InPlaceFile.getJournal(srcFile).exists();
+        if (context.getMode() == ModeOf.ENCRYPTION) {
+            this.inPlace = resumed || inPlace && segmentSize == 0 && InPlaceFile.isSupported(cipherMode);
+            this.segmentSize = this.inPlace ? 0 : segmentSize;
+            headerSize = FileHeader.SIZE;
+        } else {
+            //при расшифровке размер сегмента берется из заголовка
+            FileHeader header;
+            try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ)) {
+                header = FileHeader.read(in);
+            }
+            if (header != null) {
+                header.checkMode(cipherMode);
+                header.checkKey(key);
+            }
+            this.inPlace = resumed || header != null && header.isInPlace();
+            this.segmentSize = header == null ? 0 : header.getSegmentSize();
+            headerSize = header == null ? 0 : FileHeader.SIZE;
+        }
+        segmented = this.segmentSize > 0;
+
+        mode = cipher.getContext().getMode();
+        offset = cipher.getIVSize();
+        tailSize = cipher.getTailSize();
+
+        //маленький файл помещается в один кусок
+        long length = Math.max(AESConst.BLOCK_SIZE, srcFile.length());
+        chunkSize = (int) Math.min(window / BUFFERS, (length + AESConst.BLOCK_SIZE - 1) / AESConst.BLOCK_SIZE * AESConst.BLOCK_SIZE);
+        buffers = (int) Math.min(BUFFERS, (length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Возвращает объем памяти в куче, который нужен для преобразования файла.
+     */
+    long getMemory() {
+        //буфер области и второй буфер для восстановления по журналу
+        if (inPlace) return 2L * Math.min(InPlaceFile.REGION, srcFile.length());
+
+        //каждый поток пула держит один сегмент
+        if (segmented)
+            return (long) BlockCipher.getPool().getParallelism() * cipher.getEncryptedSize(segmentSize);
+
+        return mapped ? 0 : (long) buffers * (chunkSize + 2 * AESConst.BLOCK_SIZE);
+    }
+
+    /**
+     * Преобразует файл.
+     *
+     * @throws Exception Генерируется если файл не удалось прочитать или записать, данные повреждены
+     *                   или преобразование было отменено.
+     */
+    void run() throws Exception {
+        if (inPlace) {
+            new InPlaceFile(srcFile, cipherMode, key, context).run();
+            Files.move(srcFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else if (segmented) {
+            transformSegmented();
+        } else if (mapped) {
+            transformMapped();
+        } else {
+            transform();
+        }
+    }
+
+    /**
+     * Проверяет, преобразуется ли файл на месте. Тогда при ошибке файл назначения не создается,
+     * а исходный файл остается вместе с журналом.
+     */
+    boolean isInPlace() {
+        return inPlace;
+    }
+
+    /* Обрабатывает файл, считывая его частями в буферы конвейера. */
+    private void transform() throws Exception {
+        pipeline = new Pipeline(buffers, chunkSize + 2 * AESConst.BLOCK_SIZE);
+
+        try (FileInputStream fin = new FileInputStream(srcFile);
+             FileOutputStream fout = new FileOutputStream(destFile)) {
+            if (mode == ModeOf.ENCRYPTION)
+                encrypt(fin, fout);
+            else
+                decrypt(fin, fout);
+        } finally {
+            pipeline = null;
+        }
+    }
+
+    /* Обрабатывает файл сегментами. */
+    private void transformSegmented() throws Exception {
+        try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destFile.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (mode == ModeOf.ENCRYPTION) {
+                SegmentedFile.encrypt(in, out, cipherMode, key, context, segmentSize);
+            } else {
+                new SegmentedFile(in, key, context).decrypt(out);
+            }
+        }
+    }
+
+    /* Обрабатывает файл, отображая его в память. */
+    private void transformMapped() throws Exception {
+        try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destFile.toPath(), StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = mode == ModeOf.ENCRYPTION ? encrypt(in, out) : decrypt(in, out);
+
+            //окна отображаются с запасом, поэтому лишние байты в конце отбрасываются
+            out.truncate(written);
+        }
+    }
+
+    /*
+     * Шифрует файл окнами. Окно исходного файла помещается в окно файла назначения
+     * со смещением для IV, а в запасе остается место для дополнения и тега.
+     * Возвращает размер зашифрованных данных.
+     */
+    private long encrypt(FileChannel in, FileChannel out) throws Exception {
+        new FileHeader(cipherMode, 0, key).write(out);
+
+        long size = in.size();
+        long position = 0;
+        long written = headerSize;
+        do {
+            //если после окна останется меньше блока, тогда последнее окно отображается вместе с ним
+            long restBytes = size - position;
+            int numberOfBytes = (int) (restBytes <= window + tailSize ? restBytes : window);
+            boolean last = position + numberOfBytes == size;
+
+            MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, position, numberOfBytes);
+            MappedByteBuffer dest = out.map(FileChannel.MapMode.READ_WRITE, written,
+                    offset + numberOfBytes + 2 * AESConst.BLOCK_SIZE);
+            ((Buffer) dest).position(offset);
+            dest.put(src);
+
+            written += cipher.update(dest, offset + numberOfBytes, last);
+            position += numberOfBytes;
+            offset = 0;
+        } while (position < size);
+
+        return written;
+    }
+
+    /*
+     * Расшифровывает файл окнами. IV считывается отдельно, после чего каждое окно исходного файла
+     * копируется в окно файла назначения и расшифровывается на месте. Возвращает размер открытых данных.
+     */
+    private long decrypt(FileChannel in, FileChannel out) throws Exception {
+        long size = in.size();
+        long position = headerSize;
+        if (offset > 0) {
+            cipher.update(in.map(FileChannel.MapMode.READ_ONLY, position, offset), offset, false);
+            position += offset;
+        }
+
+        long written = 0;
+        do {
+            long restBytes = size - position;
+            //если после окна останется только часть тега, тогда последнее окно отображается вместе с ним
+            int numberOfBytes = (int) (restBytes <= window + tailSize ? restBytes : window);
+
+            MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, position, numberOfBytes);
+            MappedByteBuffer dest = out.map(FileChannel.MapMode.READ_WRITE, written, numberOfBytes);
+            dest.put(src);
+
+            written += cipher.update(dest, numberOfBytes, restBytes == numberOfBytes);
+            position += numberOfBytes;
+        } while (position < size);
+
+        return written;
+    }
+
+    private void encrypt(FileInputStream fin, FileOutputStream fout) throws Exception {
+        fout.write(new FileHeader(cipherMode, 0, key).toBytes());
+
+        long size = fin.getChannel().size();
+        pipeline.run(chunk -> {
+            //считывает из файла указанное кол-во байт или сколько осталось, после места для IV;
+            //если после куска останется меньше блока, тогда последний кусок считывается вместе с ним
+            long restBytes = size - position;
+            int numberOfBytes = (int) (restBytes <= chunkSize + tailSize ? restBytes : chunkSize);
+            read(fin, chunk.data, offset, numberOfBytes);
+
+            chunk.length = offset + numberOfBytes;
+            chunk.from = 0;
+            position += numberOfBytes;
+            chunk.last = position == size;
+            offset = 0;
+        }, this::update, chunk -> fout.write(chunk.data, chunk.from, chunk.to - chunk.from));
+    }
+
+    private void decrypt(FileInputStream fin, FileOutputStream fout) throws Exception {
+        //заголовок уже проверен
+        position = headerSize;
+        fin.getChannel().position(position);
+
+        long size = fin.getChannel().size();
+        pipeline.run(chunk -> {
+            //если после куска останется только часть тега, тогда последний кусок считывается вместе с ним
+            long restBytes = size - position;
+            int numberOfBytes = (int) (restBytes <= chunkSize + tailSize ? restBytes : chunkSize);
+            read(fin, chunk.data, 0, numberOfBytes);
+
+            //IV не записывается в расшифрованный файл
+            chunk.length = numberOfBytes;
+            chunk.from = offset;
+            position += numberOfBytes;
+            chunk.last = position == size;
+            offset = 0;
+        }, this::update, chunk -> fout.write(chunk.data, chunk.from, chunk.to - chunk.from));
+    }
+
+    /* Стадия преобразования конвейера: куски преобразуются по порядку одним шифром. */
+    private void update(Pipeline.Chunk chunk) throws Exception {
+        chunk.to = cipher.update(chunk.data, chunk.length, chunk.last);
+    }
+
+    /* Считывает из файла ровно length байт. */
+    private static void read(FileInputStream fin, byte[] data, int offset, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            int n = fin.read(data, offset + count, length - count);
+            if (n < 0) throw new EOFException("File is truncated");
+            count += n;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CTR;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.cipher.modes.ECB;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Шифрование и расшифровка файла на месте, без второго файла. Подходит для режимов, которые
+ * не меняют размер данных ({@link #isSupported(CipherMode)}): файл переписывается областями
+ * по {@link #REGION} байт через {@link FileChannel}, а IV и заголовок {@link FileHeader}
+ * с флагом {@link FileHeader#IN_PLACE} записываются в конце файла после шифрования всех областей.
+ * <p>
+ * Рядом с файлом ведется журнал (файл с расширением {@link #JOURNAL_SUFFIX}), поэтому
+ * преобразование, прерванное сбоем или отменой, продолжается следующим вызовом {@link #run()}
+ * с того же места, а не оставляет файл наполовину зашифрованным. Журнал хранит направление,
+ * заголовок, IV и размер данных, а перед записью каждой области - отпечатки SHA-256 ее
+ * исходных секторов по {@link #SECTOR} байт. Каждый сектор преобразуется независимо от остальных,
+ * поэтому при продолжении для каждого сектора прерванной области видно, был ли он уже записан:
+ * с отпечатком исходного сектора совпадает либо сам сектор, либо сектор после обратного
+ * преобразования. Если совпадают оба или ни один, сектор не трогается, а преобразование
+ * прекращается с ошибкой: повторное применение гаммы CTR вернуло бы на диск открытые данные.
+ * Запись сектора на диск считается атомарной.
+ * <p>
+ * В режиме XTS IV не используется, и на его месте в конце файла записываются нули.
+ * <p>
+ * Формат журнала: заголовок (int {@link #JOURNAL_MAGIC}, byte направление, заголовок файла, IV,
+ * long размер данных), затем две записи об областях, которые заполняются по очереди, чтобы сбой
+ * во время записи в журнал не испортил предыдущую запись. Запись: long номер, long начало области,
+ * int размер области, отпечатки секторов по {@link #DIGEST_SIZE} байт и CRC32 самой записи.
+ */
+public final class InPlaceFile {
+    /** Размер области, которая переписывается за один шаг. */
+    public static final int REGION = 8 << 20;
+
+    /** Размер сектора, для которого в журнал записывается отпечаток. */
+    public static final int SECTOR = 512;
+
+    /** Расширение файла журнала. */
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    /* Метка в начале журнала, "AESK". Журналы с суммами CRC32 секторов имели метку "AESJ". */
+    private static final int JOURNAL_MAGIC = 0x4145534B;
+
+    /* Размер заголовка журнала. */
+    private static final int JOURNAL_HEADER = 64;
+
+    /** Размер отпечатка сектора в журнале: первые байты SHA-256. */
+    public static final int DIGEST_SIZE = 16;
+
+    /* Размер записи об области. */
+    private static final int RECORD_SIZE = 8 + 8 + 4 + REGION / SECTOR * DIGEST_SIZE + 4;
+
+    /* Размер IV и заголовка в конце зашифрованного файла. */
+    private static final int FOOTER_SIZE = AESConst.BLOCK_SIZE + FileHeader.SIZE;
+
+    /* Файл, который преобразуется, и его журнал. */
+    private final File file;
+    private final File journalFile;
+
+    /* Режим блочного шифра и ключ. */
+    private final CipherMode cipherMode;
+    private final ExpandedKey key;
+
+    /* Задание, которое задает направление и получает прогресс и отмену. */
+    private final CipherContext context;
+
+    /* Шифр, которым переписываются области, и шифр обратного направления для проверки секторов. */
+    private ECB cipher;
+    private ECB inverse;
+
+    /* Начальное значение счетчика. */
+    private byte[] iv;
+
+    /* Размер данных, без IV и заголовка в конце. */
+    private long length;
+
+    /* Номер последней записи в журнале. */
+    private long sequence;
+
+    /**
+     * @param file       Файл, который нужно преобразовать.
+     * @param cipherMode Режим блочного шифра, который не меняет размер данных.
+     * @param key        Ключ, которым выполняется преобразование.
+     * @param context    Задание, которое задает направление и получает прогресс и отмену.
+     */
+    public InPlaceFile(File file, CipherMode cipherMode, ExpandedKey key, CipherContext context) {
+        if (!isSupported(cipherMode)) throw new IllegalArgumentException(cipherMode + " mode changes the size of data");
+
+        this.file = file;
+        this.cipherMode = cipherMode;
+        this.key = key;
+        this.context = context;
+        journalFile = getJournal(file);
+    }
+
+    /**
+     * Проверяет, можно ли преобразовывать файлы на месте в режиме {@code cipherMode}: режим
+     * не должен менять размер данных, IV должен храниться отдельно от них, а сектор по {@link #SECTOR}
+     * байт должен преобразовываться независимо от остальных (в режиме XTS размер сектора такой же).
+     */
+    public static boolean isSupported(CipherMode cipherMode) {
+        return cipherMode == CipherMode.CTR || cipherMode == CipherMode.XTS;
+    }
+
+    /**
+     * Возвращает файл журнала для файла {@code file}. Если журнал существует, преобразование
+     * файла было прервано и должно быть продолжено.
+     */
+    public static File getJournal(File file) {
+        return new File(file.getAbsolutePath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Преобразует файл на месте или продолжает прерванное преобразование.
+     * После успешного завершения журнал удаляется.
+     *
+     * @throws IOException          Генерируется если файл или журнал не удалось прочитать или записать,
+     *                              файл зашифрован другим ключом или поврежден.
+     * @throws InterruptedException Генерируется если задание было отменено, журнал при этом сохраняется.
+     */
+    public void run() throws IOException, InterruptedException {
+        try (FileChannel data = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel journal = openJournal(data)) {
+            cipher = newCipher(context);
+            inverse = newCipher(new CipherContext(context.getMode() == ModeOf.ENCRYPTION
+                    ? ModeOf.DECRYPTION : ModeOf.ENCRYPTION));
+
+            //один буфер области используется и при восстановлении, и при преобразовании
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(REGION, Math.max(1, length)));
+            long position = recover(data, journal, buffer);
+            while (position < length) {
+                int n = (int) Math.min(REGION, length - position);
+                read(data, buffer, position, n);
+
+                //сначала в журнал записываются отпечатки исходных секторов, затем область переписывается
+                writeRecord(journal, position, n, digests(buffer, n));
+                transform(cipher, buffer, position, n);
+                write(data, buffer, position, n);
+                data.force(false);
+
+                position += n;
+            }
+
+            finish(data);
+        }
+        Files.delete(journalFile.toPath());
+    }
+
+    /*
+     * Открывает журнал прерванного преобразования или создает новый.
+     * Считывает или выбирает IV и размер данных.
+     */
+    private FileChannel openJournal(FileChannel data) throws IOException {
+        ModeOf mode = context.getMode();
+
+        //журнал без заголовка остается после сбоя при его создании, когда данные еще не изменялись
+        if (journalFile.exists() && journalFile.length() < JOURNAL_HEADER) Files.delete(journalFile.toPath());
+
+        if (journalFile.exists()) {
+            FileChannel journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+                read(journal, header, 0, JOURNAL_HEADER);
+                if (header.getInt(0) != JOURNAL_MAGIC) throw new IOException("Journal is corrupted");
+                if (header.get(4) != mode.ordinal())
+                    throw new IOException("Unfinished " + (mode == ModeOf.ENCRYPTION ? "decryption" : "encryption")
+                            + " must be resumed first");
+
+                FileHeader fileHeader = FileHeader.read(journal, 5);
+                if (fileHeader == null) throw new IOException("Journal is corrupted");
+                fileHeader.checkMode(cipherMode);
+                fileHeader.checkKey(key);
+
+                iv = new byte[AESConst.BLOCK_SIZE];
+                ((Buffer) header).position(5 + FileHeader.SIZE);
+                header.get(iv);
+                length = header.getLong();
+                return journal;
+            } catch (IOException | RuntimeException e) {
+                journal.close();
+                throw e;
+            }
+        }
+
+        iv = new byte[AESConst.BLOCK_SIZE];
+        if (mode == ModeOf.ENCRYPTION) {
+            if (FileHeader.read(data) != null) throw new IOException("File is already encrypted");
+
+            if (cipherMode == CipherMode.CTR) new SecureRandom().nextBytes(iv);
+            length = data.size();
+        } else {
+            FileHeader header = FileHeader.read(data);
+            if (header == null || !header.isInPlace()) throw new IOException("File was not encrypted in place");
+            header.checkMode(cipherMode);
+            header.checkKey(key);
+
+            length = data.size() - FOOTER_SIZE;
+            read(data, ByteBuffer.wrap(iv), length, AESConst.BLOCK_SIZE);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+        header.putInt(JOURNAL_MAGIC).put((byte) mode.ordinal()).put(FileHeader.inPlace(cipherMode, key).toBytes())
+                .put(iv).putLong(length);
+
+        FileChannel journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        try {
+            write(journal, header, 0, JOURNAL_HEADER);
+            journal.force(true);
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /*
+     * Восстанавливает область, запись которой была прервана, и возвращает позицию,
+     * с которой продолжается преобразование. Область считывается в буфер buffer, кроме него
+     * нужен только еще один буфер размером с область.
+     */
+    private long recover(FileChannel data, FileChannel journal, ByteBuffer buffer)
+            throws IOException, InterruptedException {
+        ByteBuffer record = null;
+        for (int slot = 0; slot < 2; slot++) {
+            ByteBuffer candidate = readRecord(journal, slot);
+            if (candidate != null && (record == null || candidate.getLong(0) > record.getLong(0))) record = candidate;
+        }
+        if (record == null) return 0;
+
+        sequence = record.getLong(0);
+        long start = record.getLong(8);
+        int n = record.getInt(16);
+        if (start < 0 || n <= 0 || n > REGION || start + n > length) throw new IOException("Journal is corrupted");
+
+        read(data, buffer, start, n);
+        byte[] current = digests(buffer, n);
+
+        //второй буфер сначала получает обратное преобразование области, затем прямое
+        ByteBuffer work = ByteBuffer.allocate(n);
+        System.arraycopy(buffer.array(), 0, work.array(), 0, n);
+        transform(inverse, work, start, n);
+        byte[] restored = digests(work, n);
+
+        System.arraycopy(buffer.array(), 0, work.array(), 0, n);
+        transform(cipher, work, start, n);
+
+        //каждый сектор либо еще исходный, либо уже преобразован, но не то и другое сразу
+        for (int i = 0; i < current.length / DIGEST_SIZE; i++) {
+            boolean original = matches(record, i, current);
+            boolean transformed = matches(record, i, restored);
+            if (original == transformed) {
+                throw new IOException("Sector at " + (start + (long) i * SECTOR) + " is "
+                        + (original ? "ambiguous" : "corrupted"));
+            }
+            if (original) {
+                System.arraycopy(work.array(), i * SECTOR, buffer.array(), i * SECTOR,
+                        Math.min(SECTOR, n - i * SECTOR));
+            }
+        }
+
+        write(data, buffer, start, n);
+        data.force(false);
+        return start + n;
+    }
+
+    /* Завершает преобразование: записывает IV и заголовок в конце файла или отбрасывает их. */
+    private void finish(FileChannel data) throws IOException {
+        if (context.getMode() == ModeOf.ENCRYPTION) {
+            write(data, ByteBuffer.wrap(iv), length, AESConst.BLOCK_SIZE);
+            FileHeader.inPlace(cipherMode, key).write(data, length + AESConst.BLOCK_SIZE);
+        } else {
+            data.truncate(length);
+        }
+        data.force(true);
+    }
+
+    /* Создает шифр в направлении задания context, начальное значение счетчика уже выбрано. */
+    private ECB newCipher(CipherContext context) {
+        if (cipherMode == CipherMode.CTR) return CTR.withIV(key, iv, context, Engine.getDefault());
+        return (ECB) BlockCipher.getCipher(cipherMode, key, context, Engine.getDefault());
+    }
+
+    /* Преобразует на месте n байт буфера, которые начинаются с позиции position файла. */
+    private static void transform(ECB cipher, ByteBuffer buffer, long position, int n) throws InterruptedException {
+        cipher.seek(position / AESConst.BLOCK_SIZE);
+        cipher.update(buffer, n, false);
+    }
+
+    /* Записывает в журнал отпечатки секторов области, которая будет переписана. */
+    private void writeRecord(FileChannel journal, long start, int n, byte[] digests) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(++sequence).putLong(start).putInt(n).put(digests);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt(RECORD_SIZE - 4, (int) crc.getValue());
+
+        write(journal, record, JOURNAL_HEADER + (sequence % 2) * RECORD_SIZE, RECORD_SIZE);
+        journal.force(false);
+    }
+
+    /* Считывает запись из журнала, возвращает null если ее нет или она повреждена. */
+    private static ByteBuffer readRecord(FileChannel journal, int slot) throws IOException {
+        long position = JOURNAL_HEADER + (long) slot * RECORD_SIZE;
+        if (journal.size() < position + RECORD_SIZE) return null;
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        read(journal, record, position, RECORD_SIZE);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        return record.getInt(RECORD_SIZE - 4) == (int) crc.getValue() ? record : null;
+    }
+
+    /* Вычисляет отпечатки секторов первых n байт буфера, подряд по DIGEST_SIZE байт. */
+    private static byte[] digests(ByteBuffer buffer, int n) {
+        int sectors = (n + SECTOR - 1) / SECTOR;
+        byte[] digests = new byte[sectors * DIGEST_SIZE];
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //SHA-256 есть в любой реализации Java
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < sectors; i++) {
+            sha.update(buffer.array(), i * SECTOR, Math.min(SECTOR, n - i * SECTOR));
+            System.arraycopy(sha.digest(), 0, digests, i * DIGEST_SIZE, DIGEST_SIZE);
+        }
+        return digests;
+    }
+
+    /* Проверяет, совпадает ли отпечаток сектора i из массива digests с отпечатком в записи журнала. */
+    private static boolean matches(ByteBuffer record, int i, byte[] digests) {
+        for (int j = 0; j < DIGEST_SIZE; j++) {
+            if (record.get(20 + i * DIGEST_SIZE + j) != digests[i * DIGEST_SIZE + j]) return false;
+        }
+        return true;
+    }
+
+    /* Считывает n байт с позиции position в начало буфера. */
+    private static void read(FileChannel channel, ByteBuffer buffer, long position, int n) throws IOException {
+        ((Buffer) buffer).clear().limit(n);
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) throw new EOFException("File is truncated");
+        }
+    }
+
+    /* Записывает n байт из начала буфера с позиции position. */
+    private static void write(FileChannel channel, ByteBuffer buffer, long position, int n) throws IOException {
+        ((Buffer) buffer).clear().limit(n);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
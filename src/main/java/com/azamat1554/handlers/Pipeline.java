@@ -0,0 +1,147 @@
+package com.azamat1554.handlers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Конвейер из трех стадий: чтение, преобразование и запись. Стадии выполняются в разных потоках
+ * и передают друг другу буферы из кольца фиксированного размера, поэтому чтение следующего куска,
+ * преобразование текущего и запись предыдущего выполняются одновременно. Стадия чтения выполняется
+ * в вызывающем потоке и ждет, пока запись не вернет свободный буфер, так что объем памяти ограничен кольцом.
+ * <p>
+ * Каждая стадия обрабатывает буферы по порядку, конвейер завершается после буфера с флагом {@code last}.
+ * Если одна из стадий генерирует исключение, остальные прерываются, а исключение передается вызывающему.
+ */
+final class Pipeline {
+    /* Буферы, которые можно заполнять. */
+    private final BlockingQueue<Chunk> free;
+
+    /* Считанные буферы, ожидающие преобразования. */
+    private final BlockingQueue<Chunk> read;
+
+    /* Преобразованные буферы, ожидающие записи. */
+    private final BlockingQueue<Chunk> transformed;
+
+    /* Первое исключение, сгенерированное одной из стадий. */
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    /* Потоки, в которых выполняется конвейер. */
+    private Thread reader;
+    private Thread transformer;
+    private Thread writer;
+
+    /**
+     * @param buffers Количество буферов в кольце.
+     * @param size    Размер одного буфера.
+     */
+    Pipeline(int buffers, int size) {
+        free = new ArrayBlockingQueue<>(buffers);
+        read = new ArrayBlockingQueue<>(buffers);
+        transformed = new ArrayBlockingQueue<>(buffers);
+
+        for (int i = 0; i < buffers; i++) {
+            free.add(new Chunk(new byte[size]));
+        }
+    }
+
+    /**
+     * Запускает конвейер и ждет его завершения.
+     *
+     * @param readStage      Заполняет буфер и указывает, последний ли он.
+     * @param transformStage Преобразует буфер на месте.
+     * @param writeStage     Записывает буфер.
+     * @throws Exception Исключение, сгенерированное одной из стадий.
+     */
+    void run(Stage readStage, Stage transformStage, Stage writeStage) throws Exception {
+        reader = Thread.currentThread();
+        transformer = stage(transformStage, read, transformed, "-transform");
+        writer = stage(writeStage, transformed, free, "-write");
+        transformer.start();
+        writer.start();
+
+        try {
+            process(readStage, free, read);
+        } catch (Exception e) {
+            fail(e);
+        }
+
+        try {
+            transformer.join();
+            writer.join();
+        } catch (InterruptedException e) {
+            fail(e);
+            transformer.join();
+            writer.join();
+        }
+
+        //флаг прерывания мог быть установлен другой стадией
+        Thread.interrupted();
+        if (failure.get() != null) throw failure.get();
+    }
+
+    /* Создает поток стадии. */
+    private Thread stage(Stage stage, BlockingQueue<Chunk> in, BlockingQueue<Chunk> out, String suffix) {
+        Thread thread = new Thread(() -> {
+            try {
+                process(stage, in, out);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }, reader.getName() + suffix);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /*
+     * Обрабатывает буферы по порядку, пока не будет обработан последний. Флаг запоминается
+     * до передачи буфера: после этого буфер может быть снова заполнен стадией чтения.
+     */
+    private void process(Stage stage, BlockingQueue<Chunk> in, BlockingQueue<Chunk> out) throws Exception {
+        boolean last;
+        do {
+            Chunk chunk = in.take();
+            stage.process(chunk);
+            last = chunk.last;
+            out.put(chunk);
+        } while (!last);
+    }
+
+    /* Запоминает первое исключение и прерывает все стадии. */
+    private void fail(Exception e) {
+        if (!failure.compareAndSet(null, e)) return;
+
+        reader.interrupt();
+        transformer.interrupt();
+        writer.interrupt();
+    }
+
+    /**
+     * Одна стадия конвейера.
+     */
+    interface Stage {
+        void process(Chunk chunk) throws Exception;
+    }
+
+    /**
+     * Буфер конвейера. Стадия чтения задает размер данных, флаг последнего куска и начало
+     * данных для записи, стадия преобразования - конец данных для записи.
+     */
+    static final class Chunk {
+        final byte[] data;
+
+        /* Индекс конца считанных данных. */
+        int length;
+
+        /* Указывает, последний это кусок файла или нет. */
+        boolean last;
+
+        /* Диапазон данных, которые нужно записать. */
+        int from;
+        int to;
+
+        private Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Канал только для чтения, который представляет файл из сегментов ({@link SegmentedFile}) как открытые данные.
+ * Позиция канала отсчитывается в открытых данных, при чтении расшифровываются только сегменты,
+ * в которые попадает считываемый диапазон. Последний расшифрованный сегмент запоминается,
+ * поэтому последовательное чтение расшифровывает каждый сегмент один раз.
+ * <p>
+ * В отличие от {@link CipherSeekableChannel}, работает с любым режимом, так как каждый сегмент
+ * расшифровывается целиком, а в режиме GCM тег сегмента проверяется до выдачи его данных.
+ */
+public class SegmentedChannel implements SeekableByteChannel {
+    /* Файл с сегментами. */
+    private final FileChannel channel;
+
+    /* Индекс и расшифровка сегментов. */
+    private final SegmentedFile file;
+
+    /* Буфер с открытыми данными последнего расшифрованного сегмента. */
+    private final ByteBuffer buffer;
+
+    /* Номер сегмента в буфере. */
+    private int current = -1;
+
+    /* Позиция в открытых данных. */
+    private long position;
+
+    /* Указывает, что канал открыт. */
+    private boolean open = true;
+
+    /**
+     * @param channel Файл с сегментами.
+     * @param key     Ключ, которым зашифрованы сегменты.
+     * @throws IOException Генерируется если файл не удалось прочитать или он имеет другой формат.
+     */
+    public SegmentedChannel(FileChannel channel, ExpandedKey key) throws IOException {
+        this.channel = channel;
+        file = new SegmentedFile(channel, key, new CipherContext(ModeOf.DECRYPTION));
+        buffer = ByteBuffer.allocate(file.getBufferSize());
+    }
+
+    /**
+     * Считывает данные не более чем из одного сегмента.
+     *
+     * @throws IOException Генерируется если сегмент не удалось прочитать или он поврежден.
+     */
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        if (position >= file.size()) return -1;
+        if (!dst.hasRemaining()) return 0;
+
+        int index = (int) (position / file.getSegmentSize());
+        if (index != current) {
+            //при ошибке сегмент в буфере уже испорчен
+            current = -1;
+            try {
+                file.read(index, buffer);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Cipher was interrupted");
+            }
+            current = index;
+        }
+
+        ByteBuffer data = buffer.duplicate();
+        ((Buffer) data).position(buffer.position() + (int) (position - (long) index * file.getSegmentSize()));
+        int n = Math.min(dst.remaining(), data.remaining());
+        ((Buffer) data).limit(data.position() + n);
+        dst.put(data);
+
+        position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        if (!open) throw new ClosedChannelException();
+        return file.size();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        if (!open) throw new ClosedChannelException();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        channel.close();
+    }
+}
@@ -0,0 +1,389 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.cipher.modes.XTS;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Зашифрованный файл из сегментов фиксированного размера. Каждый сегмент шифруется отдельным
+ * объектом шифра со своим IV, в формате выбранного режима, поэтому сегменты шифруются
+ * и расшифровываются параллельно на общем пуле {@link BlockCipher#getPool()}, при произвольном
+ * чтении расшифровываются только нужные сегменты, а поврежденный сегмент не мешает расшифровать остальные.
+ * <p>
+ * IV сегмента не случайный, а связывает сегмент с его местом в файле, как в схеме STREAM:
+ * случайное значение файла из {@link #NONCE_SIZE} байт, int номер сегмента, байт 1 у последнего
+ * сегмента и 0 у остальных, затем начальное значение счетчика. При чтении IV сверяется с номером
+ * сегмента, а в режиме GCM IV защищен тегом, поэтому переставленный, повторенный или отброшенный
+ * сегмент, как и файл, укороченный исправлением индекса и окончания, не расшифровываются.
+ * В режимах без IV (ECB, XTS) сегменты не связаны с местом, но эти режимы и не обнаруживают
+ * изменения данных.
+ * <p>
+ * Формат файла, числа записываются начиная со старшего байта:
+ * <pre>
+ * заголовок  {@link FileHeader} с размером сегмента, случайное значение файла
+ * сегменты   IV, зашифрованные данные, дополнение и тег - по сегменту подряд
+ * индекс     для каждого сегмента: long смещение, int размер
+ * окончание  long размер открытых данных, int количество сегментов, int {@link #MAGIC}
+ * </pre>
+ * Каждый сегмент, кроме последнего, содержит ровно {@code segmentSize} байт открытых данных.
+ * Пустой файл состоит из одного пустого последнего сегмента.
+ */
+public final class SegmentedFile {
+    /** Метка в конце файла, "AESS". */
+    public static final int MAGIC = 0x41455353;
+
+    /** Размер открытых данных в сегменте по умолчанию. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    /** Размер случайного значения файла, из которого получаются IV сегментов. */
+    public static final int NONCE_SIZE = 7;
+
+    /* Размер заголовка вместе со случайным значением файла. */
+    private static final int HEADER_SIZE = FileHeader.SIZE + NONCE_SIZE;
+
+    /* Размер начала IV, которое задает место сегмента: значение файла, номер и признак последнего. */
+    private static final int BINDING_SIZE = NONCE_SIZE + 4 + 1;
+
+    /* Размер записи индекса. */
+    private static final int ENTRY_SIZE = 12;
+
+    /* Размер окончания. */
+    private static final int TRAILER_SIZE = 16;
+
+    /* Файл с сегментами. */
+    private final FileChannel channel;
+
+    /* Ключ, которым зашифрованы сегменты. */
+    private final ExpandedKey key;
+
+    /* Задание, которое получает прогресс и отмену. */
+    private final CipherContext context;
+
+    /* Режим, в котором зашифрованы сегменты. */
+    private final CipherMode cipherMode;
+
+    /* Размер открытых данных в сегменте. */
+    private final int segmentSize;
+
+    /* Размер открытых данных. */
+    private final long size;
+
+    /* Случайное значение файла. */
+    private final byte[] nonce = new byte[NONCE_SIZE];
+
+    /* Смещения и размеры зашифрованных сегментов. */
+    private final long[] offsets;
+    private final int[] lengths;
+
+    /**
+     * Считывает заголовок и индекс файла и проверяет ключ.
+     *
+     * @param channel Файл с сегментами.
+     * @param key     Ключ, которым зашифрованы сегменты.
+     * @param context Задание, которое получает прогресс и отмену, направление - только расшифровка.
+     * @throws IOException Генерируется если файл не удалось прочитать, он имеет другой формат
+     *                     или зашифрован другим ключом.
+     */
+    public SegmentedFile(FileChannel channel, ExpandedKey key, CipherContext context) throws IOException {
+        if (context.getMode() != ModeOf.DECRYPTION)
+            throw new IllegalArgumentException("Segmented file can only be decrypted");
+
+        this.channel = channel;
+        this.key = key;
+        this.context = context;
+
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE + TRAILER_SIZE) throw new IOException("File is not segmented");
+
+        FileHeader header = FileHeader.read(channel);
+        if (header == null || header.getSegmentSize() == 0) throw new IOException("File is not segmented");
+        header.checkKey(key);
+        cipherMode = header.getCipherMode();
+        segmentSize = header.getSegmentSize();
+        readFully(channel, ByteBuffer.wrap(nonce), FileHeader.SIZE);
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, fileSize - TRAILER_SIZE);
+        size = trailer.getLong(0);
+        int count = trailer.getInt(8);
+        if (trailer.getInt(12) != MAGIC) throw new IOException("Index is missing");
+
+        long indexOffset = fileSize - TRAILER_SIZE - (long) count * ENTRY_SIZE;
+        if (count < 0 || indexOffset < HEADER_SIZE || size < 0
+                || getSegmentCount(size, segmentSize) != count) throw new IOException("Index is corrupted");
+
+        ByteBuffer index = ByteBuffer.allocate(count * ENTRY_SIZE);
+        readFully(channel, index, indexOffset);
+        offsets = new long[count];
+        lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = index.getLong(i * ENTRY_SIZE);
+            lengths[i] = index.getInt(i * ENTRY_SIZE + 8);
+            if (offsets[i] < HEADER_SIZE || lengths[i] < 0 || offsets[i] + lengths[i] > indexOffset)
+                throw new IOException("Index is corrupted");
+        }
+    }
+
+    /**
+     * Проверяет, начинается ли файл с заголовка с размером сегмента.
+     */
+    public static boolean isSegmented(FileChannel channel) throws IOException {
+        FileHeader header = FileHeader.read(channel);
+        return header != null && header.getSegmentSize() > 0;
+    }
+
+    /**
+     * Шифрует файл сегментами, сегменты шифруются параллельно и записываются на свои места,
+     * после чего записываются индекс и окончание.
+     *
+     * @param in          Исходный файл.
+     * @param out         Файл, в который записывается результат.
+     * @param cipherMode  Режим, в котором шифруется каждый сегмент.
+     * @param key         Ключ, которым шифруются сегменты.
+     * @param context     Задание, которое получает прогресс и отмену, направление - только шифрование.
+     * @param segmentSize Размер открытых данных в сегменте, кратный размеру блока.
+     * @return Размер зашифрованного файла.
+     * @throws IOException          Генерируется если файл не удалось прочитать или записать.
+     * @throws InterruptedException Генерируется если задание было отменено.
+     */
+    public static long encrypt(FileChannel in, FileChannel out, CipherMode cipherMode, ExpandedKey key,
+                               CipherContext context, int segmentSize) throws IOException, InterruptedException {
+        if (context.getMode() != ModeOf.ENCRYPTION)
+            throw new IllegalArgumentException("Context must be for encryption");
+        if (segmentSize <= 0 || segmentSize % AESConst.BLOCK_SIZE != 0)
+            throw new IllegalArgumentException("Segment size must be a positive multiple of the block size");
+        //в режиме XTS неполный блок заимствует у предыдущего блока сектора, поэтому сектор не делится
+        if (cipherMode == CipherMode.XTS && segmentSize % XTS.SECTOR_SIZE != 0)
+            throw new IllegalArgumentException("Segment size must be a multiple of the sector size in XTS mode");
+
+        long size = in.size();
+        int count = getSegmentCount(size, segmentSize);
+        int fullLength = newCipher(cipherMode, key, context, 0).getEncryptedSize(segmentSize);
+
+        byte[] nonce = new byte[NONCE_SIZE];
+        new SecureRandom().nextBytes(nonce);
+        new FileHeader(cipherMode, segmentSize, key).write(out);
+        writeFully(out, ByteBuffer.wrap(nonce), FileHeader.SIZE);
+
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        forEachSegment(count, context, i -> {
+            int length = (int) Math.min(segmentSize, size - (long) i * segmentSize);
+            BlockCipher cipher = newCipher(cipherMode, key, context, (long) i * segmentSize);
+            cipher.setIV(segmentIV(nonce, i, i == count - 1));
+            int ivSize = cipher.getIVSize();
+
+            ByteBuffer segment = ByteBuffer.allocate(cipher.getEncryptedSize(length));
+            ((Buffer) segment).position(ivSize).limit(ivSize + length);
+            readFully(in, segment, (long) i * segmentSize);
+            ((Buffer) segment).clear();
+
+            int end = cipher.update(segment, ivSize + length, true);
+            offsets[i] = HEADER_SIZE + (long) i * fullLength;
+            lengths[i] = end;
+
+            ((Buffer) segment).limit(end).position(0);
+            writeFully(out, segment, offsets[i]);
+        });
+
+        long indexOffset = offsets[count - 1] + lengths[count - 1];
+        ByteBuffer index = ByteBuffer.allocate(count * ENTRY_SIZE + TRAILER_SIZE);
+        for (int i = 0; i < count; i++) {
+            index.putLong(offsets[i]).putInt(lengths[i]);
+        }
+        index.putLong(size).putInt(count).putInt(MAGIC);
+        ((Buffer) index).flip();
+        writeFully(out, index, indexOffset);
+
+        return indexOffset + index.limit();
+    }
+
+    /**
+     * Расшифровывает все сегменты в файл {@code out}, сегменты расшифровываются параллельно.
+     *
+     * @return Размер открытых данных.
+     * @throws IOException          Генерируется если файл не удалось прочитать или записать или сегмент поврежден.
+     * @throws InterruptedException Генерируется если задание было отменено.
+     */
+    public long decrypt(FileChannel out) throws IOException, InterruptedException {
+        forEachSegment(offsets.length, context, i -> {
+            ByteBuffer segment = ByteBuffer.allocate(lengths[i]);
+            writeFully(out, read(i, segment), (long) i * segmentSize);
+        });
+        return size;
+    }
+
+    /**
+     * Считывает и расшифровывает сегмент с номером {@code index}. После вызова позиция и предел
+     * буфера {@code buffer} ограничивают открытые данные сегмента.
+     *
+     * @param index  Номер сегмента.
+     * @param buffer Буфер, размер которого не меньше {@link #getBufferSize()}.
+     * @return Буфер {@code buffer}.
+     * @throws IOException          Генерируется если сегмент не удалось прочитать или он поврежден.
+     * @throws InterruptedException Генерируется если задание было отменено.
+     */
+    public ByteBuffer read(int index, ByteBuffer buffer) throws IOException, InterruptedException {
+        ((Buffer) buffer).clear().limit(lengths[index]);
+        readFully(channel, buffer, offsets[index]);
+
+        BlockCipher cipher = newCipher(cipherMode, key, context, (long) index * segmentSize);
+
+        //IV должен соответствовать месту сегмента: номеру и признаку последнего сегмента
+        byte[] iv = segmentIV(nonce, index, index == offsets.length - 1);
+        for (int i = 0; i < Math.min(BINDING_SIZE, cipher.getIVSize()); i++) {
+            if (buffer.get(i) != iv[i]) throw new IOException("Segment " + index + " is out of place");
+        }
+
+        int end;
+        try {
+            end = cipher.update(buffer, lengths[index], true);
+        } catch (RuntimeException e) {
+            //неверный тег или дополнение
+            throw new IOException("Segment " + index + " is corrupted", e);
+        }
+
+        int expected = (int) Math.min(segmentSize, size - (long) index * segmentSize);
+        if (end - cipher.getIVSize() != expected) throw new IOException("Segment " + index + " is corrupted");
+
+        ((Buffer) buffer).limit(end).position(cipher.getIVSize());
+        return buffer;
+    }
+
+    /** Возвращает размер буфера, в который помещается любой зашифрованный сегмент. */
+    public int getBufferSize() {
+        int max = 0;
+        for (int length : lengths) {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    /** Возвращает режим, в котором зашифрованы сегменты. */
+    public CipherMode getCipherMode() {
+        return cipherMode;
+    }
+
+    /** Возвращает размер открытых данных в сегменте. */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /** Возвращает количество сегментов. */
+    public int getSegmentCount() {
+        return offsets.length;
+    }
+
+    /** Возвращает размер открытых данных. */
+    public long size() {
+        return size;
+    }
+
+    /* Возвращает количество сегментов для size байт открытых данных, хотя бы один сегмент. */
+    private static int getSegmentCount(long size, int segmentSize) {
+        return (int) Math.max(1, (size + segmentSize - 1) / segmentSize);
+    }
+
+    /*
+     * Вычисляет IV сегмента с номером index: случайное значение файла, номер сегмента и признак
+     * последнего сегмента, остальные байты - начальное значение счетчика, равное 0.
+     */
+    private static byte[] segmentIV(byte[] nonce, int index, boolean last) {
+        ByteBuffer iv = ByteBuffer.allocate(AESConst.BLOCK_SIZE);
+        iv.put(nonce).putInt(index).put((byte) (last ? 1 : 0));
+        return iv.array();
+    }
+
+    /*
+     * Создает шифр для сегмента, который начинается с позиции position открытых данных. У каждого
+     * сегмента свой IV, а в режиме XTS номера секторов отсчитываются от начала файла.
+     */
+    private static BlockCipher newCipher(CipherMode cipherMode, ExpandedKey key, CipherContext context, long position) {
+        BlockCipher cipher = BlockCipher.getCipher(cipherMode, key, context, Engine.getDefault());
+        if (cipher instanceof XTS) ((XTS) cipher).seek(position / AESConst.BLOCK_SIZE);
+        return cipher;
+    }
+
+    /*
+     * Обрабатывает сегменты с номерами от 0 до count на общем пуле. После первой ошибки
+     * остальные сегменты пропускаются, а ошибка передается вызывающему.
+     */
+    private static void forEachSegment(int count, CipherContext context, Segment segment)
+            throws IOException, InterruptedException {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        BlockCipher.invoke(new SegmentAction(0, count, segment, context, failure));
+
+        Exception e = failure.get();
+        if (e instanceof IOException) throw (IOException) e;
+        if (e instanceof InterruptedException || context.isCancelled()) throw new InterruptedException();
+        if (e != null) throw new IOException(e);
+    }
+
+    /* Считывает из канала данные до заполнения буфера, начиная с позиции at. */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, at);
+            if (n < 0) throw new EOFException("File is truncated");
+            at += n;
+        }
+    }
+
+    /* Записывает в канал все данные буфера, начиная с позиции at. */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+
+    /* Обработка одного сегмента. */
+    private interface Segment {
+        void process(int index) throws Exception;
+    }
+
+    // Задача, которая делит диапазон сегментов пополам, пока в нем не останется один сегмент.
+    private static class SegmentAction extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final Segment segment;
+        private final CipherContext context;
+        private final AtomicReference<Exception> failure;
+
+        private SegmentAction(int from, int to, Segment segment, CipherContext context,
+                              AtomicReference<Exception> failure) {
+            this.from = from;
+            this.to = to;
+            this.segment = segment;
+            this.context = context;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SegmentAction(from, middle, segment, context, failure),
+                        new SegmentAction(middle, to, segment, context, failure));
+            } else if (to > from && failure.get() == null && !context.isCancelled()) {
+                try {
+                    segment.process(from);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+}
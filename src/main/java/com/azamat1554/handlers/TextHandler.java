@@ -1,9 +1,11 @@
 package com.azamat1554.handlers;
 
 import com.azamat1554.cipher.AESConst;
+import com.azamat1554.cipher.CipherBlockAES;
 import com.azamat1554.cipher.ModeOf;
 import com.azamat1554.cipher.modes.BlockCipher;
 import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.cipher.modes.GCM;
 
 import java.nio.charset.Charset;
 import java.util.Base64;
@@ -33,14 +35,13 @@ public class TextHandler extends Thread {
         //хранит байтовое представление исходной строки
         byte[] src = text.getBytes(Charset.forName("utf-8"));
 
-        offset = cipherMode == CipherMode.ECB ? 0 : AESConst.BLOCK_SIZE;
-        bytesOfText = new byte[src.length + offset + getSizeOfPadding(src.length)];
+        offset = cipherMode == CipherMode.ECB || cipherMode == CipherMode.XTS ? 0 : AESConst.BLOCK_SIZE;
+        bytesOfText = new byte[src.length + offset + getSizeOfPadding(src.length, cipherMode)];
 
         System.arraycopy(src, 0, bytesOfText, offset, src.length);
 
-        BlockCipher.setMode(ModeOf.ENCRYPTION);
         try {
-            BlockCipher.getCipher(cipherMode).update(bytesOfText, src.length + offset, true);
+            BlockCipher.getCipher(cipherMode, CipherBlockAES.Key.getKey(), ModeOf.ENCRYPTION).update(bytesOfText, src.length + offset, true);
         } catch (InterruptedException e) {
             e.printStackTrace();
             return null;
@@ -65,28 +66,37 @@ public class TextHandler extends Thread {
         bytesOfText = Base64.getDecoder().decode(text.getBytes(Charset.forName("utf-8")));
 
         //если длина массива не кратна размеру блока, то это недействительная строка
-        if (bytesOfText.length % AESConst.BLOCK_SIZE != 0) throw new IllegalArgumentException();
-
-        BlockCipher.setMode(ModeOf.DECRYPTION);
+        boolean padded = cipherMode == CipherMode.ECB || cipherMode == CipherMode.CBC;
+        if (padded && bytesOfText.length % AESConst.BLOCK_SIZE != 0) throw new IllegalArgumentException();
 
         int end = 0;
         try {
-            end = BlockCipher.getCipher(cipherMode).update(bytesOfText, bytesOfText.length, true);
+            end = BlockCipher.getCipher(cipherMode, CipherBlockAES.Key.getKey(), ModeOf.DECRYPTION).update(bytesOfText, bytesOfText.length, true);
         } catch (InterruptedException e) {
             e.printStackTrace();
             return null;
         }
 
-        offset = cipherMode == CipherMode.ECB ? 0 : AESConst.BLOCK_SIZE;
+        offset = cipherMode == CipherMode.ECB || cipherMode == CipherMode.XTS ? 0 : AESConst.BLOCK_SIZE;
         return new String(bytesOfText, offset, end - offset, Charset.forName("utf-8"));
     }
 
     /**
-     * Возвращает количество байтов, необходимых для дополнения.
+     * Возвращает количество байтов, которые добавляются к данным при шифровании:
+     * дополнение, а в режиме GCM - тег. В режимах CTR и XTS размер не меняется.
      *
-     * @param length Длина массива, который нужно дополнить.
+     * @param length     Длина массива, который нужно дополнить.
+     * @param cipherMode Режим работы блочного шифра.
      */
-    private int getSizeOfPadding(int length) {
-        return AESConst.BLOCK_SIZE - length % AESConst.BLOCK_SIZE;
+    private int getSizeOfPadding(int length, CipherMode cipherMode) {
+        switch (cipherMode) {
+            case CTR:
+            case XTS:
+                return 0;
+            case GCM:
+                return GCM.TAG_SIZE;
+            default:
+                return AESConst.BLOCK_SIZE - length % AESConst.BLOCK_SIZE;
+        }
     }
 }
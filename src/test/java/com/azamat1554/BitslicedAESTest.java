@@ -0,0 +1,71 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.BitslicedAES;
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.ExpandedKey;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of BitslicedAES class
+ */
+public class BitslicedAESTest {
+    //plain (original) bytes
+    private byte[] bytesOfMsg = {
+            0x32, 0x43, (byte) 0xf6, (byte) 0xa8,
+            (byte) 0x88, 0x5a, 0x30, (byte) 0x8d,
+            0x31, 0x31, (byte) 0x98, (byte) 0xa2,
+            (byte) 0xe0, 0x37, 0x07, 0x34
+    };
+
+    private byte[] secretKey = {
+            0x2b, 0x7e, 0x15, 0x16,
+            0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88,
+            0x09, (byte) 0xcf, 0x4f, 0x3c
+    };
+
+    private byte[] cipherBytes = {
+            0x39, 0x25, (byte) 0x84, 0x1d,
+            0x02, (byte) 0xdc, (byte) 0x09, (byte) 0xfb,
+            (byte) 0xdc, 0x11, (byte) 0x85, (byte) 0x97,
+            0x19, 0x6a, 0x0b, 0x32
+    };
+
+    private ExpandedKey key = CipherBlockAES.expandKey(secretKey);
+
+    @Test
+    public void testEncryptBlock() throws Exception {
+        byte[] out = new byte[16];
+        BitslicedAES.encryptor(key).transformBlock(bytesOfMsg, 0, out, 0);
+        assertArrayEquals(cipherBytes, out);
+    }
+
+    @Test
+    public void testDecryptBlock() throws Exception {
+        byte[] out = new byte[16];
+        BitslicedAES.decryptor(key).transformBlock(cipherBytes, 0, out, 0);
+        assertArrayEquals(bytesOfMsg, out);
+    }
+
+    //сравнивает с табличной реализацией на неполных и полных проходах по 8 блоков
+    @Test
+    public void testSameAsTableEngine() throws Exception {
+        byte[] data = new byte[21 * 16];
+        new Random(1).nextBytes(data);
+
+        byte[] expected = data.clone();
+        CipherBlockAES.encryptor(key).transformBlocks(expected, 0, expected, 0, 21);
+
+        byte[] actual = data.clone();
+        BitslicedAES.encryptor(key).transformBlocks(actual, 0, actual, 0, 21);
+        assertArrayEquals(expected, actual);
+
+        BitslicedAES.decryptor(key).transformBlocks(actual, 0, actual, 0, 21);
+        assertTrue(Arrays.equals(data, actual));
+    }
+}
@@ -0,0 +1,111 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.cipher.modes.MultiCBC;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of block cipher modes on buffers which are not backed by an array
+ */
+public class BlockCipherTest {
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //данные, зашифрованные в массиве, расшифровываются в буфере вне кучи и наоборот
+    @Test
+    public void testDirectBuffer() throws Exception {
+        byte[] data = new byte[100_000 + 7];
+        new Random(3).nextBytes(data);
+
+        for (CipherMode cipherMode : CipherMode.values()) {
+            int offset = cipherMode == CipherMode.ECB ? 0 : 16;
+
+            byte[] encrypted = new byte[offset + data.length + 32];
+            System.arraycopy(data, 0, encrypted, offset, data.length);
+            int length = BlockCipher.getCipher(cipherMode, key, ModeOf.ENCRYPTION, Engine.TABLE)
+                    .update(encrypted, offset + data.length, true);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+            buffer.put(encrypted, 0, length);
+            int end = BlockCipher.getCipher(cipherMode, key, ModeOf.DECRYPTION, Engine.TABLE)
+                    .update(buffer, length, true);
+
+            byte[] decrypted = new byte[end - offset];
+            buffer.position(offset);
+            buffer.get(decrypted);
+            assertArrayEquals(cipherMode.name(), data, decrypted);
+
+            buffer = ByteBuffer.allocateDirect(offset + data.length + 32);
+            buffer.position(offset);
+            buffer.put(data);
+            end = BlockCipher.getCipher(cipherMode, key, ModeOf.ENCRYPTION, Engine.TABLE)
+                    .update(buffer, offset + data.length, true);
+
+            byte[] reencrypted = new byte[end];
+            buffer.position(0);
+            buffer.get(reencrypted);
+            int result = BlockCipher.getCipher(cipherMode, key, ModeOf.DECRYPTION, Engine.TABLE)
+                    .update(reencrypted, end, true);
+            assertArrayEquals(cipherMode.name(), data, Arrays.copyOfRange(reencrypted, offset, result));
+        }
+    }
+
+    //при расшифровке другим ключом дополнение не находится, и это не выход за начало блока
+    @Test
+    public void testWrongKeyPadding() throws Exception {
+        for (CipherMode cipherMode : new CipherMode[]{CipherMode.ECB, CipherMode.CBC}) {
+            int offset = cipherMode == CipherMode.ECB ? 0 : 16;
+            byte[] data = new byte[offset + 1000 + 16];
+            int end = BlockCipher.getCipher(cipherMode, key, ModeOf.ENCRYPTION, Engine.TABLE).update(data, offset + 1000, true);
+
+            ExpandedKey other = CipherBlockAES.expandKey(new byte[16]);
+            try {
+                BlockCipher.getCipher(cipherMode, other, ModeOf.DECRYPTION, Engine.TABLE).update(data, end, true);
+                fail(cipherMode + ": padding was found");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("Padding is corrupted"));
+            }
+        }
+    }
+
+    //сообщения разной длины, зашифрованные вместе, расшифровываются обычным режимом CBC
+    @Test
+    public void testMultiCBC() throws Exception {
+        Random random = new Random(4);
+        for (Engine engine : new Engine[]{Engine.TABLE, Engine.BITSLICED}) {
+            byte[][] data = new byte[150][];
+            byte[][] messages = new byte[data.length][];
+            int[] ends = new int[data.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = new byte[random.nextInt(2000)];
+                random.nextBytes(data[i]);
+                messages[i] = new byte[16 + data[i].length + 16];
+                System.arraycopy(data[i], 0, messages[i], 16, data[i].length);
+                ends[i] = 16 + data[i].length;
+            }
+
+            CipherContext context = new CipherContext(ModeOf.ENCRYPTION);
+            int[] results = new MultiCBC(key, context, engine).encrypt(messages, ends);
+
+            for (int i = 0; i < data.length; i++) {
+                int end = BlockCipher.getCipher(CipherMode.CBC, key, ModeOf.DECRYPTION, Engine.TABLE)
+                        .update(messages[i], results[i], true);
+                assertArrayEquals(engine + " " + i, data[i], Arrays.copyOfRange(messages[i], 16, end));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of CBC mode against the JCE implementation
+ */
+public class CBCTest {
+    private byte[] secretKey = {
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    };
+
+    private ExpandedKey key = CipherBlockAES.expandKey(secretKey);
+
+    //шифротекст JCE больше 8192 блоков расшифровывается несколькими частями параллельно
+    @Test
+    public void testDecryptPartitions() throws Exception {
+        Random random = new Random(23);
+        byte[] iv = new byte[16];
+        random.nextBytes(iv);
+        for (int length : new int[]{(1 << 20) + 5, (2 << 20) + 16}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] padded = pad(data);
+
+            Cipher jce = Cipher.getInstance("AES/CBC/NoPadding");
+            jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secretKey, "AES"), new IvParameterSpec(iv));
+            byte[] encrypted = new byte[16 + padded.length];
+            System.arraycopy(iv, 0, encrypted, 0, 16);
+            jce.doFinal(padded, 0, padded.length, encrypted, 16);
+
+            for (Engine engine : new Engine[]{Engine.TABLE, Engine.BITSLICED}) {
+                byte[] buffer = encrypted.clone();
+                int end = BlockCipher.getCipher(CipherMode.CBC, key, ModeOf.DECRYPTION, engine)
+                        .update(buffer, buffer.length, true);
+                assertArrayEquals(engine + " " + length, data, Arrays.copyOfRange(buffer, 16, end));
+            }
+
+            //два куска в буфере вне кучи: IV второго куска - последний блок первого
+            ByteBuffer direct = ByteBuffer.allocateDirect(encrypted.length);
+            direct.put(encrypted);
+            BlockCipher cipher = BlockCipher.getCipher(CipherMode.CBC, key, ModeOf.DECRYPTION, Engine.TABLE);
+            int half = 16 + (encrypted.length - 16) / 32 * 16;
+            ByteBuffer first = slice(direct, 0, half);
+            ByteBuffer second = slice(direct, half, encrypted.length - half);
+            assertEquals(half, cipher.update(first, half, false));
+            int end = cipher.update(second, encrypted.length - half, true);
+
+            byte[] decrypted = new byte[half - 16 + end];
+            direct.position(16);
+            direct.get(decrypted);
+            assertArrayEquals(String.valueOf(length), data, decrypted);
+        }
+    }
+
+    //шифротекст совпадает с JCE, дополнение - байт 0x80 и нули
+    @Test
+    public void testEncrypt() throws Exception {
+        byte[] data = new byte[(1 << 20) + 5];
+        new Random(24).nextBytes(data);
+
+        byte[] buffer = new byte[16 + data.length + 16];
+        System.arraycopy(data, 0, buffer, 16, data.length);
+        int end = BlockCipher.getCipher(CipherMode.CBC, key, ModeOf.ENCRYPTION, Engine.TABLE)
+                .update(buffer, 16 + data.length, true);
+
+        Cipher jce = Cipher.getInstance("AES/CBC/NoPadding");
+        jce.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secretKey, "AES"),
+                new IvParameterSpec(Arrays.copyOf(buffer, 16)));
+        assertArrayEquals(pad(data), jce.doFinal(buffer, 16, end - 16));
+    }
+
+    /* Дополняет данные до целого числа блоков так же, как режим CBC. */
+    private static byte[] pad(byte[] data) {
+        byte[] padded = Arrays.copyOf(data, (data.length / 16 + 1) * 16);
+        padded[data.length] = (byte) 0x80;
+        return padded;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+}
@@ -1,11 +1,10 @@
 package com.azamat1554;
 
 import com.azamat1554.cipher.CipherBlockAES;
-import com.azamat1554.cipher.ModeOf;
-import com.azamat1554.cipher.modes.BlockCipher;
-import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.*;
 
 /**
@@ -35,22 +34,41 @@ public class CipherBlockAESTest {
     };
 
     //instance of class is implemented AES encryption
-    private CipherBlockAES cbAES = new CipherBlockAES();
-
-    @Before
-    public void setKey() {
-        CipherBlockAES.Key.setKey(secretKey);
-    }
+    private CipherBlockAES cbAES = new CipherBlockAES(CipherBlockAES.expandKey(secretKey));
 
     @Test
     public void testEncryptBlock() throws Exception {
-        BlockCipher.setMode(ModeOf.ENCRYPTION);
         assertArrayEquals(cipherBytes, cbAES.encryptBlock(bytesOfMsg));
     }
 
     @Test
     public void testDecryptBlock() throws Exception {
-        BlockCipher.setMode(ModeOf.DECRYPTION);
         assertArrayEquals(bytesOfMsg, cbAES.decryptBlock(cipherBytes));
     }
+
+    @Test
+    public void testEncryptBlockInPlace() throws Exception {
+        byte[] data = new byte[bytesOfMsg.length + 3];
+        System.arraycopy(bytesOfMsg, 0, data, 3, bytesOfMsg.length);
+
+        cbAES.encryptBlock(data, 3, data, 3);
+        assertArrayEquals(cipherBytes, Arrays.copyOfRange(data, 3, data.length));
+
+        cbAES.decryptBlock(data, 3, data, 3);
+        assertArrayEquals(bytesOfMsg, Arrays.copyOfRange(data, 3, data.length));
+    }
+
+    @Test
+    public void testIndependentKeys() throws Exception {
+        byte[] otherKey = Arrays.copyOf(secretKey, secretKey.length);
+        otherKey[0] ^= 1;
+        CipherBlockAES other = new CipherBlockAES(CipherBlockAES.expandKey(otherKey));
+
+        byte[] otherCipherBytes = other.encryptBlock(bytesOfMsg);
+        assertFalse(Arrays.equals(cipherBytes, otherCipherBytes));
+
+        // ключ первого объекта не изменился
+        assertArrayEquals(cipherBytes, cbAES.encryptBlock(bytesOfMsg));
+        assertArrayEquals(bytesOfMsg, other.decryptBlock(otherCipherBytes));
+    }
 }
\ No newline at end of file
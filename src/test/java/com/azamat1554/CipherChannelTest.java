@@ -0,0 +1,111 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.handlers.CipherReadableChannel;
+import com.azamat1554.handlers.CipherSeekableChannel;
+import com.azamat1554.handlers.CipherWritableChannel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of cipher channels
+ */
+public class CipherChannelTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //запись частями из нескольких буферов, в том числе вне кучи, и чтение в несколько буферов
+    @Test
+    public void testGatherScatter() throws Exception {
+        byte[] data = new byte[10_007];
+        new Random(8).nextBytes(data);
+
+        for (CipherMode cipherMode : CipherMode.values()) {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            try (WritableByteChannel out = new CipherWritableChannel(Channels.newChannel(encrypted),
+                    BlockCipher.getCipher(cipherMode, key, ModeOf.ENCRYPTION, Engine.TABLE), 256)) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(3000);
+                direct.put(data, 1000, 3000).flip();
+                ((CipherWritableChannel) out).write(new ByteBuffer[]{ByteBuffer.wrap(data, 0, 1000), direct});
+                out.write(ByteBuffer.wrap(data, 4000, data.length - 4000));
+            }
+
+            ReadableByteChannel in = new CipherReadableChannel(Channels.newChannel(new ByteArrayInputStream(encrypted.toByteArray())),
+                    BlockCipher.getCipher(cipherMode, key, ModeOf.DECRYPTION, Engine.TABLE), 256);
+            ByteBuffer first = ByteBuffer.allocateDirect(5000);
+            ByteBuffer second = ByteBuffer.allocate(data.length);
+            while (((CipherReadableChannel) in).read(new ByteBuffer[]{first, second}) >= 0) ;
+
+            byte[] decrypted = new byte[first.position() + second.position()];
+            first.flip();
+            first.get(decrypted, 0, first.remaining());
+            System.arraycopy(second.array(), 0, decrypted, 5000, second.position());
+            assertArrayEquals(cipherMode.name(), data, decrypted);
+        }
+    }
+
+    //произвольное чтение расшифровывает только нужные блоки
+    @Test
+    public void testSeekable() throws Exception {
+        byte[] data = new byte[100_003];
+        new Random(9).nextBytes(data);
+
+        for (CipherMode cipherMode : new CipherMode[]{CipherMode.ECB, CipherMode.CTR}) {
+            File file = folder.newFile();
+            int offset = cipherMode == CipherMode.ECB ? 0 : 16;
+            byte[] encrypted = new byte[offset + data.length + 16];
+            System.arraycopy(data, 0, encrypted, offset, data.length);
+            int end = BlockCipher.getCipher(cipherMode, key, ModeOf.ENCRYPTION).update(encrypted, offset + data.length, true);
+            Files.write(file.toPath(), Arrays.copyOf(encrypted, end));
+
+            try (SeekableByteChannel channel = new CipherSeekableChannel(FileChannel.open(file.toPath()), cipherMode, key)) {
+                assertEquals(data.length, channel.size());
+
+                Random random = new Random(10);
+                for (int i = 0; i < 200; i++) {
+                    int from = random.nextInt(data.length);
+                    if (i % 4 == 0) from = from / 16 * 16;
+                    int length = Math.min(random.nextInt(3000), data.length - from);
+
+                    ByteBuffer dst = i % 2 == 0 ? ByteBuffer.allocate(length) : ByteBuffer.allocateDirect(length);
+                    channel.position(from);
+                    while (dst.hasRemaining() && channel.read(dst) > 0) ;
+
+                    byte[] actual = new byte[length];
+                    dst.flip();
+                    dst.get(actual);
+                    assertArrayEquals(cipherMode + " " + from, Arrays.copyOfRange(data, from, from + length), actual);
+                }
+
+                channel.position(data.length);
+                assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+            }
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package com.azamat1554;
 
+import com.azamat1554.cipher.BlockTransformer;
 import com.azamat1554.cipher.CipherBlockAES;
 import com.azamat1554.cipher.CipherChunk;
+import com.azamat1554.cipher.ExpandedKey;
 import com.azamat1554.cipher.ModeOf;
-import com.azamat1554.cipher.modes.BlockCipher;
-import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
@@ -39,30 +39,32 @@ public class CipherChunkTest {
             (byte) 0x83, (byte) 0xcb, 0x5b, (byte) 0x8d, 0x15, 0x68, (byte) 0xe6, 0x06
     };
 
-    //instance of class is implemented AES encryption in ECB mode
-    private CipherChunk cAES = new CipherChunk() {
-        @Override
-        public int makeTransform() throws InterruptedException {
-            int end = 0;
-            if (BlockCipher.getMode() == ModeOf.ENCRYPTION) {
-                while (hasNextBlock())
-                    end = writeTransformedBlock(cbAES.encryptBlock(nextBlock()));
-            } else {
-                while (hasNextBlock())
-                    end = writeTransformedBlock(cbAES.decryptBlock(nextBlock()));
-            }
-            return end;
-        }
-    };
+    private ExpandedKey key = CipherBlockAES.expandKey(secretKey);
 
-    @Before
-    public void init() {
-        CipherBlockAES.Key.setKey(secretKey);
+    //returns instance of class is implemented AES encryption in ECB mode
+    private CipherChunk getCipherChunk(ModeOf mode) {
+        BlockTransformer transformer = mode == ModeOf.ENCRYPTION
+                ? CipherBlockAES.encryptor(key)
+                : CipherBlockAES.decryptor(key);
+
+        return new CipherChunk(transformer, mode) {
+            @Override
+            public int makeTransform() throws InterruptedException {
+                byte[] data = getData();
+                int end = 0;
+                while (hasNextBlock()) {
+                    int position = nextBlock();
+                    transformer.transformBlock(data, position, data, position);
+                    end = blockTransformed();
+                }
+                return end;
+            }
+        };
     }
 
     @Test
     public void testEncrypt() throws Exception {
-        BlockCipher.setMode(ModeOf.ENCRYPTION);
+        CipherChunk cAES = getCipherChunk(ModeOf.ENCRYPTION);
         cAES.init(bytesOfMsg, 0, bytesOfMsg.length - 16, true);
 
         cAES.makeTransform();
@@ -73,7 +75,7 @@ public class CipherChunkTest {
 
     @Test
     public void testDecrypt() throws Exception {
-        BlockCipher.setMode(ModeOf.DECRYPTION);
+        CipherChunk cAES = getCipherChunk(ModeOf.DECRYPTION);
         cAES.init(cipherBytes, 0, cipherBytes.length, true);
 
         int lastByte = cAES.makeTransform();
@@ -0,0 +1,69 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of independent cipher jobs
+ */
+public class CipherContextTest {
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //одновременные задания не должны влиять друг на друга
+    @Test
+    public void testConcurrentJobs() throws Exception {
+        byte[] data = new byte[1 << 20];
+        new Random(11).nextBytes(data);
+
+        byte[] expected = Arrays.copyOf(data, data.length + 16);
+        BlockCipher.getCipher(CipherMode.ECB, key, ModeOf.ENCRYPTION, Engine.TABLE).update(expected, data.length, true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<byte[]> job = () -> {
+                byte[] actual = Arrays.copyOf(data, data.length + 16);
+                CipherContext context = new CipherContext(ModeOf.ENCRYPTION);
+                BlockCipher.getCipher(CipherMode.ECB, key, context, Engine.TABLE).update(actual, data.length, true);
+
+                assertEquals(actual.length, context.getProgress());
+                return actual;
+            };
+
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(job);
+            }
+            for (Future<?> future : futures) {
+                assertArrayEquals(expected, (byte[]) future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void testCancel() throws Exception {
+        CipherContext context = new CipherContext(ModeOf.ENCRYPTION);
+        context.cancel();
+
+        BlockCipher.getCipher(CipherMode.CTR, key, context, Engine.TABLE).update(new byte[4096], 4096, true);
+    }
+}
@@ -0,0 +1,104 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.handlers.CipherInputStream;
+import com.azamat1554.handlers.CipherOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of cipher streams
+ */
+public class CipherStreamTest {
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //размеры данных вокруг границ блока и куска
+    private int[] lengths = {0, 1, 15, 16, 17, 63, 64, 65, 80, 1000};
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(5);
+        for (CipherMode cipherMode : CipherMode.values()) {
+            for (int length : lengths) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+
+                //запись по одному байту, чтение из потока, который отдает данные по одному байту
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                try (OutputStream out = new CipherOutputStream(encrypted, cipher(cipherMode, ModeOf.ENCRYPTION), 64)) {
+                    for (byte b : data) out.write(b);
+                }
+
+                InputStream slow = new FilterInputStream(new ByteArrayInputStream(encrypted.toByteArray())) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return super.read(b, off, Math.min(len, 1));
+                    }
+                };
+                try (InputStream in = new CipherInputStream(slow, cipher(cipherMode, ModeOf.DECRYPTION), 64)) {
+                    assertArrayEquals(cipherMode + " " + length, data, readAll(in));
+                }
+            }
+        }
+    }
+
+    //поток совместим с преобразованием массива целиком
+    @Test
+    public void testCompatibleWithArray() throws Exception {
+        byte[] data = new byte[100_003];
+        new Random(6).nextBytes(data);
+
+        for (CipherMode cipherMode : CipherMode.values()) {
+            InputStream in = new CipherInputStream(new ByteArrayInputStream(data), cipher(cipherMode, ModeOf.ENCRYPTION), 4096);
+            byte[] encrypted = readAll(in);
+
+            BlockCipher cipher = cipher(cipherMode, ModeOf.DECRYPTION);
+            int end = cipher.update(encrypted, encrypted.length, true);
+            assertArrayEquals(cipherMode.name(), data, Arrays.copyOfRange(encrypted, cipher.getIVSize(), end));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTamper() throws Exception {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream out = new CipherOutputStream(encrypted, cipher(CipherMode.GCM, ModeOf.ENCRYPTION))) {
+            out.write(new byte[1000]);
+        }
+
+        byte[] bytes = encrypted.toByteArray();
+        bytes[500] ^= 1;
+        readAll(new CipherInputStream(new ByteArrayInputStream(bytes), cipher(CipherMode.GCM, ModeOf.DECRYPTION)));
+    }
+
+    private BlockCipher cipher(CipherMode cipherMode, ModeOf mode) {
+        return BlockCipher.getCipher(cipherMode, key, mode, Engine.TABLE);
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,100 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.AESEngine;
+import com.azamat1554.cipher.BlockTransformer;
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.ServiceLoader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of the AES engines
+ */
+public class EngineTest {
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //все доступные реализации должны давать тот же результат, что и эталонная
+    @Test
+    public void testSameAsReference() throws Exception {
+        byte[] data = new byte[37 * 16];
+        new Random(7).nextBytes(data);
+
+        byte[] expected = data.clone();
+        Engine.TABLE.encryptor(key).transformBlocks(expected, 0, expected, 0, 37);
+
+        List<AESEngine> engines = new ArrayList<>(Arrays.asList(Engine.values()));
+        for (AESEngine engine : ServiceLoader.load(AESEngine.class)) {
+            engines.add(engine);
+        }
+
+        for (AESEngine engine : engines) {
+            if (!engine.isAvailable()) continue;
+
+            byte[] actual = data.clone();
+            BlockTransformer encryptor = engine.encryptor(key);
+            encryptor.transformBlock(actual, 0, actual, 0);
+            encryptor.transformBlocks(actual, 16, actual, 16, 36);
+            assertArrayEquals(engine.getName(), expected, actual);
+
+            engine.decryptor(key).transformBlocks(actual, 0, actual, 0, 37);
+            assertArrayEquals(engine.getName(), data, actual);
+        }
+    }
+
+    //блоки буфера вне кучи и части массива со смещением преобразуются на месте так же, как блоки массива
+    @Test
+    public void testBuffers() throws Exception {
+        byte[] data = new byte[150 * 16];
+        new Random(8).nextBytes(data);
+
+        byte[] expected = data.clone();
+        Engine.TABLE.encryptor(key).transformBlocks(expected, 0, expected, 0, 150);
+
+        List<AESEngine> engines = new ArrayList<>(Arrays.asList(Engine.values()));
+        for (AESEngine engine : ServiceLoader.load(AESEngine.class)) {
+            engines.add(engine);
+        }
+
+        for (AESEngine engine : engines) {
+            if (!engine.isAvailable()) continue;
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 32);
+            ((Buffer) direct).position(16);
+            direct.put(data);
+            engine.encryptor(key).transformBlocks(direct, 16, 150);
+            byte[] actual = new byte[data.length];
+            ((Buffer) direct).position(16);
+            direct.get(actual);
+            assertArrayEquals(engine.getName(), expected, actual);
+
+            byte[] array = new byte[data.length + 32];
+            System.arraycopy(expected, 0, array, 16, expected.length);
+            ByteBuffer slice = ByteBuffer.wrap(array, 16, data.length).slice();
+            engine.decryptor(key).transformBlocks(slice, 0, 150);
+            assertArrayEquals(engine.getName(), data, Arrays.copyOfRange(array, 16, 16 + data.length));
+        }
+    }
+
+    @Test
+    public void testForName() throws Exception {
+        assertSame(Engine.BITSLICED, Engine.forName("bitsliced"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownEngine() throws Exception {
+        Engine.forName("unknown");
+    }
+}
@@ -0,0 +1,67 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.handlers.FileHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of file handler
+ */
+public class FileHandlerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //несколько файлов обрабатываются одновременно в маленьком бюджете памяти, файл больше бюджета
+    //получает его целиком
+    @Test
+    public void testMemoryBudget() throws Exception {
+        CipherBlockAES.Key.setKey(new byte[]{
+                0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+                (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+        });
+
+        Random random = new Random(21);
+        List<File> files = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            byte[] data = new byte[i == 3 ? 200_000 : 10_000 + random.nextInt(10_000)];
+            random.nextBytes(data);
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+            files.add(file);
+            contents.add(data);
+        }
+        int[] indexes = {0, 1, 2, 3, 4, 5, 6, 7};
+
+        FileHandler handler = new FileHandler(null);
+        handler.setParallelFiles(4);
+        handler.setMemoryBudget(64 << 10);
+        for (boolean inPlace : new boolean[]{false, true}) {
+            handler.setInPlace(inPlace);
+            for (CipherMode cipherMode : CipherMode.values()) {
+                assertTrue(handler.init(files, indexes, cipherMode, ModeOf.ENCRYPTION));
+                handler.run();
+                for (File file : files) assertTrue(file.getName().endsWith(".encrypted"));
+
+                assertTrue(handler.init(files, indexes, cipherMode, ModeOf.DECRYPTION));
+                handler.run();
+                for (int i = 0; i < files.size(); i++) {
+                    assertArrayEquals(cipherMode + " " + inPlace + " " + i, contents.get(i),
+                            Files.readAllBytes(files.get(i).toPath()));
+                }
+            }
+        }
+    }
+}
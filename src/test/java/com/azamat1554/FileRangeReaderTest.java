@@ -0,0 +1,103 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.handlers.FileHeader;
+import com.azamat1554.handlers.FileRangeReader;
+import com.azamat1554.handlers.SegmentedFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of reading byte ranges of encrypted files
+ */
+public class FileRangeReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    private byte[] data = new byte[200_003];
+
+    //диапазоны читаются из файлов с заголовком, без него и из файлов из сегментов
+    @Test
+    public void testRanges() throws Exception {
+        new Random(13).nextBytes(data);
+
+        for (CipherMode cipherMode : new CipherMode[]{CipherMode.ECB, CipherMode.CTR, CipherMode.XTS}) {
+            check(encrypt(cipherMode, true), cipherMode);
+            check(encrypt(cipherMode, false), cipherMode);
+        }
+        for (CipherMode cipherMode : CipherMode.values()) {
+            check(encryptSegmented(cipherMode), cipherMode);
+        }
+    }
+
+    //файл одной цепочкой в режиме CBC нельзя читать с произвольного места
+    @Test(expected = IOException.class)
+    public void testChainedCBC() throws Exception {
+        new FileRangeReader(encrypt(CipherMode.CBC, true), CipherMode.CBC, key).close();
+    }
+
+    private void check(File file, CipherMode cipherMode) throws Exception {
+        try (FileRangeReader reader = new FileRangeReader(file, cipherMode, key)) {
+            assertEquals(data.length, reader.size());
+
+            Random random = new Random(14);
+            for (int i = 0; i < 100; i++) {
+                int from = random.nextInt(data.length);
+                int length = Math.min(random.nextInt(20_000), data.length - from);
+                assertArrayEquals(cipherMode + " " + from, Arrays.copyOfRange(data, from, from + length),
+                        reader.read(from, length));
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, data.length - 5, data.length), reader.read(data.length - 5, 5));
+        }
+    }
+
+    //файл в формате FileHandler: заголовок, IV, данные
+    private File encrypt(CipherMode cipherMode, boolean header) throws Exception {
+        BlockCipher cipher = BlockCipher.getCipher(cipherMode, key, ModeOf.ENCRYPTION);
+        int offset = cipher.getIVSize();
+        byte[] encrypted = new byte[cipher.getEncryptedSize(data.length)];
+        System.arraycopy(data, 0, encrypted, offset, data.length);
+        int end = cipher.update(encrypted, offset + data.length, true);
+
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            if (header) out.write(new FileHeader(cipherMode, 0, key).toBytes());
+            out.write(encrypted, 0, end);
+        }
+        return file;
+    }
+
+    private File encryptSegmented(CipherMode cipherMode) throws Exception {
+        File plain = folder.newFile();
+        File file = folder.newFile();
+        Files.write(plain.toPath(), data);
+
+        try (FileChannel in = FileChannel.open(plain.toPath());
+             FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            SegmentedFile.encrypt(in, out, cipherMode, key, new CipherContext(ModeOf.ENCRYPTION), 8192);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,117 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.cipher.modes.ECB;
+import com.azamat1554.cipher.modes.GCM;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of GCM mode against the JCE implementation
+ */
+public class GCMTest {
+    private byte[] secretKey = {
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    };
+
+    private ExpandedKey key = CipherBlockAES.expandKey(secretKey);
+
+    private byte[] nonce = {
+            (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe, (byte) 0xfa, (byte) 0xce,
+            (byte) 0xdb, (byte) 0xad, (byte) 0xde, (byte) 0xca, (byte) 0xf8, (byte) 0x88
+    };
+
+    //шифротекст и тег совпадают с AES/GCM/NoPadding, а шифротекст JCE расшифровывается
+    @Test
+    public void testJce() throws Exception {
+        Random random = new Random(22);
+        for (int length : new int[]{0, 1, 15, 16, 17, 1000, 100_003}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            Cipher jce = Cipher.getInstance("AES/GCM/NoPadding");
+            jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secretKey, "AES"), new GCMParameterSpec(128, nonce));
+            byte[] expected = jce.doFinal(data);
+
+            for (Engine engine : new Engine[]{Engine.TABLE, Engine.BITSLICED}) {
+                byte[] buffer = new byte[16 + length + GCM.TAG_SIZE];
+                System.arraycopy(data, 0, buffer, 16, length);
+                BlockCipher cipher = BlockCipher.getCipher(CipherMode.GCM, key, ModeOf.ENCRYPTION, engine);
+                cipher.setIV(Arrays.copyOf(nonce, 16));
+                int end = cipher.update(buffer, 16 + length, true);
+                assertArrayEquals(engine + " " + length, expected, Arrays.copyOfRange(buffer, 16, end));
+
+                System.arraycopy(expected, 0, buffer, 16, expected.length);
+                end = BlockCipher.getCipher(CipherMode.GCM, key, ModeOf.DECRYPTION, engine)
+                        .update(buffer, 16 + expected.length, true);
+                assertArrayEquals(engine + " " + length, data, Arrays.copyOfRange(buffer, 16, end));
+            }
+        }
+    }
+
+    //начальное значение счетчика не входит в тег, поэтому любое изменение IV отвергается
+    @Test
+    public void testTamperedIV() throws Exception {
+        byte[] data = new byte[1000];
+        new Random(25).nextBytes(data);
+        byte[] buffer = new byte[16 + data.length + GCM.TAG_SIZE];
+        System.arraycopy(data, 0, buffer, 16, data.length);
+        int end = BlockCipher.getCipher(CipherMode.GCM, key, ModeOf.ENCRYPTION, Engine.TABLE)
+                .update(buffer, 16 + data.length, true);
+
+        //nonce проверяется тегом, а счетчик - до расшифровки
+        for (int i = 0; i < 16; i++) {
+            byte[] tampered = buffer.clone();
+            tampered[i] ^= 1;
+            try {
+                BlockCipher.getCipher(CipherMode.GCM, key, ModeOf.DECRYPTION, Engine.TABLE).update(tampered, end, true);
+                fail("IV byte " + i + " was accepted");
+            } catch (IllegalArgumentException e) {
+                assertEquals(i < 12 ? "Authentication tag mismatch" : "Counter of the IV is corrupted", e.getMessage());
+            }
+        }
+    }
+
+    //с одним IV шифруется не больше 2^32 - 2 блоков
+    @Test
+    public void testMaxBlocks() throws Exception {
+        BlockCipher cipher = BlockCipher.getCipher(CipherMode.GCM, key, ModeOf.ENCRYPTION, Engine.TABLE);
+        cipher.setIV(Arrays.copyOf(nonce, 16));
+        byte[] iv = new byte[16];
+        cipher.update(iv, iv.length, false);
+
+        //последний допустимый блок шифруется значением счетчика 2^32 - 1
+        ((ECB) cipher).seek(GCM.MAX_BLOCKS - 1);
+        byte[] block = new byte[16];
+        cipher.update(block, block.length, false);
+        byte[] counter = Arrays.copyOf(nonce, 16);
+        counter[12] = counter[13] = counter[14] = counter[15] = (byte) 0xff;
+        assertArrayEquals(ecb(counter), block);
+
+        try {
+            cipher.update(new byte[16], 16, true);
+            fail("Block after the counter limit was encrypted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Data is too long for one IV", e.getMessage());
+        }
+    }
+
+    private byte[] ecb(byte[] data) throws Exception {
+        Cipher jce = Cipher.getInstance("AES/ECB/NoPadding");
+        jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secretKey, "AES"));
+        return jce.doFinal(data);
+    }
+}
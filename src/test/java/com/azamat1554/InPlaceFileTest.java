@@ -0,0 +1,172 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.handlers.FileHeader;
+import com.azamat1554.handlers.FileRangeReader;
+import com.azamat1554.handlers.InPlaceFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of in-place encryption
+ */
+public class InPlaceFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //файл шифруется и расшифровывается на месте, к данным добавляются только IV и заголовок
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (CipherMode cipherMode : new CipherMode[]{CipherMode.CTR, CipherMode.XTS}) {
+            for (int length : new int[]{0, 1, 4099, InPlaceFile.REGION + 1001}) {
+                roundTrip(cipherMode, length);
+            }
+        }
+    }
+
+    private void roundTrip(CipherMode cipherMode, int length) throws Exception {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+
+        run(file, cipherMode, ModeOf.ENCRYPTION);
+        assertEquals(length + 16 + FileHeader.SIZE, file.length());
+        assertFalse(InPlaceFile.getJournal(file).exists());
+
+        try (FileRangeReader reader = new FileRangeReader(file, cipherMode, key)) {
+            assertEquals(length, reader.size());
+            if (length > 0) {
+                assertArrayEquals(Arrays.copyOfRange(data, length / 2, length),
+                        reader.read(length / 2, length - length / 2));
+            }
+        }
+
+        run(file, cipherMode, ModeOf.DECRYPTION);
+        assertArrayEquals(cipherMode + " " + length, data, Files.readAllBytes(file.toPath()));
+    }
+
+    //прерванное шифрование продолжается по журналу, даже если область была записана частично
+    @Test
+    public void testResume() throws Exception {
+        resume(CipherMode.CTR);
+        resume(CipherMode.XTS);
+    }
+
+    private void resume(CipherMode cipherMode) throws Exception {
+        byte[] data = new byte[InPlaceFile.REGION + 1001];
+        new Random(15).nextBytes(data);
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+
+        //отмена после записи первой области в журнал, данные еще не изменены
+        CipherContext cancelled = new CipherContext(ModeOf.ENCRYPTION);
+        cancelled.cancel();
+        try {
+            new InPlaceFile(file, cipherMode, key, cancelled).run();
+            fail("Cancelled encryption was finished");
+        } catch (InterruptedException e) {
+            assertTrue(InPlaceFile.getJournal(file).exists());
+        }
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+
+        //копия с тем же журналом, в которой часть секторов первой области уже записана
+        File torn = folder.newFile();
+        Files.copy(file.toPath(), torn.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(InPlaceFile.getJournal(file).toPath(), InPlaceFile.getJournal(torn).toPath());
+
+        run(file, cipherMode, ModeOf.ENCRYPTION);
+        byte[] encrypted = Files.readAllBytes(file.toPath());
+        try (RandomAccessFile out = new RandomAccessFile(torn, "rw")) {
+            out.write(encrypted, 0, 10 * InPlaceFile.SECTOR);
+            out.seek(30 * InPlaceFile.SECTOR);
+            out.write(encrypted, 30 * InPlaceFile.SECTOR, InPlaceFile.SECTOR);
+        }
+
+        run(torn, cipherMode, ModeOf.ENCRYPTION);
+        assertArrayEquals(encrypted, Files.readAllBytes(torn.toPath()));
+
+        run(torn, cipherMode, ModeOf.DECRYPTION);
+        assertArrayEquals(data, Files.readAllBytes(torn.toPath()));
+    }
+
+    //сектор, который не совпадает ни с исходным, ни с преобразованным, не переписывается
+    @Test
+    public void testCorruptedSector() throws Exception {
+        for (CipherMode cipherMode : new CipherMode[]{CipherMode.CTR, CipherMode.XTS}) {
+            byte[] data = new byte[InPlaceFile.REGION + 1001];
+            new Random(26).nextBytes(data);
+            File file = folder.newFile();
+            Files.write(file.toPath(), data);
+
+            CipherContext cancelled = new CipherContext(ModeOf.ENCRYPTION);
+            cancelled.cancel();
+            try {
+                new InPlaceFile(file, cipherMode, key, cancelled).run();
+                fail("Cancelled encryption was finished");
+            } catch (InterruptedException e) {
+                assertTrue(InPlaceFile.getJournal(file).exists());
+            }
+
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.seek(7 * InPlaceFile.SECTOR + 3);
+                out.write(data[7 * InPlaceFile.SECTOR + 3] ^ 1);
+            }
+            byte[] corrupted = Files.readAllBytes(file.toPath());
+
+            try {
+                run(file, cipherMode, ModeOf.ENCRYPTION);
+                fail(cipherMode + ": corrupted sector was accepted");
+            } catch (IOException e) {
+                assertEquals("Sector at " + 7 * InPlaceFile.SECTOR + " is corrupted", e.getMessage());
+            }
+            assertArrayEquals(corrupted, Files.readAllBytes(file.toPath()));
+            assertTrue(InPlaceFile.getJournal(file).exists());
+        }
+    }
+
+    //файл, зашифрованный другим ключом, не изменяется
+    @Test
+    public void testWrongKey() throws Exception {
+        byte[] data = new byte[10_000];
+        new Random(16).nextBytes(data);
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        run(file, CipherMode.CTR, ModeOf.ENCRYPTION);
+        byte[] encrypted = Files.readAllBytes(file.toPath());
+
+        ExpandedKey other = CipherBlockAES.expandKey(new byte[16]);
+        try {
+            new InPlaceFile(file, CipherMode.CTR, other, new CipherContext(ModeOf.DECRYPTION)).run();
+            fail("Wrong key was accepted");
+        } catch (IOException e) {
+            assertEquals("Wrong key", e.getMessage());
+        }
+        assertFalse(InPlaceFile.getJournal(file).exists());
+        assertArrayEquals(encrypted, Files.readAllBytes(file.toPath()));
+    }
+
+    private void run(File file, CipherMode cipherMode, ModeOf mode) throws Exception {
+        new InPlaceFile(file, cipherMode, key, new CipherContext(mode)).run();
+    }
+}
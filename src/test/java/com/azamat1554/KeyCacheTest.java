@@ -0,0 +1,79 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.KeyCache;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of KeyCache class
+ */
+public class KeyCacheTest {
+    private byte[] plainBytes = new byte[16];
+
+    private byte[] key(int n) {
+        byte[] key = new byte[16];
+        key[0] = (byte) n;
+        key[15] = (byte) (n >> 8);
+        return key;
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        KeyCache cache = new KeyCache(32);
+
+        byte[] first = new CipherBlockAES(cache.get(key(1))).encryptBlock(plainBytes);
+        byte[] second = new CipherBlockAES(cache.get(key(1))).encryptBlock(plainBytes);
+
+        assertArrayEquals(first, second);
+        assertArrayEquals(first, new CipherBlockAES(CipherBlockAES.expandKey(key(1))).encryptBlock(plainBytes));
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+
+        // при попадании возвращается копия, а не ключ из кэша
+        assertNotSame(cache.get(key(1)), cache.get(key(1)));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        KeyCache cache = new KeyCache(16);
+        ExpandedKey evicted = cache.get(key(0));
+        for (int i = 1; i < 1000; i++)
+            cache.get(key(i));
+
+        assertTrue(cache.size() <= 16);
+        assertEquals(1000 - cache.size(), cache.evictionCount());
+
+        // вытесненный ключ обнуляется в кэше и снова расширяется, а копии, выданные раньше, остаются рабочими
+        byte[] expected = new CipherBlockAES(CipherBlockAES.expandKey(key(0))).encryptBlock(plainBytes);
+        assertArrayEquals(expected, new CipherBlockAES(cache.get(key(0))).encryptBlock(plainBytes));
+        assertArrayEquals(expected, new CipherBlockAES(evicted).encryptBlock(plainBytes));
+        assertEquals(1001, cache.missCount());
+
+        // удаленные из кэша ключи обнуляются, а копии - нет
+        ExpandedKey copy = cache.get(key(0));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertArrayEquals(expected, new CipherBlockAES(copy).encryptBlock(plainBytes));
+    }
+
+    // в кэше никогда не больше ключей, чем задано, в том числе если емкость меньше количества сегментов
+    @Test
+    public void testCapacity() throws Exception {
+        for (int capacity : new int[]{1, 2, 3, 17, 40}) {
+            KeyCache cache = new KeyCache(capacity);
+            for (int i = 0; i < 1000; i++) {
+                cache.get(key(i));
+                assertTrue(String.valueOf(capacity), cache.size() <= capacity);
+            }
+            assertEquals(1000 - cache.size(), cache.evictionCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongKeyLength() throws Exception {
+        new KeyCache(1).get(new byte[10]);
+    }
+}
@@ -0,0 +1,127 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of the shared thread pool management
+ */
+public class PoolTest {
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    @After
+    public void tearDown() {
+        BlockCipher.shutdown();
+    }
+
+    //пул заменяется и останавливается, пока на нем выполняются задания, а задания не теряются
+    @Test
+    public void testSwapWhileRunning() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> jobs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Random random = new Random(i);
+            Thread job = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        for (CipherMode cipherMode : CipherMode.values()) roundTrip(cipherMode, random);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            job.start();
+            jobs.add(job);
+        }
+
+        List<ForkJoinPool> installed = new ArrayList<>();
+        try {
+            for (int i = 0; i < 60 && failure.get() == null; i++) {
+                switch (i % 3) {
+                    case 0:
+                        BlockCipher.setParallelism(1 + i % 4);
+                        break;
+                    case 1:
+                        ForkJoinPool pool = new ForkJoinPool(2);
+                        installed.add(pool);
+                        BlockCipher.setPool(pool);
+                        break;
+                    default:
+                        BlockCipher.shutdown();
+                }
+                assertTrue(BlockCipher.getQueuedTaskCount() >= 0);
+                assertTrue(BlockCipher.getStealCount() >= 0);
+                Thread.sleep(10);
+            }
+        } finally {
+            running.set(false);
+            for (Thread job : jobs) job.join();
+            for (ForkJoinPool pool : installed) pool.shutdown();
+        }
+        if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+
+    //счетчики читаются из текущего пула и не создают его
+    @Test
+    public void testCounters() throws Exception {
+        BlockCipher.shutdown();
+        assertEquals(0, BlockCipher.getQueuedTaskCount());
+        assertEquals(0, BlockCipher.getStealCount());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BlockCipher.setPool(pool);
+            assertSame(pool, BlockCipher.getPool());
+            for (int i = 0; i < 20; i++) roundTrip(CipherMode.CTR, new Random(i));
+
+            assertEquals(pool.getStealCount(), BlockCipher.getStealCount());
+            assertEquals(0, BlockCipher.getQueuedTaskCount());
+
+            BlockCipher.setParallelism(3);
+            assertTrue(pool.isShutdown());
+            assertEquals(3, BlockCipher.getPool().getParallelism());
+            assertEquals(0, BlockCipher.getStealCount());
+        } finally {
+            pool.shutdown();
+        }
+
+        try {
+            BlockCipher.setPool(null);
+            fail("Null pool was accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Pool is null", e.getMessage());
+        }
+    }
+
+    private void roundTrip(CipherMode cipherMode, Random random) throws Exception {
+        byte[] data = new byte[200_000 + random.nextInt(1000)];
+        random.nextBytes(data);
+        byte[] buffer = new byte[16 + data.length + 32];
+        System.arraycopy(data, 0, buffer, 16, data.length);
+        int offset = cipherMode == CipherMode.ECB ? 0 : 16;
+        if (offset == 0) System.arraycopy(data, 0, buffer, 0, data.length);
+
+        int end = BlockCipher.getCipher(cipherMode, key, ModeOf.ENCRYPTION).update(buffer, offset + data.length, true);
+        end = BlockCipher.getCipher(cipherMode, key, ModeOf.DECRYPTION).update(buffer, end, true);
+        assertArrayEquals(cipherMode.name(), data, Arrays.copyOfRange(buffer, offset, end));
+    }
+}
@@ -0,0 +1,215 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.handlers.FileHeader;
+import com.azamat1554.handlers.SegmentedChannel;
+import com.azamat1554.handlers.SegmentedFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of segmented file format
+ */
+public class SegmentedFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //файл шифруется и расшифровывается сегментами во всех режимах, в том числе пустой
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (int length : new int[]{0, 1, 4096, 100_003}) {
+            byte[] data = new byte[length];
+            new Random(length).nextBytes(data);
+
+            for (CipherMode cipherMode : CipherMode.values()) {
+                File encrypted = encrypt(data, cipherMode, 4096);
+                File decrypted = folder.newFile();
+
+                try (FileChannel in = FileChannel.open(encrypted.toPath());
+                     FileChannel out = FileChannel.open(decrypted.toPath(), StandardOpenOption.WRITE)) {
+                    assertTrue(SegmentedFile.isSegmented(in));
+                    SegmentedFile file = new SegmentedFile(in, key, new CipherContext(ModeOf.DECRYPTION));
+                    assertEquals(cipherMode, file.getCipherMode());
+                    assertEquals(length, file.decrypt(out));
+                }
+                assertArrayEquals(cipherMode + " " + length, data, Files.readAllBytes(decrypted.toPath()));
+            }
+        }
+    }
+
+    //произвольное чтение, поврежденный сегмент не мешает читать остальные
+    @Test
+    public void testChannel() throws Exception {
+        byte[] data = new byte[100_003];
+        new Random(11).nextBytes(data);
+
+        File encrypted = encrypt(data, CipherMode.GCM, 4096);
+        try (FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.WRITE)) {
+            //второй байт данных третьего сегмента: заголовок, два сегмента, IV
+            out.write(ByteBuffer.wrap(new byte[]{0}),
+                    FileHeader.SIZE + SegmentedFile.NONCE_SIZE + 2 * (16 + 4096 + 16) + 16 + 1);
+        }
+
+        try (SeekableByteChannel channel = new SegmentedChannel(FileChannel.open(encrypted.toPath()), key)) {
+            assertEquals(data.length, channel.size());
+
+            Random random = new Random(12);
+            for (int i = 0; i < 100; i++) {
+                int from = random.nextInt(data.length);
+                int length = Math.min(random.nextInt(10_000), data.length - from);
+                if (from + length > 2 * 4096 && from < 3 * 4096) continue;
+
+                ByteBuffer dst = ByteBuffer.allocate(length);
+                channel.position(from);
+                while (dst.hasRemaining() && channel.read(dst) > 0) ;
+                assertArrayEquals(Arrays.copyOfRange(data, from, from + length), dst.array());
+            }
+
+            channel.position(2 * 4096 + 100);
+            try {
+                channel.read(ByteBuffer.allocate(10));
+                fail("Corrupted segment was read");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Segment 2"));
+            }
+
+            channel.position(data.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    //переставленные, повторенные и отброшенные сегменты обнаруживаются
+    @Test
+    public void testReorder() throws Exception {
+        byte[] data = new byte[3 * 4096 + 100];
+        new Random(22).nextBytes(data);
+
+        for (CipherMode cipherMode : new CipherMode[]{CipherMode.CBC, CipherMode.CTR, CipherMode.GCM}) {
+            int length = 16 + 4096 + (cipherMode == CipherMode.CBC ? 16 : 0) + (cipherMode == CipherMode.GCM ? 16 : 0);
+
+            //второй и третий сегменты меняются местами в индексе
+            File encrypted = encrypt(data, cipherMode, 4096);
+            long index = encrypted.length() - 16 - 4 * 12;
+            try (FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.WRITE)) {
+                long second = FileHeader.SIZE + SegmentedFile.NONCE_SIZE + length;
+                out.write(entry(second + length, length), index + 12);
+                out.write(entry(second, length), index + 24);
+            }
+            assertRejected(encrypted, cipherMode + " reordered");
+
+            //первый сегмент повторяется на месте второго
+            encrypted = encrypt(data, cipherMode, 4096);
+            try (FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.WRITE)) {
+                long first = FileHeader.SIZE + SegmentedFile.NONCE_SIZE;
+                out.write(entry(first, length), index + 12);
+            }
+            assertRejected(encrypted, cipherMode + " duplicated");
+
+            //последний сегмент отброшен, индекс и окончание исправлены
+            encrypted = encrypt(data, cipherMode, 4096);
+            try (FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer tail = ByteBuffer.allocate(3 * 12 + 16);
+                out.read(tail, index);
+                ((Buffer) tail).flip();
+                tail.putLong(36, 3 * 4096).putInt(44, 3).putInt(48, SegmentedFile.MAGIC);
+                out.write(tail, index);
+                out.truncate(index + 36 + 16);
+            }
+            assertRejected(encrypted, cipherMode + " truncated");
+        }
+
+        //в режиме GCM начальное значение счетчика во втором сегменте изменено
+        File encrypted = encrypt(data, CipherMode.GCM, 4096);
+        try (FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long counter = FileHeader.SIZE + SegmentedFile.NONCE_SIZE + 16 + 4096 + 16 + 15;
+            ByteBuffer value = ByteBuffer.allocate(1);
+            out.read(value, counter);
+            value.put(0, (byte) (value.get(0) ^ 1));
+            ((Buffer) value).clear();
+            out.write(value, counter);
+        }
+        assertRejected(encrypted, "GCM counter");
+    }
+
+    /* Возвращает запись индекса. */
+    private static ByteBuffer entry(long offset, int length) {
+        ByteBuffer entry = ByteBuffer.allocate(12).putLong(offset).putInt(length);
+        ((Buffer) entry).flip();
+        return entry;
+    }
+
+    private void assertRejected(File encrypted, String message) throws Exception {
+        try (FileChannel in = FileChannel.open(encrypted.toPath());
+             FileChannel out = FileChannel.open(folder.newFile().toPath(), StandardOpenOption.WRITE)) {
+            new SegmentedFile(in, key, new CipherContext(ModeOf.DECRYPTION)).decrypt(out);
+            fail(message);
+        } catch (IOException e) {
+            assertTrue(message + ": " + e.getMessage(), e.getMessage().startsWith("Segment"));
+        }
+    }
+
+    //файл, зашифрованный другим ключом, отклоняется по заголовку
+    @Test
+    public void testWrongKey() throws Exception {
+        File encrypted = encrypt(new byte[10_000], CipherMode.CBC, 4096);
+        ExpandedKey other = CipherBlockAES.expandKey(new byte[16]);
+
+        try (FileChannel in = FileChannel.open(encrypted.toPath())) {
+            FileHeader header = FileHeader.read(in);
+            assertEquals(4096, header.getSegmentSize());
+            header.checkKey(key);
+            header.checkMode(CipherMode.CBC);
+
+            try {
+                new SegmentedFile(in, other, new CipherContext(ModeOf.DECRYPTION));
+                fail("Wrong key was accepted");
+            } catch (IOException e) {
+                assertEquals("Wrong key", e.getMessage());
+            }
+            try {
+                header.checkMode(CipherMode.CTR);
+                fail("Wrong mode was accepted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("CBC"));
+            }
+        }
+    }
+
+    private File encrypt(byte[] data, CipherMode cipherMode, int segmentSize) throws Exception {
+        File plain = folder.newFile();
+        File encrypted = folder.newFile();
+        Files.write(plain.toPath(), data);
+
+        try (FileChannel in = FileChannel.open(plain.toPath());
+             FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.WRITE)) {
+            long size = SegmentedFile.encrypt(in, out, cipherMode, key, new CipherContext(ModeOf.ENCRYPTION), segmentSize);
+            assertEquals(size, out.size());
+        }
+        return encrypted;
+    }
+}
@@ -6,6 +6,8 @@ import com.azamat1554.cipher.modes.CipherMode;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Base64;
+
 import static org.junit.Assert.*;
 
 /**
@@ -31,4 +33,35 @@ public class TextHandlerTest {
         assertEquals("encrypt", th.decrypt(th.encrypt("encrypt", CipherMode.CBC), CipherMode.CBC));
 
     }
+
+    @Test
+    public void counterModeTest() throws Exception {
+        String encrypted = th.encrypt("counter mode", CipherMode.CTR);
+
+        //в режиме CTR размер не меняется, добавляется только IV
+        assertEquals(16 + "counter mode".length(), Base64.getDecoder().decode(encrypted).length);
+        assertEquals("counter mode", th.decrypt(encrypted, CipherMode.CTR));
+    }
+
+    @Test
+    public void galoisCounterModeTest() throws Exception {
+        assertEquals("authenticated", th.decrypt(th.encrypt("authenticated", CipherMode.GCM), CipherMode.GCM));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void galoisCounterModeTamperTest() throws Exception {
+        byte[] bytes = Base64.getDecoder().decode(th.encrypt("authenticated", CipherMode.GCM));
+        bytes[20] ^= 1;
+
+        th.decrypt(Base64.getEncoder().encodeToString(bytes), CipherMode.GCM);
+    }
+
+    //начальное значение счетчика в IV не входит в тег, но его изменение тоже обнаруживается
+    @Test(expected = IllegalArgumentException.class)
+    public void galoisCounterModeCounterTamperTest() throws Exception {
+        byte[] bytes = Base64.getDecoder().decode(th.encrypt("authenticated", CipherMode.GCM));
+        bytes[15] ^= 1;
+
+        th.decrypt(Base64.getEncoder().encodeToString(bytes), CipherMode.GCM);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.azamat1554;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.Engine;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.BlockCipher;
+import com.azamat1554.cipher.modes.CipherMode;
+import com.azamat1554.cipher.modes.XTS;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of XTS mode
+ */
+public class XTSTest {
+    //векторы 2 и 15-18 стандарта IEEE 1619, последние с заимствованием шифротекста, сектор - единица данных вектора
+    @Test
+    public void testVectors() throws Exception {
+        ExpandedKey key1 = key("11111111111111111111111111111111");
+        ExpandedKey key2 = key("22222222222222222222222222222222");
+        byte[] data = new byte[32];
+        Arrays.fill(data, (byte) 0x44);
+        assertEquals("c454185e6a16936e39334038acef838bfb186fff7480adc4289382ecd6d394f0",
+                encrypt(key1, key2, 32, 0x3333333333L, data));
+
+        key1 = key("fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0");
+        key2 = key("bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0");
+        assertEquals("6c1625db4671522d3d7599601de7ca09ed", encrypt(key1, key2, 32, 0x123456789aL, range(17)));
+        assertEquals("d069444b7a7e0cab09e24447d24deb1fedbf", encrypt(key1, key2, 32, 0x123456789aL, range(18)));
+        assertEquals("e5df1351c0544ba1350b3363cd8ef4beedbf9d", encrypt(key1, key2, 32, 0x123456789aL, range(19)));
+        assertEquals("9d84c813f719aa2c7be3f66171c7c5c2edbf9dac", encrypt(key1, key2, 32, 0x123456789aL, range(20)));
+    }
+
+    //секторы обрабатываются параллельно, а любой сектор можно перешифровать отдельно
+    @Test
+    public void testSectors() throws Exception {
+        ExpandedKey key1 = key("000102030405060708090a0b0c0d0e0f");
+        ExpandedKey key2 = key("101112131415161718191a1b1c1d1e1f");
+        byte[] data = new byte[300 * 512 + 100];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 31 + 7);
+
+        byte[] encrypted = data.clone();
+        XTS cipher = new XTS(key1, key2, 512, new CipherContext(ModeOf.ENCRYPTION), Engine.TABLE);
+        cipher.seek(5 * 32);
+        cipher.update(encrypted, encrypted.length, true);
+        assertEquals("b2e954cb43b87e8956f4f4ab47aa5aedcd75fd82b0d322924007fcd883f18632",
+                hex(MessageDigest.getInstance("SHA-256").digest(encrypted)));
+
+        //сектор 17 и последний неполный сектор
+        for (int sector : new int[]{17, 300}) {
+            int from = sector * 512;
+            byte[] part = Arrays.copyOfRange(data, from, Math.min(from + 512, data.length));
+            cipher = new XTS(key1, key2, 512, new CipherContext(ModeOf.ENCRYPTION), Engine.BITSLICED);
+            cipher.seek((5 + sector) * 32);
+            cipher.update(part, part.length, true);
+            assertArrayEquals(Arrays.copyOfRange(encrypted, from, from + part.length), part);
+        }
+
+        cipher = new XTS(key1, key2, 512, new CipherContext(ModeOf.DECRYPTION), Engine.TABLE);
+        cipher.seek(5 * 32);
+        cipher.update(encrypted, encrypted.length, true);
+        assertArrayEquals(data, encrypted);
+    }
+
+    //размер данных не меняется, в том числе если данные короче блока или переданы частями
+    @Test
+    public void testRoundTrip() throws Exception {
+        ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+                0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+                (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+        });
+        Random random = new Random(17);
+        for (int length : new int[]{0, 1, 15, 16, 17, 511, 512, 513, 527, 528, 100_003}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            BlockCipher cipher = BlockCipher.getCipher(CipherMode.XTS, key, ModeOf.ENCRYPTION);
+            assertEquals(length, cipher.getEncryptedSize(length));
+            byte[] encrypted = data.clone();
+            assertEquals(length, cipher.update(encrypted, length, true));
+
+            //куски по 4096 байт, последний неполный блок вместе с предыдущим
+            cipher = BlockCipher.getCipher(CipherMode.XTS, key, ModeOf.DECRYPTION);
+            byte[] decrypted = encrypted.clone();
+            int position = 0;
+            while (length - position > 4096 + cipher.getTailSize()) {
+                byte[] chunk = Arrays.copyOfRange(decrypted, position, position + 4096);
+                cipher.update(chunk, chunk.length, false);
+                System.arraycopy(chunk, 0, decrypted, position, chunk.length);
+                position += 4096;
+            }
+            byte[] chunk = Arrays.copyOfRange(decrypted, position, length);
+            cipher.update(chunk, chunk.length, true);
+            System.arraycopy(chunk, 0, decrypted, position, chunk.length);
+
+            assertArrayEquals(String.valueOf(length), data, decrypted);
+        }
+    }
+
+    private static String encrypt(ExpandedKey key1, ExpandedKey key2, int sectorSize, long sector, byte[] data)
+            throws Exception {
+        XTS cipher = new XTS(key1, key2, sectorSize, new CipherContext(ModeOf.ENCRYPTION), Engine.TABLE);
+        cipher.seek(sector * (sectorSize / 16));
+        byte[] encrypted = data.clone();
+        cipher.update(encrypted, encrypted.length, true);
+
+        XTS inverse = new XTS(key1, key2, sectorSize, new CipherContext(ModeOf.DECRYPTION), Engine.TABLE);
+        inverse.seek(sector * (sectorSize / 16));
+        byte[] decrypted = encrypted.clone();
+        inverse.update(decrypted, decrypted.length, true);
+        assertArrayEquals(data, decrypted);
+
+        return hex(encrypted);
+    }
+
+    private static ExpandedKey key(String hex) {
+        byte[] bytes = new BigInteger("01" + hex, 16).toByteArray();
+        return CipherBlockAES.expandKey(Arrays.copyOfRange(bytes, 1, bytes.length));
+    }
+
+    private static byte[] range(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) i;
+        return data;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
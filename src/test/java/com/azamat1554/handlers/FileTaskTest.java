@@ -0,0 +1,101 @@
+package com.azamat1554.handlers;
+
+import com.azamat1554.cipher.CipherBlockAES;
+import com.azamat1554.cipher.CipherContext;
+import com.azamat1554.cipher.ExpandedKey;
+import com.azamat1554.cipher.ModeOf;
+import com.azamat1554.cipher.modes.CipherMode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of file tasks and their pipeline
+ */
+public class FileTaskTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExpandedKey key = CipherBlockAES.expandKey(new byte[]{
+            0x2b, 0x7e, 0x15, 0x16, 0x28, (byte) 0xae, (byte) 0xd2, (byte) 0xa6,
+            (byte) 0xab, (byte) 0xf7, 0x15, (byte) 0x88, 0x09, (byte) 0xcf, 0x4f, 0x3c
+    });
+
+    //кусков намного больше, чем буферов: запись не должна закончиться раньше последнего куска
+    @Test
+    public void testPipeline() throws Exception {
+        for (int run = 0; run < 20; run++) {
+            int count = 5_000;
+            int[] next = new int[1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            new Pipeline(2, 4).run(chunk -> {
+                chunk.data[0] = (byte) next[0];
+                chunk.length = 1;
+                chunk.last = ++next[0] == count;
+            }, chunk -> {
+                chunk.from = 0;
+                chunk.to = chunk.length;
+            }, chunk -> out.write(chunk.data, chunk.from, chunk.to - chunk.from));
+
+            byte[] written = out.toByteArray();
+            assertEquals(count, written.length);
+            for (int i = 0; i < count; i++) assertEquals((byte) i, written[i]);
+        }
+    }
+
+    //файл проходит через конвейер маленькими кусками во всех режимах
+    @Test
+    public void testChunks() throws Exception {
+        byte[] data = new byte[100_003];
+        new Random(18).nextBytes(data);
+        for (CipherMode cipherMode : CipherMode.values()) {
+            assertArrayEquals(cipherMode.toString(), data, roundTrip(data, cipherMode, false, 256));
+        }
+    }
+
+    //размеры вокруг границы куска и окна: конец данных, тег и неполный блок не отделяются от последнего куска
+    @Test
+    public void testBoundaries() throws Exception {
+        Random random = new Random(19);
+        for (int length : new int[]{0, 1, 63, 64, 65, 79, 80, 81, 255, 256, 257, 271, 272, 273, 288, 5_000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            for (CipherMode cipherMode : CipherMode.values()) {
+                assertArrayEquals("stream " + cipherMode + " " + length, data, roundTrip(data, cipherMode, false, 256));
+                assertArrayEquals("mapped " + cipherMode + " " + length, data, roundTrip(data, cipherMode, true, 256));
+            }
+        }
+    }
+
+    //файл отображается в память несколькими окнами во всех режимах
+    @Test
+    public void testWindows() throws Exception {
+        byte[] data = new byte[100_003];
+        new Random(20).nextBytes(data);
+        for (CipherMode cipherMode : CipherMode.values()) {
+            assertArrayEquals(cipherMode.toString(), data, roundTrip(data, cipherMode, true, 4096));
+        }
+    }
+
+    /* Шифрует и расшифровывает данные задачами с заданным размером окна, возвращает результат. */
+    private byte[] roundTrip(byte[] data, CipherMode cipherMode, boolean mapped, int window) throws Exception {
+        File src = folder.newFile();
+        File encrypted = folder.newFile();
+        File decrypted = folder.newFile();
+        Files.write(src.toPath(), data);
+
+        new FileTask(src, encrypted, cipherMode, key, new CipherContext(ModeOf.ENCRYPTION),
+                mapped, 0, false, window).run();
+        new FileTask(encrypted, decrypted, cipherMode, key, new CipherContext(ModeOf.DECRYPTION),
+                mapped, 0, false, window).run();
+        return Files.readAllBytes(decrypted.toPath());
+    }
+}
@@ -0,0 +1,208 @@
+package com.azamat1554.cipher;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Реализация AES на Vector API ({@code jdk.incubator.vector}), которая обрабатывает
+ * несколько независимых блоков одной векторной инструкцией: при ширине вектора 512 бит - 4 блока.
+ * <p>
+ * Таблицы в памяти не используются: SubBytes выполняется перестановками байтов
+ * ({@code selectFrom}) по младшему полубайту из 16 строк S-box, выбранных по старшему полубайту,
+ * ShiftRows и поворот столбцов в MixColumns - фиксированными перестановками,
+ * а умножение на 2 в поле Галуа - сдвигом и условным XOR с {@code 0x1b}.
+ * Блоки, которых не хватает на полный вектор, обрабатываются {@link CipherBlockAES}.
+ *
+ * @author Azamat Abidokov
+ */
+final class VectorAES {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /* Количество блоков в одном векторе. */
+    private static final int BLOCKS = SPECIES.length() / AESConst.BLOCK_SIZE;
+
+    /* Строки S-box и обратного S-box по 16 байт: строка h содержит значения для байтов 0xh0..0xhf. */
+    private static final ByteVector[] SBOX_ROWS = rows(CipherBlockAES.sbox);
+    private static final ByteVector[] INV_SBOX_ROWS = rows(CipherBlockAES.invSbox);
+
+    private static final VectorShuffle<Byte> SHIFT_ROWS = shuffle(0);
+    private static final VectorShuffle<Byte> INV_SHIFT_ROWS = shuffle(1);
+    private static final VectorShuffle<Byte> ROTATE1 = shuffle(2);
+    private static final VectorShuffle<Byte> ROTATE2 = shuffle(3);
+
+    private VectorAES() {
+    }
+
+    /**
+     * Проверяет, помещается ли в вектор хотя бы один блок.
+     */
+    static boolean isSupported() {
+        return BLOCKS > 0;
+    }
+
+    static BlockTransformer encryptor(ExpandedKey key) {
+        return new Encryptor(key);
+    }
+
+    static BlockTransformer decryptor(ExpandedKey key) {
+        return new Decryptor(key);
+    }
+
+    /* Общая часть: раундовые ключи, размноженные на все блоки вектора, и обработка остатка. */
+    private static abstract class Transformer extends StagingTransformer {
+        final ByteVector[] rk = new ByteVector[AESConst.NR + 1];
+
+        /* Обрабатывает блоки, которых не хватило на полный вектор. */
+        private final BlockTransformer tail;
+
+        Transformer(ExpandedKey key, BlockTransformer tail) {
+            this.tail = tail;
+
+            byte[] bytes = new byte[SPECIES.length()];
+            for (int round = 0; round <= AESConst.NR; round++) {
+                for (int i = 0; i < bytes.length; i++) {
+                    int word = key.encryptionKeys[round * AESConst.NB + (i % AESConst.BLOCK_SIZE) / 4];
+                    bytes[i] = (byte) (word >>> (24 - 8 * (i % 4)));
+                }
+                rk[round] = ByteVector.fromArray(SPECIES, bytes, 0);
+            }
+        }
+
+        @Override
+        public void transformBlock(byte[] in, int inOff, byte[] out, int outOff) {
+            tail.transformBlock(in, inOff, out, outOff);
+        }
+
+        @Override
+        public void transformBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+            for (; blocks >= BLOCKS; blocks -= BLOCKS) {
+                rounds(ByteVector.fromArray(SPECIES, in, inOff)).intoArray(out, outOff);
+                inOff += SPECIES.length();
+                outOff += SPECIES.length();
+            }
+            tail.transformBlocks(in, inOff, out, outOff, blocks);
+        }
+
+        abstract ByteVector rounds(ByteVector state);
+    }
+
+    private static final class Encryptor extends Transformer {
+        private Encryptor(ExpandedKey key) {
+            super(key, CipherBlockAES.encryptor(key));
+        }
+
+        @Override
+        ByteVector rounds(ByteVector state) {
+            state = state.lanewise(VectorOperators.XOR, rk[0]);
+            for (int round = 1; round < AESConst.NR; round++) {
+                state = substitute(state, SBOX_ROWS).rearrange(SHIFT_ROWS);
+                state = mixColumns(state).lanewise(VectorOperators.XOR, rk[round]);
+            }
+            state = substitute(state, SBOX_ROWS).rearrange(SHIFT_ROWS);
+            return state.lanewise(VectorOperators.XOR, rk[AESConst.NR]);
+        }
+    }
+
+    private static final class Decryptor extends Transformer {
+        private Decryptor(ExpandedKey key) {
+            super(key, CipherBlockAES.decryptor(key));
+        }
+
+        @Override
+        ByteVector rounds(ByteVector state) {
+            state = state.lanewise(VectorOperators.XOR, rk[AESConst.NR]);
+            for (int round = AESConst.NR - 1; round > 0; round--) {
+                state = substitute(state.rearrange(INV_SHIFT_ROWS), INV_SBOX_ROWS);
+                state = invMixColumns(state.lanewise(VectorOperators.XOR, rk[round]));
+            }
+            state = substitute(state.rearrange(INV_SHIFT_ROWS), INV_SBOX_ROWS);
+            return state.lanewise(VectorOperators.XOR, rk[0]);
+        }
+    }
+
+    //---------------------------------------------------------------------------------------
+    //                                  Преобразования раунда
+    //---------------------------------------------------------------------------------------
+
+    /**
+     * Заменяет каждый байт значением из таблицы, разбитой на строки {@code rows}.
+     */
+    private static ByteVector substitute(ByteVector state, ByteVector[] rows) {
+        ByteVector low = state.lanewise(VectorOperators.AND, (byte) 0x0f);
+        ByteVector high = state.lanewise(VectorOperators.ASHR, 4).lanewise(VectorOperators.AND, (byte) 0x0f);
+
+        ByteVector result = low.selectFrom(rows[0]);
+        for (int h = 1; h < 16; h++) {
+            VectorMask<Byte> row = high.compare(VectorOperators.EQ, (byte) h);
+            result = result.blend(low.selectFrom(rows[h]), row);
+        }
+        return result;
+    }
+
+    /* Умножает каждый байт на 2 в поле Галуа. */
+    private static ByteVector xtime(ByteVector v) {
+        VectorMask<Byte> carry = v.compare(VectorOperators.LT, (byte) 0);
+        return v.lanewise(VectorOperators.LSHL, 1).lanewise(VectorOperators.XOR, (byte) 0x1b, carry);
+    }
+
+    /* b[r] = 2 * (a[r] ^ a[r + 1]) ^ a[r + 1] ^ a[r + 2] ^ a[r + 3] */
+    private static ByteVector mixColumns(ByteVector a) {
+        ByteVector rotated = a.rearrange(ROTATE1);
+        ByteVector sum = a.lanewise(VectorOperators.XOR, rotated);
+        return xtime(sum)
+                .lanewise(VectorOperators.XOR, rotated)
+                .lanewise(VectorOperators.XOR, sum.rearrange(ROTATE2));
+    }
+
+    /* К a[r] прибавляется 4 * (a[r] ^ a[r + 2]), после чего выполняется обычный MixColumns. */
+    private static ByteVector invMixColumns(ByteVector a) {
+        ByteVector sum = a.lanewise(VectorOperators.XOR, a.rearrange(ROTATE2));
+        return mixColumns(a.lanewise(VectorOperators.XOR, xtime(xtime(sum))));
+    }
+
+    //---------------------------------------------------------------------------------------
+    //                               Вспомогательные методы
+    //---------------------------------------------------------------------------------------
+
+    private static ByteVector[] rows(int[] box) {
+        ByteVector[] rows = new ByteVector[16];
+        byte[] bytes = new byte[SPECIES.length()];
+        for (int h = 0; h < 16; h++) {
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = (byte) box[16 * h + i % 16];
+            rows[h] = ByteVector.fromArray(SPECIES, bytes, 0);
+        }
+        return rows;
+    }
+
+    /**
+     * Строит перестановку, одинаковую для каждого блока вектора:
+     * 0 - ShiftRows, 1 - InvShiftRows, 2 и 3 - поворот строк внутри столбца на 1 и 2.
+     */
+    private static VectorShuffle<Byte> shuffle(int kind) {
+        int[] indexes = new int[SPECIES.length()];
+        for (int i = 0; i < indexes.length; i++) {
+            int base = i - i % AESConst.BLOCK_SIZE;
+            int p = i % AESConst.BLOCK_SIZE;
+            int r = p % 4;
+            int c = p / 4;
+
+            int source;
+            switch (kind) {
+                case 0:
+                    source = r + 4 * ((c + r) % 4);
+                    break;
+                case 1:
+                    source = r + 4 * ((c - r + 4) % 4);
+                    break;
+                default:
+                    source = 4 * c + (r + kind - 1) % 4;
+            }
+            indexes[i] = base + source;
+        }
+        return VectorShuffle.fromArray(SPECIES, indexes, 0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.azamat1554.cipher;
+
+/**
+ * Поставщик реализации {@link VectorAES}, подключается через {@link java.util.ServiceLoader}
+ * под именем {@code VECTOR}.
+ * <p>
+ * Класс не ссылается на типы {@code jdk.incubator.vector}, поэтому загружается и без этого модуля.
+ * Если модуль не подключен (JVM запущена без {@code --add-modules jdk.incubator.vector})
+ * или ширина векторов меньше одного блока, используется {@link CipherBlockAES}.
+ *
+ * @author Azamat Abidokov
+ */
+public final class VectorEngine implements AESEngine {
+    /* Подключен ли модуль jdk.incubator.vector. */
+    private static final boolean VECTOR_MODULE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    @Override
+    public String getName() {
+        return "VECTOR";
+    }
+
+    @Override
+    public BlockTransformer encryptor(ExpandedKey key) {
+        return isVectorized() ? VectorAES.encryptor(key) : CipherBlockAES.encryptor(key);
+    }
+
+    @Override
+    public BlockTransformer decryptor(ExpandedKey key) {
+        return isVectorized() ? VectorAES.decryptor(key) : CipherBlockAES.decryptor(key);
+    }
+
+    /**
+     * Проверяет, будут ли блоки обрабатываться векторными инструкциями.
+     */
+    public static boolean isVectorized() {
+        return VECTOR_MODULE && VectorAES.isSupported();
+    }
+}